@@ -0,0 +1,63 @@
+package interpreter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* BinaryBenchmark: Interpreter.visitBinary on arithmetic and comparisons */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryBenchmark {
+	private Interpreter interpreter;
+	private Expr add;
+	private Expr lessThan;
+	private Expr polynomial;
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+
+		add = binary(new Expr.Literal(1.5), TokenType.PLUS, "+", new Expr.Literal(2.5));
+		lessThan = binary(new Expr.Literal(1.5), TokenType.LT, "<", new Expr.Literal(2.5));
+
+		/* (a * b + (a - b)) / 2 with global variables a and b */
+		Scripts.run(interpreter, "var a = 3; var b = 4;");
+		Expr a = new Expr.Variable(Scripts.identifier("a"));
+		Expr b = new Expr.Variable(Scripts.identifier("b"));
+		polynomial = binary(
+				binary(binary(a, TokenType.STAR, "*", b), TokenType.PLUS, "+", binary(a, TokenType.MINUS, "-", b)),
+				TokenType.SLASH, "/", new Expr.Literal(2.0));
+	}
+
+	private static Expr binary(Expr left, TokenType type, String lexeme, Expr right) {
+		return new Expr.Binary(left, right, new Token(type, lexeme, 1));
+	}
+
+	@Benchmark
+	public Object numberAdd() {
+		return add.accept(interpreter);
+	}
+
+	@Benchmark
+	public Object numberLessThan() {
+		return lessThan.accept(interpreter);
+	}
+
+	@Benchmark
+	public Object polynomial() {
+		return polynomial.accept(interpreter);
+	}
+}
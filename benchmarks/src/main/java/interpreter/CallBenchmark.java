@@ -0,0 +1,50 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* CallBenchmark: overhead of Function.call, alone and through Interpreter.visitCall */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallBenchmark {
+	private Interpreter interpreter;
+	private Function add;
+	private final List<Object> args = Arrays.asList(1.0, 2.0);
+	private Expr callExpr;
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+		Scripts.run(interpreter, "func add(a, b) { return a + b; }");
+		add = (Function) interpreter.global.values.get("add");
+
+		Stmt.Expression stmt = (Stmt.Expression) Scripts.compile(interpreter, "add(1, 2);").get(0);
+		callExpr = stmt.expression;
+	}
+
+	@Benchmark
+	public Object functionCall() {
+		return add.call(interpreter, args);
+	}
+
+	@Benchmark
+	public Object visitCall() {
+		return callExpr.accept(interpreter);
+	}
+}
@@ -0,0 +1,56 @@
+package interpreter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* EnvironmentBenchmark: variable lookup @depth environments above the current one
+ * ancestorLookup is the path of resolved locals (Interpreter.visitVariable), dynamicLookup the
+ * name-by-name walk used for globals. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvironmentBenchmark {
+	@Param({"0", "1", "4", "16"})
+	public int depth;
+
+	private Environment innermost;
+	private final Token name = Scripts.identifier("target");
+
+	@Setup
+	public void setUp() {
+		Environment env = new Environment();
+		env.define("target", 42.0);
+
+		for (int i = 0; i < depth; i++) {
+			env = new Environment(env);
+			/* Each scope declares a few other names, as a function frame would */
+			env.define("a" + i, 1.0);
+			env.define("b" + i, 2.0);
+		}
+		innermost = env;
+	}
+
+	@Benchmark
+	public Object ancestorLookup() {
+		return innermost.ancestor(depth).get(name);
+	}
+
+	@Benchmark
+	public Object dynamicLookup() {
+		return innermost.get(name);
+	}
+}
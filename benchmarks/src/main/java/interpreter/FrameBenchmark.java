@@ -0,0 +1,68 @@
+package interpreter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* FrameBenchmark: call frames of testcases/functions/testcase_6.nad, scaled up by @n
+ * recursion runs fib and sum, whose frames no closure can reach; closures calls a function that
+ * returns a closure, whose frames escape. Run with -prof gc for the allocation rate. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+	@Param({"10", "20"})
+	public int n;
+
+	private Interpreter interpreter;
+	private List<Stmt> recursion;
+	private List<Stmt> closures;
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+		Scripts.run(interpreter, String.join("\n",
+				"func fib(x) {",
+				"	if (x < 2) {",
+				"		return x;",
+				"	}",
+				"	return fib(x - 1) + fib(x - 2);",
+				"}",
+				"func sum(n) {",
+				"	if (n < 2)",
+				"		return n;",
+				"	return sum(n - 1) + n;",
+				"}",
+				"func adder(x) {",
+				"	return func (y) { return x + y; };",
+				"}"));
+
+		recursion = Scripts.compile(interpreter, "fib(" + n + "); sum(" + (n * 10) + ");");
+		closures = Scripts.compile(interpreter,
+				"for (var i = 0; i < " + (n * 10) + "; i += 1) { adder(i)(1); }");
+	}
+
+	@Benchmark
+	public void recursion() {
+		interpreter.interpret(recursion);
+	}
+
+	@Benchmark
+	public void closures() {
+		interpreter.interpret(closures);
+	}
+}
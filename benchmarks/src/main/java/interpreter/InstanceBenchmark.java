@@ -0,0 +1,48 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* InstanceBenchmark: field access through Instance.get and Instance.set */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstanceBenchmark {
+	private Interpreter interpreter;
+	private Instance point;
+	private final Token x = Scripts.identifier("x");
+	private final Token y = Scripts.identifier("y");
+	private final Double value = 7.0;
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+		Scripts.run(interpreter, "class Point { init(x, y) { this.x = x; this.y = y; } }");
+		LoxClass pointClass = (LoxClass) interpreter.global.values.get("Point");
+		point = (Instance) pointClass.call(interpreter, Arrays.asList(1.0, 2.0));
+	}
+
+	@Benchmark
+	public Object get() {
+		return point.get(interpreter, x);
+	}
+
+	@Benchmark
+	public void set() {
+		point.set(y, value);
+	}
+}
@@ -0,0 +1,336 @@
+package interpreter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/* MacroBenchmark: runs whole Lox programs and gates on regressions against a stored baseline
+ *
+ * Every program of benchmarks/programs is executed for @warmup unmeasured and @iterations
+ * measured iterations, each on a fresh Interpreter whose output is discarded. In the default warm
+ * mode the iterations share this JVM, so they measure the interpreter once HotSpot has compiled
+ * it; with --fresh each iteration runs in a child JVM and includes the cold start.
+ *
+ * For each program it reports throughput, p50/p90/p99 latency and the allocation rate. The p50
+ * latency and the bytes allocated per iteration are compared with the baseline, and the runner
+ * exits with status 1 when either grows by more than @threshold percent.
+ *
+ *	java -cp benchmarks/target/benchmarks.jar interpreter.MacroBenchmark [options] [program...]
+ *		--warmup <n>		unmeasured iterations per program (default 3)
+ *		--iterations <n>	measured iterations per program (default 10)
+ *		--fresh				run every iteration in a new JVM
+ *		--programs <dir>	directory of the .nad programs (default benchmarks/programs)
+ *		--baseline <file>	baseline to compare with (default benchmarks/results/macro-baseline.properties)
+ *		--threshold <pct>	allowed regression in percent (default 20)
+ *		--save-baseline		write the results as the new baseline instead of comparing */
+public final class MacroBenchmark {
+	/* Exit statuses */
+	private static final int OK = 0;
+	private static final int REGRESSION = 1;
+	private static final int FAILURE = 2;
+
+	private int warmup = 3;
+	private int iterations = 10;
+	private boolean fresh = false;
+	private Path programs = Paths.get("benchmarks", "programs");
+	private Path baseline = Paths.get("benchmarks", "results", "macro-baseline.properties");
+	private double threshold = 20.0;
+	private boolean saveBaseline = false;
+	private final List<String> selected = new ArrayList<>();
+
+	/* Measurements of one program */
+	private static final class Result {
+		final String name;
+		final long[] nanos;
+		final long[] bytes;
+
+		Result(String name, int iterations) {
+			this.name = name;
+			this.nanos = new long[iterations];
+			this.bytes = new long[iterations];
+		}
+
+		/* percentile: nearest-rank percentile of the latencies, in milliseconds */
+		double percentile(double pct) {
+			long[] sorted = nanos.clone();
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(pct / 100.0 * sorted.length);
+			return sorted[Math.max(rank, 1) - 1] / 1e6;
+		}
+
+		double meanMillis() {
+			return Arrays.stream(nanos).average().orElse(0) / 1e6;
+		}
+
+		double bytesPerIteration() {
+			return Arrays.stream(bytes).average().orElse(0);
+		}
+
+		/* allocationRate: MB allocated per second of execution */
+		double allocationRate() {
+			long totalNanos = Arrays.stream(nanos).sum();
+			long totalBytes = Arrays.stream(bytes).sum();
+			return (totalNanos == 0) ? 0 : (totalBytes / 1e6) / (totalNanos / 1e9);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals("--single")) {
+			runSingle(Paths.get(args[1]));
+			return;
+		}
+
+		MacroBenchmark runner = new MacroBenchmark();
+		if (!runner.parseArgs(args)) {
+			System.err.println("Usage: MacroBenchmark [--warmup n] [--iterations n] [--fresh] [--programs dir]"
+					+ " [--baseline file] [--threshold pct] [--save-baseline] [program...]");
+			System.exit(FAILURE);
+		}
+		System.exit(runner.run());
+	}
+
+	private boolean parseArgs(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+					case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+					case "--fresh": fresh = true; break;
+					case "--programs": programs = Paths.get(args[++i]); break;
+					case "--baseline": baseline = Paths.get(args[++i]); break;
+					case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+					case "--save-baseline": saveBaseline = true; break;
+					default:
+						if (args[i].startsWith("--")) {
+							return false;
+						}
+						selected.add(args[i]);
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException | NumberFormatException exp) {
+			return false;
+		}
+		return warmup >= 0 && iterations > 0;
+	}
+
+	private int run() throws IOException, InterruptedException {
+		List<Path> files = programFiles();
+		if (files.isEmpty()) {
+			System.err.println("No benchmark program found in " + programs);
+			return FAILURE;
+		}
+
+		String mode = fresh ? "fresh" : "warm";
+		System.out.printf(Locale.ROOT, "%s mode, %d warmup and %d measured iterations%n", mode, warmup, iterations);
+		System.out.printf(Locale.ROOT, "%-16s %10s %10s %10s %10s %12s %12s%n",
+				"program", "ops/s", "p50 ms", "p90 ms", "p99 ms", "MB/s", "MB/op");
+
+		List<Result> results = new ArrayList<>();
+		for (Path file : files) {
+			Result result = measure(file);
+			if (result == null) {
+				return FAILURE;
+			}
+			results.add(result);
+			System.out.printf(Locale.ROOT, "%-16s %10.2f %10.2f %10.2f %10.2f %12.1f %12.2f%n",
+					result.name, 1000.0 / result.meanMillis(), result.percentile(50), result.percentile(90),
+					result.percentile(99), result.allocationRate(), result.bytesPerIteration() / 1e6);
+		}
+
+		if (saveBaseline) {
+			writeBaseline(mode, results);
+			return OK;
+		}
+		return compare(mode, results);
+	}
+
+	private List<Path> programFiles() throws IOException {
+		if (!selected.isEmpty()) {
+			List<Path> files = new ArrayList<>();
+			for (String name : selected) {
+				files.add(programs.resolve(name.endsWith(".nad") ? name : name + ".nad"));
+			}
+			return files;
+		}
+
+		try (Stream<Path> entries = Files.list(programs)) {
+			return entries.filter(path -> path.toString().endsWith(".nad")).sorted().toList();
+		}
+	}
+
+	private static String nameOf(Path file) {
+		String name = file.getFileName().toString();
+		return name.substring(0, name.length() - ".nad".length());
+	}
+
+	/* measure: run @file for the warmup and measured iterations, null when an iteration fails */
+	private Result measure(Path file) throws IOException, InterruptedException {
+		String source = Files.readString(file);
+		Result result = new Result(nameOf(file), iterations);
+		long[] sample = new long[2];
+
+		for (int i = 0; i < warmup + iterations; i++) {
+			boolean ok = fresh ? runChild(file, sample) : runOnce(source, sample);
+			if (!ok) {
+				System.err.println(result.name + ": iteration " + i + " failed");
+				return null;
+			}
+			if (i >= warmup) {
+				result.nanos[i - warmup] = sample[0];
+				result.bytes[i - warmup] = sample[1];
+			}
+		}
+		return result;
+	}
+
+	/* runOnce: run @source on a new interpreter, store the elapsed nanoseconds and the bytes
+	 * allocated by this thread in @sample. False when the program has an error. */
+	private static boolean runOnce(String source, long[] sample) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Lox.hadSyntaxError = false;
+		Lox.hadRuntimeError = false;
+
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+
+		Interpreter interpreter = Scripts.interpreter();
+		Scripts.run(interpreter, source);
+		interpreter.out.flush();
+
+		sample[0] = System.nanoTime() - start;
+		sample[1] = threads.getThreadAllocatedBytes(thread) - allocated;
+		return !Lox.hadRuntimeError;
+	}
+
+	/* runSingle: entry point of a child JVM in fresh mode, prints "<nanos> <bytes>" */
+	private static void runSingle(Path file) throws IOException {
+		long[] sample = new long[2];
+		boolean ok;
+		try {
+			ok = runOnce(Files.readString(file), sample);
+		}
+		catch (IllegalStateException exp) {
+			ok = false;
+		}
+		System.out.println(ok ? sample[0] + " " + sample[1] : "failed");
+		System.exit(ok ? OK : FAILURE);
+	}
+
+	/* runChild: run one iteration of @file in a new JVM with the same class path and options */
+	private static boolean runChild(Path file, long[] sample) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(ProcessHandle.current().info().command().orElse("java"));
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MacroBenchmark.class.getName());
+		command.add("--single");
+		command.add(file.toString());
+
+		Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String last = null;
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				last = line;
+			}
+		}
+
+		if (child.waitFor() != OK || last == null) {
+			return false;
+		}
+		String[] fields = last.split(" ");
+		sample[0] = Long.parseLong(fields[0]);
+		sample[1] = Long.parseLong(fields[1]);
+		return true;
+	}
+
+	/* The baseline holds, per mode and program, the p50 latency in ms and the bytes per iteration:
+	 *	warm.fib.p50=123.4
+	 *	warm.fib.bytes=5678 */
+	private void writeBaseline(String mode, List<Result> results) throws IOException {
+		Properties properties = new Properties();
+		if (Files.exists(baseline)) {
+			try (Reader reader = Files.newBufferedReader(baseline)) {
+				properties.load(reader);
+			}
+		}
+
+		for (Result result : results) {
+			properties.setProperty(mode + "." + result.name + ".p50",
+					String.format(Locale.ROOT, "%.3f", result.percentile(50)));
+			properties.setProperty(mode + "." + result.name + ".bytes",
+					String.format(Locale.ROOT, "%.0f", result.bytesPerIteration()));
+		}
+
+		/* Sorted by hand, Properties.store() writes its entries in hash order */
+		List<String> keys = new ArrayList<>(properties.stringPropertyNames());
+		keys.sort(null);
+		try (Writer writer = Files.newBufferedWriter(baseline)) {
+			writer.write("# Macro benchmark baseline, regenerate with MacroBenchmark --save-baseline\n");
+			for (String key : keys) {
+				writer.write(key + "=" + properties.getProperty(key) + "\n");
+			}
+		}
+		System.out.println("Baseline written to " + baseline);
+	}
+
+	private int compare(String mode, List<Result> results) throws IOException {
+		if (!Files.exists(baseline)) {
+			System.out.println("No baseline at " + baseline + ", nothing to compare with");
+			return OK;
+		}
+
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(baseline)) {
+			properties.load(reader);
+		}
+
+		int status = OK;
+		for (Result result : results) {
+			String prefix = mode + "." + result.name;
+			if (regressed(prefix + ".p50", result.percentile(50), properties, "ms")
+					| regressed(prefix + ".bytes", result.bytesPerIteration(), properties, "B")) {
+				status = REGRESSION;
+			}
+		}
+
+		System.out.println(status == OK ? "No regression beyond " + threshold + "%"
+										: "Regression beyond " + threshold + "% against " + baseline);
+		return status;
+	}
+
+	/* regressed: whether @actual exceeds the baseline value of @key by more than the threshold */
+	private boolean regressed(String key, double actual, Properties properties, String unit) {
+		String stored = properties.getProperty(key);
+		if (stored == null) {
+			return false;
+		}
+
+		double expected = Double.parseDouble(stored);
+		double change = (expected == 0) ? 0 : (actual - expected) / expected * 100;
+		if (change <= threshold) {
+			return false;
+		}
+
+		System.out.printf(Locale.ROOT, "REGRESSION %s: %.2f %s against %.2f %s (%+.1f%%)%n",
+				key, actual, unit, expected, unit, change);
+		return true;
+	}
+}
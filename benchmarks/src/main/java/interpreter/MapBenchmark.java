@@ -0,0 +1,83 @@
+package interpreter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* MapBenchmark: counting @keys distinct string keys with LoxMap, against the former workaround
+ * of dynamic fields on an Instance */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapBenchmark {
+	@Param({"16", "1024"})
+	public int keys;
+
+	private String[] names;
+	private Token[] tokens;
+	private Interpreter interpreter;
+	private LoxClass counterClass;
+
+	@Setup
+	public void setUp() {
+		names = new String[keys];
+		tokens = new Token[keys];
+		for (int i = 0; i < keys; i++) {
+			names[i] = "key" + i;
+			tokens[i] = Scripts.identifier(names[i]);
+		}
+
+		interpreter = Scripts.interpreter();
+		Scripts.run(interpreter, "class Counter {}");
+		counterClass = (LoxClass) interpreter.global.values.get("Counter");
+	}
+
+	@Benchmark
+	public Object loxMap() {
+		LoxMap counts = new LoxMap(0);
+		for (int round = 0; round < 4; round++) {
+			for (String name : names) {
+				Object count = counts.get(name);
+				counts.put(name, count == null ? 1.0 : (double) count + 1.0);
+			}
+		}
+		return counts;
+	}
+
+	@Benchmark
+	public Object loxMapPresized() {
+		LoxMap counts = new LoxMap(keys);
+		for (int round = 0; round < 4; round++) {
+			for (String name : names) {
+				Object count = counts.get(name);
+				counts.put(name, count == null ? 1.0 : (double) count + 1.0);
+			}
+		}
+		return counts;
+	}
+
+	@Benchmark
+	public Object instanceFields() {
+		Instance counts = new Instance(counterClass);
+		for (int round = 0; round < 4; round++) {
+			for (Token token : tokens) {
+				Object count = (round == 0) ? null : counts.get(interpreter, token);
+				counts.set(token, count == null ? 1.0 : (double) count + 1.0);
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,58 @@
+package interpreter;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* MethodDispatchBenchmark: method lookup through LoxClass.findMethod on a class that inherits the
+ * method from @inheritance levels above, and the bound method produced by Instance.get */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MethodDispatchBenchmark {
+	@Param({"0", "2", "5"})
+	public int inheritance;
+
+	private Interpreter interpreter;
+	private LoxClass leaf;
+	private Instance instance;
+	private final Token method = Scripts.identifier("area");
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+
+		StringBuilder source = new StringBuilder("class C0 { area() { return 1; } }\n");
+		for (int i = 1; i <= inheritance; i++) {
+			source.append("class C" + i + " < C" + (i - 1) + " { other" + i + "() { return 2; } }\n");
+		}
+		Scripts.run(interpreter, source.toString());
+
+		leaf = (LoxClass) interpreter.global.values.get("C" + inheritance);
+		instance = (Instance) leaf.call(interpreter, Collections.emptyList());
+	}
+
+	@Benchmark
+	public Object findMethod() {
+		return leaf.findMethod("area");
+	}
+
+	@Benchmark
+	public Object boundMethod() {
+		return instance.get(interpreter, method);
+	}
+}
@@ -0,0 +1,71 @@
+package interpreter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* ScannerBenchmark: scanning and parsing throughput on a program of a few thousand lines */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+	private static final String UNIT =
+			"/* A unit of the generated program */\n"
+			+ "class Point {\n"
+			+ "\tinit(x, y) {\n"
+			+ "\t\tthis.x = x;\n"
+			+ "\t\tthis.y = y;\n"
+			+ "\t}\n"
+			+ "\tnorm() { return this.x * this.x + this.y * this.y; }\n"
+			+ "}\n"
+			+ "func fib(n) {\n"
+			+ "\tif (n < 2) return n;\n"
+			+ "\treturn fib(n - 1) + fib(n - 2);\n"
+			+ "}\n"
+			+ "for (var i = 0; i < 10; i += 1) {\n"
+			+ "\tvar p = Point(i, 2.5);\n"
+			+ "\tprint \"norm: \" + \"value\"; // comment\n"
+			+ "\twhile (p.norm() > 100 && i != 3 || false) { break; }\n"
+			+ "}\n";
+
+	private String source;
+	private List<Token> tokens;
+
+	@Setup
+	public void setUp() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			builder.append(UNIT.replace("Point", "Point" + i).replace("fib", "fib" + i));
+		}
+		source = builder.toString();
+
+		Scanner scanner = new Scanner(source);
+		scanner.scanTokens();
+		tokens = scanner.getTokens();
+	}
+
+	@Benchmark
+	public List<Token> scan() {
+		Scanner scanner = new Scanner(source);
+		scanner.scanTokens();
+		return scanner.getTokens();
+	}
+
+	@Benchmark
+	public List<Stmt> parse() {
+		return new Parser(tokens).parse();
+	}
+}
@@ -0,0 +1,41 @@
+package interpreter;
+
+import java.io.OutputStream;
+import java.util.List;
+
+/* Scripts: helpers shared by the benchmarks */
+final class Scripts {
+	private Scripts() {
+	}
+
+	/* interpreter: an interpreter whose 'print' output is discarded */
+	static Interpreter interpreter() {
+		return new Interpreter(new OutputSink(OutputStream.nullOutputStream(), OutputSink.FlushPolicy.THRESHOLD));
+	}
+
+	/* compile: scan, parse and resolve @source against @interpreter */
+	static List<Stmt> compile(Interpreter interpreter, String source) {
+		Scanner scanner = new Scanner(source);
+		scanner.scanTokens();
+
+		List<Stmt> stmts = new Parser(scanner.getTokens()).parse();
+		if (stmts == null || Lox.hadSyntaxError) {
+			throw new IllegalStateException("Benchmark script does not compile:\n" + source);
+		}
+
+		new Resolver(interpreter).resolve(stmts);
+		if (Lox.hadSyntaxError) {
+			throw new IllegalStateException("Benchmark script does not resolve:\n" + source);
+		}
+		return stmts;
+	}
+
+	/* run: compile and execute @source on @interpreter */
+	static void run(Interpreter interpreter, String source) {
+		interpreter.interpret(compile(interpreter, source));
+	}
+
+	static Token identifier(String name) {
+		return new Token(TokenType.IDENTIFIER, name, 1);
+	}
+}
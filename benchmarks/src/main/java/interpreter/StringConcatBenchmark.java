@@ -0,0 +1,48 @@
+package interpreter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* StringConcatBenchmark: string '+' alone, and a loop building a string with '+=' */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringConcatBenchmark {
+	private Interpreter interpreter;
+	private Expr concat;
+	private List<Stmt> buildLoop;
+
+	@Setup
+	public void setUp() {
+		interpreter = Scripts.interpreter();
+		concat = new Expr.Binary(new Expr.Literal("hello, "), new Expr.Literal("world"),
+								 new Token(TokenType.PLUS, "+", 1));
+		buildLoop = Scripts.compile(interpreter,
+				"{ var s = \"\"; for (var i = 0; i < 100; i += 1) { s += \"x\"; } }");
+	}
+
+	@Benchmark
+	public Object concat() {
+		return concat.accept(interpreter);
+	}
+
+	@Benchmark
+	public Interpreter buildLoop() {
+		interpreter.interpret(buildLoop);
+		return interpreter;
+	}
+}
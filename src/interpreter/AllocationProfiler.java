@@ -0,0 +1,130 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/* AllocationProfiler: heap allocations of the interpreter attributed to Lox source lines, for
+ * --allocations
+ *
+ * The places where the interpreter allocates on behalf of a script call record() with the kind of
+ * allocation when Interpreter.allocations is set. An allocation is charged to the statement on
+ * top of the CallStack, which is mapped to its source line when the report is printed. Sizes are
+ * estimates for a 64-bit JVM with compressed references, counting the objects each kind
+ * allocates together (an environment comes with its HashMap and table). */
+final class AllocationProfiler {
+	enum Kind {
+		/* Environment of a block or a call frame: Environment, HashMap, table */
+		ENVIRONMENT("environments", 24 + 48 + 80),
+
+		/* Result of arithmetic: Double */
+		BOXED_DOUBLE("boxed doubles", 16),
+
+		/* Method bound to an instance: Function, Environment holding 'this' with its HashMap,
+		 * table and entry */
+		BOUND_METHOD("bound methods", 24 + 24 + 48 + 80 + 32),
+
+		/* Instance and the HashMap of its fields */
+		INSTANCE("instances", 24 + 48),
+
+		/* Argument list of a call: ArrayList and its array */
+		ARGUMENTS("argument lists", 24 + 56);
+
+		final String label;
+		final int bytes;
+
+		Kind(String label, int bytes) {
+			this.label = label;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final int TOP_SITES = 20;
+
+	private final CallStack stack;
+
+	/* Counts per kind of every statement that allocated, by statement */
+	private final Map<Stmt, long[]> sites = new IdentityHashMap<>();
+
+	/* Allocations while no statement runs, e.g. by the natives defined at start-up */
+	private final long[] unattributed = new long[KINDS.length];
+
+	/* Consecutive allocations mostly come from the same statement */
+	private Stmt lastStmt = null;
+	private long[] lastCounts = unattributed;
+
+	AllocationProfiler(CallStack stack) {
+		this.stack = stack;
+	}
+
+	void record(Kind kind) {
+		Stmt stmt = stack.statements[stack.depth];
+		if (stmt != lastStmt) {
+			long[] counts = (stmt == null) ? unattributed : sites.get(stmt);
+			if (counts == null) {
+				counts = new long[KINDS.length];
+				sites.put(stmt, counts);
+			}
+			lastStmt = stmt;
+			lastCounts = counts;
+		}
+		lastCounts[kind.ordinal()]++;
+	}
+
+	private static long bytesOf(long[] counts) {
+		long bytes = 0;
+		for (Kind kind : KINDS) {
+			bytes += counts[kind.ordinal()] * kind.bytes;
+		}
+		return bytes;
+	}
+
+	private static long countOf(long[] counts) {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/* report: print the totals per kind and the top allocation sites by estimated bytes
+	 * @source: lines of the script, used to show the sites, may be null */
+	void report(PrintStream out, String[] source) {
+		/* Statements on the same line are merged */
+		Map<Integer, long[]> lines = new HashMap<>();
+		long[] totals = unattributed.clone();
+		for (Map.Entry<Stmt, long[]> entry : sites.entrySet()) {
+			long[] line = lines.computeIfAbsent(LineFinder.of(entry.getKey()), key -> new long[KINDS.length]);
+			for (int i = 0; i < KINDS.length; i++) {
+				line[i] += entry.getValue()[i];
+				totals[i] += entry.getValue()[i];
+			}
+		}
+
+		out.printf(Locale.ROOT, "%-16s %14s %14s%n", "allocation", "count", "est. KB");
+		for (Kind kind : KINDS) {
+			long count = totals[kind.ordinal()];
+			out.printf(Locale.ROOT, "%-16s %14d %14.1f%n", kind.label, count, count * kind.bytes / 1024.0);
+		}
+
+		List<Map.Entry<Integer, long[]>> top = new ArrayList<>(lines.entrySet());
+		top.sort((a, b) -> Long.compare(bytesOf(b.getValue()), bytesOf(a.getValue())));
+
+		out.println();
+		out.printf(Locale.ROOT, "%6s %12s %12s %10s %10s %10s %10s %10s  %s%n", "line", "count", "est. KB",
+				"env", "double", "bound", "instance", "args", "source");
+		for (Map.Entry<Integer, long[]> entry : top.subList(0, Math.min(TOP_SITES, top.size()))) {
+			int line = entry.getKey();
+			long[] counts = entry.getValue();
+			String text = (source != null && line > 0 && line <= source.length) ? source[line - 1].strip() : "";
+			out.printf(Locale.ROOT, "%6d %12d %12.1f %10d %10d %10d %10d %10d  %s%n", line, countOf(counts),
+					bytesOf(counts) / 1024.0, counts[0], counts[1], counts[2], counts[3], counts[4], text);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,110 @@
+package interpreter;
+
+import java.util.List;
+
+/* ArrayNatives: native functions on arrays
+ *
+ * len(array)                                   number of elements, also accepts maps
+ * push(array, value)                           append @value, return the array
+ * newArray(size, value)                        array of @size copies of @value
+ * arrayCopy(src, srcPos, dst, dstPos, length)  copy a range of @src into @dst, growing @dst */
+class ArrayNatives {
+	/* Largest size, position or length, that of the largest array the JVM allocates */
+	static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	static void define(Environment global) {
+		global.define("len", new NativeFunction("len", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				if (args.get(0) instanceof LoxMap) {
+					return (double) ((LoxMap) args.get(0)).size();
+				}
+				return (double) checkArray(name, args.get(0)).size();
+			}
+		});
+
+		global.define("push", new NativeFunction("push", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray array = checkArray(name, args.get(0));
+				if (array.size() == MAX_SIZE) {
+					throw new NativeError("push() cannot grow an array past " + MAX_SIZE + " elements.");
+				}
+
+				try {
+					array.push(args.get(1));
+				}
+				catch (OutOfMemoryError error) {
+					throw new NativeError("push() cannot grow the array to " + (array.size() + 1) + " elements.");
+				}
+				return array;
+			}
+		});
+
+		global.define("newArray", new NativeFunction("newArray", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				int size = checkCount(name, args.get(0));
+				Object value = args.get(1);
+
+				try {
+					if (value instanceof Double) {
+						return LoxArray.filled(size, (double) value);
+					}
+
+					LoxArray array = new LoxArray(size);
+					for (int i = 0; i < size; i++) {
+						array.push(value);
+					}
+					return array;
+				}
+				catch (OutOfMemoryError error) {
+					throw new NativeError("newArray() cannot allocate an array of " + size + " elements.");
+				}
+			}
+		});
+
+		global.define("arrayCopy", new NativeFunction("arrayCopy", 5) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray src = checkArray(name, args.get(0));
+				int srcPos = checkCount(name, args.get(1));
+				LoxArray dst = checkArray(name, args.get(2));
+				int dstPos = checkCount(name, args.get(3));
+				int length = checkCount(name, args.get(4));
+
+				/* In long: positions and lengths up to MAX_SIZE overflow an int when added */
+				if ((long) srcPos + length > src.size() || dstPos > dst.size()) {
+					throw new NativeError("arrayCopy() range out of bounds.");
+				}
+				if ((long) dstPos + length > MAX_SIZE) {
+					throw new NativeError("arrayCopy() cannot grow an array past " + MAX_SIZE + " elements.");
+				}
+
+				try {
+					LoxArray.copy(src, srcPos, dst, dstPos, length);
+				}
+				catch (OutOfMemoryError error) {
+					throw new NativeError("arrayCopy() cannot grow the array to " + (dstPos + length) + " elements.");
+				}
+				return dst;
+			}
+		});
+	}
+
+	static LoxArray checkArray(String function, Object value) {
+		if (!(value instanceof LoxArray)) {
+			throw new NativeError(function + "() expects an array.");
+		}
+		return (LoxArray) value;
+	}
+
+	/* checkCount: validate a size, a position or a length argument */
+	static int checkCount(String function, Object value) {
+		if (!(value instanceof Double)) {
+			throw new NativeError(function + "() expects a non-negative integer.");
+		}
+
+		double number = (double) value;
+		if (number < 0 || number != Math.floor(number) || number > MAX_SIZE) {
+			throw new NativeError(function + "() expects a non-negative integer.");
+		}
+		return (int) number;
+	}
+}
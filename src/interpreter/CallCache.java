@@ -0,0 +1,73 @@
+package interpreter;
+
+import java.util.List;
+
+/* CallCache: inline cache of one call expression, for the interpreters
+ *
+ * A cache starts unlinked. Its first call links it to the callee it sees, a function by its
+ * declaration, a native or a class by its identity: the copies of a method bound to each instance
+ * and the closures one declaration creates are all the same callee to the cache. A call to the
+ * linked callee skips the arity check, which linking did once, and calls it directly. A callee
+ * the cache does not recognize relinks it, until MAX_LINKS callees have been seen: the site is
+ * then megamorphic and calls Interpreter.callValue() from then on. With --warm-start, a site that
+ * went megamorphic in a previous run is megamorphic from its first call. While the profiler runs,
+ * caches are never linked, so that natives keep being reported.
+ *
+ * A hit costs a comparison and adds no frame to the Java stack, unlike a call through the method
+ * handles of a LoxCallSite, which only pays off in compiled code, where the site is a constant. */
+final class CallCache {
+	/* Callees a cache is linked to in turn, beyond which it is megamorphic */
+	private static final int MAX_LINKS = 4;
+
+	/* Linked callee of a megamorphic cache, which no callee matches */
+	private static final Object MEGAMORPHIC = new Object();
+
+	/* Closing parenthesis of the call, where errors are reported */
+	private final Token paren;
+
+	private Object linked = null;
+	private int links = 0;
+
+	CallCache(Token paren) {
+		this.paren = paren;
+	}
+
+	/* call: call @callee with evaluated @args, as Interpreter.callValue() */
+	Object call(Interpreter interpreter, Callable callee, List<Object> args) {
+		if (key(callee) != linked) {
+			if (linked != MEGAMORPHIC) {
+				link(interpreter, callee, args);
+			}
+			return interpreter.callValue(paren, callee, args);
+		}
+
+		interpreter.counters.calls++;
+		try {
+			return callee.call(interpreter, args);
+		}
+		catch (NativeError error) {
+			throw new RuntimeError(paren, error.getMessage());
+		}
+	}
+
+	/* link: link the cache to @callee, which it did not recognize */
+	private void link(Interpreter interpreter, Callable callee, List<Object> args) {
+		SiteProfile profile = interpreter.siteProfile;
+		if (interpreter.profiler != null || links == MAX_LINKS
+				|| (links == 0 && profile != null && profile.megamorphic(paren))) {
+			if (links == MAX_LINKS && profile != null) {
+				profile.recordMegamorphic(paren);
+			}
+			linked = MEGAMORPHIC;
+		}
+		else if (callee.arity() == args.size()) {
+			linked = key(callee);
+			links++;
+		}
+	}
+
+	/* key: what the cache recognizes @callee by */
+	static Object key(Callable callee) {
+		return (callee instanceof Function) ? ((Function) callee).declaration : callee;
+	}
+}
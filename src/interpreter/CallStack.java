@@ -0,0 +1,34 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/* CallStack: the Lox call stack and current statements, published for the sampling and allocation profilers
+ *
+ * Function.call() pushes the called function and execute() records the statement being executed
+ * in the top frame, with plain stores: the interpreter thread never waits for the sampler. The sampler reads the fields racily and may see a frame being pushed or a statement
+ * just replaced, which only misattributes that one sample. Frame 0 is the top-level script. */
+final class CallStack {
+	/* Function of each frame, null for the script */
+	Function[] functions = new Function[256];
+
+	/* Statement being executed in each frame */
+	Stmt[] statements = new Stmt[256];
+
+	int depth = 0;
+
+	void push(Function function) {
+		int next = depth + 1;
+		if (next == functions.length) {
+			statements = Arrays.copyOf(statements, next * 2);
+			functions = Arrays.copyOf(functions, next * 2);
+		}
+
+		functions[next] = function;
+		statements[next] = null;
+		depth = next;
+	}
+
+	void pop() {
+		depth--;
+	}
+}
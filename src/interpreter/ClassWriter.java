@@ -0,0 +1,512 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* ClassWriter: writer of the class files that Jit compiles functions to
+ *
+ * Only what Jit needs is supported: a final class without interfaces, fields without attributes,
+ * methods with a Code attribute and the constants they refer to. Classes are written in version
+ * 49 (Java 5), whose verifier infers the types of the stack and locals itself, so no
+ * StackMapTable has to be computed. The operand stack is tracked as instructions are written, for max_stack. */
+final class ClassWriter {
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int VERSION = 49;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> entries = new HashMap<>();
+	private int poolCount = 1;
+
+	private final int thisClass;
+	private final int superClass;
+	private final List<int[]> fields = new ArrayList<>();
+	private final List<MethodWriter> methods = new ArrayList<>();
+
+	ClassWriter(String name, String superName) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+	}
+
+	/* field: field @name, as access, name and descriptor indexes */
+	void field(int access, String name, String descriptor) {
+		fields.add(new int[] { access, utf8(name), utf8(descriptor) });
+	}
+
+	/* method: method @name, whose max_locals grows with the locals its code uses */
+	MethodWriter method(int access, String name, String descriptor) {
+		MethodWriter method = new MethodWriter(access, utf8(name), utf8(descriptor));
+		methods.add(method);
+		return method;
+	}
+
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int codeName = utf8("Code");
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(fields.size());
+			for (int[] field : fields) {
+				out.writeShort(field[0]);
+				out.writeShort(field[1]);
+				out.writeShort(field[2]);
+				out.writeShort(0);
+			}
+			out.writeShort(methods.size());
+			for (MethodWriter method : methods) {
+				method.writeTo(out, codeName);
+			}
+			out.writeShort(0);
+		}
+		catch (IOException exp) {
+			throw new IllegalStateException(exp);
+		}
+		return bytes.toByteArray();
+	}
+
+	/* Constant pool */
+
+	private int entry(String key, int size, PoolWriter writer) {
+		Integer index = entries.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			writer.write(poolOut);
+		}
+		catch (IOException exp) {
+			throw new IllegalStateException(exp);
+		}
+		index = poolCount;
+		poolCount += size;
+		if (poolCount > 0xFFFF) {
+			throw new IllegalStateException("Constant pool overflow");
+		}
+		entries.put(key, index);
+		return index;
+	}
+
+	private interface PoolWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	int utf8(String value) {
+		return entry("U" + value, 1, out -> {
+			out.writeByte(1);
+			out.writeUTF(value);
+		});
+	}
+
+	int classRef(String name) {
+		int nameIndex = utf8(name);
+		return entry("C" + name, 1, out -> {
+			out.writeByte(7);
+			out.writeShort(nameIndex);
+		});
+	}
+
+	int string(String value) {
+		int valueIndex = utf8(value);
+		return entry("S" + value, 1, out -> {
+			out.writeByte(8);
+			out.writeShort(valueIndex);
+		});
+	}
+
+	int integer(int value) {
+		return entry("I" + value, 1, out -> {
+			out.writeByte(3);
+			out.writeInt(value);
+		});
+	}
+
+	/* Doubles are keyed by their bits, so that 0.0 and -0.0 stay apart */
+	int doubleRef(double value) {
+		return entry("D" + Double.doubleToRawLongBits(value), 2, out -> {
+			out.writeByte(6);
+			out.writeDouble(value);
+		});
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		return entry("N" + name + ":" + descriptor, 1, out -> {
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+		});
+	}
+
+	private int member(int tag, String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int typeIndex = nameAndType(name, descriptor);
+		return entry(tag + owner + "." + name + ":" + descriptor, 1, out -> {
+			out.writeByte(tag);
+			out.writeShort(ownerIndex);
+			out.writeShort(typeIndex);
+		});
+	}
+
+	/* Label: position in the code of a method, possibly not written yet */
+	static final class Label {
+		private int position = -1;
+		private final List<Integer> jumps = new ArrayList<>();
+
+		/* Depth of the operand stack at the label, known from the first jump to it */
+		private int stack = -1;
+	}
+
+	/* MethodWriter: code of one method */
+	final class MethodWriter {
+		static final int ACONST_NULL = 0x01;
+		static final int ICONST_0 = 0x03;
+		static final int ICONST_1 = 0x04;
+		static final int LCONST_1 = 0x0a;
+		static final int BIPUSH = 0x10;
+		static final int SIPUSH = 0x11;
+		static final int LDC = 0x12;
+		static final int LDC_W = 0x13;
+		static final int LDC2_W = 0x14;
+		static final int ILOAD = 0x15;
+		static final int DLOAD = 0x18;
+		static final int ALOAD = 0x19;
+		static final int AALOAD = 0x32;
+		static final int ISTORE = 0x36;
+		static final int DSTORE = 0x39;
+		static final int ASTORE = 0x3a;
+		static final int AASTORE = 0x53;
+		static final int POP = 0x57;
+		static final int POP2 = 0x58;
+		static final int DUP = 0x59;
+		static final int DUP2 = 0x5c;
+		static final int LADD = 0x61;
+		static final int DADD = 0x63;
+		static final int DSUB = 0x67;
+		static final int DMUL = 0x6b;
+		static final int DDIV = 0x6f;
+		static final int DREM = 0x73;
+		static final int DCMPL = 0x97;
+		static final int DCMPG = 0x98;
+		static final int IFEQ = 0x99;
+		static final int IFNE = 0x9a;
+		static final int IFLT = 0x9b;
+		static final int IFGE = 0x9c;
+		static final int IFGT = 0x9d;
+		static final int IFLE = 0x9e;
+		static final int IF_ICMPEQ = 0x9f;
+		static final int IF_ICMPNE = 0xa0;
+		static final int GOTO = 0xa7;
+		static final int ARETURN = 0xb0;
+		static final int RETURN = 0xb1;
+		static final int GETSTATIC = 0xb2;
+		static final int PUTSTATIC = 0xb3;
+		static final int GETFIELD = 0xb4;
+		static final int PUTFIELD = 0xb5;
+		static final int INVOKEVIRTUAL = 0xb6;
+		static final int INVOKESPECIAL = 0xb7;
+		static final int INVOKESTATIC = 0xb8;
+		static final int INVOKEINTERFACE = 0xb9;
+		static final int ANEWARRAY = 0xbd;
+		static final int CHECKCAST = 0xc0;
+
+		/* Change of the stack depth by the opcodes that take no operand */
+		private static final Map<Integer, Integer> STACK = new HashMap<>();
+		static {
+			STACK.put(ACONST_NULL, 1);
+			STACK.put(ICONST_0, 1);
+			STACK.put(ICONST_1, 1);
+			STACK.put(LCONST_1, 2);
+			STACK.put(AALOAD, -1);
+			STACK.put(AASTORE, -3);
+			STACK.put(POP, -1);
+			STACK.put(POP2, -2);
+			STACK.put(DUP, 1);
+			STACK.put(DUP2, 2);
+			STACK.put(LADD, -2);
+			STACK.put(DADD, -2);
+			STACK.put(DSUB, -2);
+			STACK.put(DMUL, -2);
+			STACK.put(DDIV, -2);
+			STACK.put(DREM, -2);
+			STACK.put(DCMPL, -3);
+			STACK.put(DCMPG, -3);
+			STACK.put(ARETURN, -1);
+			STACK.put(RETURN, 0);
+		}
+
+		private final int access;
+		private final int name;
+		private final int descriptor;
+		private int maxLocals = 1;
+		private byte[] code = new byte[256];
+		private int length = 0;
+
+		private int stack = 0;
+		private int maxStack = 0;
+
+		/* Whether the code just written falls through to the next instruction */
+		private boolean reachable = true;
+
+		private MethodWriter(int access, int name, int descriptor) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		int size() {
+			return length;
+		}
+
+		private void adjust(int delta) {
+			stack += delta;
+			if (stack < 0) {
+				throw new IllegalStateException("Operand stack underflow");
+			}
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void u1(int value) {
+			if (length == code.length) {
+				code = Arrays.copyOf(code, 2 * length);
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >> 8);
+			u1(value);
+		}
+
+		void op(int opcode) {
+			Integer delta = STACK.get(opcode);
+			if (delta == null) {
+				throw new IllegalArgumentException("Opcode " + opcode + " takes an operand");
+			}
+			u1(opcode);
+			adjust(delta);
+			reachable = opcode != ARETURN && opcode != RETURN;
+		}
+
+		void iconst(int value) {
+			if (value >= -1 && value <= 5) {
+				u1(ICONST_0 + value);
+			}
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				u1(BIPUSH);
+				u1(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				u1(SIPUSH);
+				u2(value);
+			}
+			else {
+				ldc(integer(value));
+				return;
+			}
+			adjust(1);
+		}
+
+		void dconst(double value) {
+			u1(LDC2_W);
+			u2(doubleRef(value));
+			adjust(2);
+		}
+
+		void sconst(String value) {
+			ldc(string(value));
+		}
+
+		private void ldc(int index) {
+			if (index <= 0xFF) {
+				u1(LDC);
+				u1(index);
+			}
+			else {
+				u1(LDC_W);
+				u2(index);
+			}
+			adjust(1);
+		}
+
+		/* var: load or store of local @index, wide indexes are not supported */
+		void var(int opcode, int index) {
+			if (index > 0xFF) {
+				throw new IllegalStateException("Too many locals");
+			}
+			u1(opcode);
+			u1(index);
+			int size = 1;
+			switch (opcode) {
+			case ILOAD:
+			case ALOAD:
+				adjust(1);
+				break;
+			case DLOAD:
+				adjust(2);
+				size = 2;
+				break;
+			case ISTORE:
+			case ASTORE:
+				adjust(-1);
+				break;
+			case DSTORE:
+				adjust(-2);
+				size = 2;
+				break;
+			default:
+				throw new IllegalArgumentException("Opcode " + opcode + " is not a load or a store");
+			}
+			maxLocals = Math.max(maxLocals, index + size);
+		}
+
+		void type(int opcode, String internalName) {
+			u1(opcode);
+			u2(classRef(internalName));
+		}
+
+		void field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+			u1(opcode);
+			u2(member(9, owner, fieldName, fieldDescriptor));
+			int size = slots(fieldDescriptor.charAt(0));
+			switch (opcode) {
+			case GETSTATIC:
+				adjust(size);
+				break;
+			case PUTSTATIC:
+				adjust(-size);
+				break;
+			case GETFIELD:
+				adjust(size - 1);
+				break;
+			default:
+				adjust(-size - 1);
+				break;
+			}
+		}
+
+		void invoke(int opcode, String owner, String methodName, String methodDescriptor) {
+			boolean isInterface = opcode == INVOKEINTERFACE;
+			u1(opcode);
+			u2(member(isInterface ? 11 : 10, owner, methodName, methodDescriptor));
+
+			int arguments = 0;
+			int i = 1;
+			while (methodDescriptor.charAt(i) != ')') {
+				char type = methodDescriptor.charAt(i);
+				arguments += slots(type);
+				while (methodDescriptor.charAt(i) == '[') {
+					i++;
+				}
+				i = (methodDescriptor.charAt(i) == 'L') ? methodDescriptor.indexOf(';', i) + 1 : i + 1;
+			}
+			if (opcode != INVOKESTATIC) {
+				arguments++;
+			}
+			if (isInterface) {
+				u1(arguments);
+				u1(0);
+			}
+			char result = methodDescriptor.charAt(i + 1);
+			adjust((result == 'V' ? 0 : slots(result)) - arguments);
+		}
+
+		private int slots(char type) {
+			return (type == 'D' || type == 'J') ? 2 : 1;
+		}
+
+		/* jump: branch to @label, conditional branches pop their operands first */
+		void jump(int opcode, Label label) {
+			if (opcode == IF_ICMPEQ || opcode == IF_ICMPNE) {
+				adjust(-2);
+			}
+			else if (opcode != GOTO) {
+				adjust(-1);
+			}
+
+			if (label.stack < 0) {
+				label.stack = stack;
+			}
+			else if (label.stack != stack) {
+				throw new IllegalStateException("Inconsistent stack at label");
+			}
+
+			int position = length;
+			u1(opcode);
+			if (label.position >= 0) {
+				u2(offset(position, label.position));
+			}
+			else {
+				label.jumps.add(position);
+				u2(0);
+			}
+			reachable = opcode != GOTO;
+		}
+
+		/* mark: place @label at the current position */
+		void mark(Label label) {
+			label.position = length;
+			for (int jump : label.jumps) {
+				int offset = offset(jump, length);
+				code[jump + 1] = (byte) (offset >> 8);
+				code[jump + 2] = (byte) offset;
+			}
+			label.jumps.clear();
+
+			if (!reachable && label.stack >= 0) {
+				stack = label.stack;
+			}
+			else if (label.stack < 0) {
+				label.stack = stack;
+			}
+			reachable = true;
+		}
+
+		private int offset(int from, int to) {
+			int offset = to - from;
+			if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+				throw new IllegalStateException("Branch out of range");
+			}
+			return offset;
+		}
+
+		private void writeTo(DataOutputStream out, int codeName) throws IOException {
+			byte[] bytes = Arrays.copyOf(code, length);
+			if (bytes.length > 0xFFFF) {
+				throw new IllegalStateException("Method too large");
+			}
+
+			out.writeShort(access);
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + bytes.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+	}
+}
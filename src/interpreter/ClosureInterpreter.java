@@ -0,0 +1,787 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* ClosureInterpreter: engine running closures compiled from the AST, for --engine=closures
+ *
+ * Every resolved expression and statement is compiled once into a Java lambda that calls the
+ * lambdas of its operands directly. What the visitors decide on every execution is decided by the
+ * compiler instead: the operator of a binary expression picks the lambda, the resolver's depth
+ * is looked up once and picks a read of the current scope, its parent or an ancestor, and
+ * literal operands are captured as unboxed constants (or folded when both operands are literals).
+ *
+ * Statements complete the way they do in the node engine: 'return', 'break' and 'continue' are
+ * returned as a ReturnValue or LoopException by the statement and passed up until a loop or the
+ * body of the function consumes them, null lets execution carry on. Functions, classes and
+ * natives are shared with Interpreter; a function's body is compiled when it is first called. */
+final class ClosureInterpreter extends Interpreter {
+	/* Evaluator: compiled expression */
+	interface Evaluator {
+		Object evaluate(Environment env);
+	}
+
+	/* Executor: compiled statement, returns its completion */
+	interface Executor {
+		Object execute(Environment env);
+	}
+
+	/* Bodies of the functions called so far */
+	private final Map<Stmt.Block, Executor> bodies = new IdentityHashMap<>();
+
+	private final Compiler compiler = new Compiler();
+
+	ClosureInterpreter() {
+		super();
+	}
+
+	@Override
+	public void interpret(List<Stmt> stmts) {
+		try {
+			for (Stmt stmt : stmts) {
+				if (stmt != null) {
+					Object completion = compiler.compile(stmt).execute(environment);
+					if (completion != null) {
+						throw (RuntimeException) completion;
+					}
+				}
+			}
+		}
+		catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		}
+	}
+
+	@Override
+	Object executeBody(Stmt.Block block, Environment frame) {
+		Executor body = bodies.get(block);
+		if (body == null) {
+			body = compiler.compileBody(block);
+			bodies.put(block, body);
+		}
+
+		Object completion = body.execute(frame);
+		if (completion instanceof ReturnValue) {
+			return ((ReturnValue) completion).value;
+		}
+		if (completion != null) {
+			throw (LoopException) completion;
+		}
+		return null;
+	}
+
+	@Override
+	void executeBlock(Stmt.Block block, Environment env) {
+		executeBody(block, env);
+	}
+
+	/* Compiler: turns resolved statements and expressions into closures */
+	private final class Compiler implements Stmt.Visitor<Executor>, Expr.Visitor<Evaluator> {
+		private final ClosureInterpreter engine = ClosureInterpreter.this;
+
+		/* compile: closure of @stmt, which keeps the statement counter and the published call
+		 * stack up to date like Interpreter.execute(); null compiles to a statement doing nothing */
+		Executor compile(Stmt stmt) {
+			if (stmt == null) {
+				return env -> null;
+			}
+
+			Executor code = stmt.accept(this);
+			Counters counters = engine.counters;
+			CallStack callStack = engine.callStack;
+			if (callStack == null) {
+				return env -> {
+					counters.statements++;
+					return code.execute(env);
+				};
+			}
+			return env -> {
+				counters.statements++;
+				callStack.statements[callStack.depth] = stmt;
+				return code.execute(env);
+			};
+		}
+
+		Evaluator compile(Expr expr) {
+			return expr.accept(this);
+		}
+
+		private Evaluator[] compile(List<Expr> exprs) {
+			Evaluator[] code = new Evaluator[exprs.size()];
+			for (int i = 0; i < code.length; i++) {
+				code[i] = compile(exprs.get(i));
+			}
+			return code;
+		}
+
+		/* compileBody: statements of a function body, run in the frame of the call */
+		Executor compileBody(Stmt.Block body) {
+			return sequence(body.statements);
+		}
+
+		private Executor sequence(List<Stmt> stmts) {
+			List<Executor> code = new ArrayList<>();
+			for (Stmt stmt : stmts) {
+				if (stmt != null) {
+					code.add(compile(stmt));
+				}
+			}
+
+			switch (code.size()) {
+			case 0:
+				return env -> null;
+			case 1:
+				return code.get(0);
+			case 2: {
+				Executor first = code.get(0);
+				Executor second = code.get(1);
+				return env -> {
+					Object completion = first.execute(env);
+					return (completion != null) ? completion : second.execute(env);
+				};
+			}
+			default: {
+				Executor[] statements = code.toArray(new Executor[0]);
+				return env -> {
+					for (Executor statement : statements) {
+						Object completion = statement.execute(env);
+						if (completion != null) {
+							return completion;
+						}
+					}
+					return null;
+				};
+			}
+			}
+		}
+
+		/* Constant value of @expr when it is a literal, possibly parenthesized, else null */
+		private Expr.Literal literal(Expr expr) {
+			while (expr instanceof Expr.Grouping) {
+				expr = ((Expr.Grouping) expr).exp;
+			}
+			return (expr instanceof Expr.Literal) ? (Expr.Literal) expr : null;
+		}
+
+		/* Statements */
+
+		public Executor visitExpression(Stmt.Expression stmt) {
+			Evaluator expression = compile(stmt.expression);
+			return env -> {
+				Object value = expression.evaluate(env);
+				if (Lox.echoes(stmt)) {
+					out.println(value);
+				}
+				return null;
+			};
+		}
+
+		public Executor visitPrint(Stmt.Print stmt) {
+			Evaluator expression = compile(stmt.expression);
+			return env -> {
+				out.println(expression.evaluate(env));
+				return null;
+			};
+		}
+
+		public Executor visitVarStmt(Stmt.VarStmt stmt) {
+			Evaluator init = compile(stmt.init);
+			Token identifier = stmt.identifier;
+			return env -> {
+				env.define(identifier, init.evaluate(env));
+				return null;
+			};
+		}
+
+		public Executor visitBlock(Stmt.Block stmt) {
+			Executor statements = sequence(stmt.statements);
+			if (engine.isBare(stmt)) {
+				return statements;
+			}
+			Counters counters = engine.counters;
+			return env -> {
+				counters.environments++;
+				return statements.execute(new Environment(env));
+			};
+		}
+
+		public Executor visitConditional(Stmt.Conditional stmt) {
+			Evaluator condition = compile(stmt.expr);
+			Executor thenBranch = compile(stmt.thenBranch);
+			if (stmt.elseBranch == null) {
+				return env -> Interpreter.truthVal(condition.evaluate(env)) ? thenBranch.execute(env) : null;
+			}
+
+			Executor elseBranch = compile(stmt.elseBranch);
+			return env -> Interpreter.truthVal(condition.evaluate(env)) ? thenBranch.execute(env) : elseBranch.execute(env);
+		}
+
+		/* A LoopException may also be thrown, by a function called in the body that executes
+		 * 'break' or 'continue' outside of any loop of its own */
+		public Executor visitWhile(Stmt.While stmt) {
+			Evaluator condition = compile(stmt.expr);
+			Executor body = compile(stmt.body);
+			Evaluator increment = (stmt.increment == null) ? env -> null : compile(stmt.increment);
+			Jit jit = engine.jit;
+			Jit.Loop loop = (jit == null) ? null : jit.loop(stmt);
+			return env -> {
+				for (;;) {
+					/* Before every iteration, as the loop may have got hot while running */
+					if (jit != null) {
+						Object completion = jit.enter(engine, loop, stmt, env);
+						if (completion != Jit.INTERPRET) {
+							return completion;
+						}
+					}
+					if (!Interpreter.truthVal(condition.evaluate(env))) {
+						break;
+					}
+					if (jit != null) {
+						jit.backEdge(loop);
+					}
+					Object completion;
+					try {
+						completion = body.execute(env);
+					}
+					catch (LoopException exp) {
+						completion = exp;
+					}
+
+					if (completion instanceof ReturnValue) {
+						return completion;
+					}
+					if (completion != null && ((LoopException) completion).token.type == TokenType.BREAK) {
+						break;
+					}
+					increment.evaluate(env);
+				}
+				return null;
+			};
+		}
+
+		public Executor visitFuncStmt(Stmt.FuncStmt stmt) {
+			return env -> {
+				env.define(stmt.name, new Function(stmt, env));
+				return null;
+			};
+		}
+
+		public Executor visitReturn(Stmt.Return stmt) {
+			if (stmt.expr == null) {
+				return env -> new ReturnValue(null);
+			}
+
+			Evaluator value = compile(stmt.expr);
+			return env -> new ReturnValue(value.evaluate(env));
+		}
+
+		public Executor visitJump(Stmt.Jump stmt) {
+			LoopException completion = new LoopException(stmt.token);
+			return env -> completion;
+		}
+
+		/* Same as Interpreter.visitClass() */
+		public Executor visitClass(Stmt.Class stmt) {
+			Evaluator superclass = (stmt.superclass == null) ? null : compile(stmt.superclass);
+			Counters counters = engine.counters;
+			return env -> {
+				Object inherited = null;
+				if (superclass != null) {
+					inherited = superclass.evaluate(env);
+					if (!(inherited instanceof LoxClass)) {
+						throw new RuntimeError(stmt.superclass.name,
+								"'" + stmt.superclass.name.lexeme + "' is not a class.");
+					}
+				}
+
+				env.define(stmt.name, null);
+
+				Environment closure = env;
+				if (inherited != null) {
+					counters.environments++;
+					closure = new Environment(env);
+					closure.define("super", inherited);
+				}
+
+				Map<String, Function> methods = new HashMap<>();
+				for (Stmt.FuncStmt method : stmt.methods) {
+					boolean isInit = method.name.lexeme.equals("init");
+					methods.put(method.name.lexeme, new Function(method, closure, isInit));
+				}
+
+				env.assign(stmt.name, new LoxClass(stmt.name.lexeme, methods, (LoxClass) inherited));
+				return null;
+			};
+		}
+
+		/* Expressions */
+
+		public Evaluator visitBinary(Expr.Binary expr) {
+			Evaluator left = compile(expr.left);
+			Evaluator right = compile(expr.right);
+			Token op = expr.op;
+
+			switch (op.type) {
+			case AND:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return Interpreter.truthVal(leftVal) ? right.evaluate(env) : leftVal;
+				};
+			case OR:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return Interpreter.truthVal(leftVal) ? leftVal : right.evaluate(env);
+				};
+			case COMMA:
+				return env -> {
+					left.evaluate(env);
+					return right.evaluate(env);
+				};
+			default:
+				break;
+			}
+
+			/* Both operands constant: fold, unless the operation fails, which it must do at run time */
+			Expr.Literal leftLiteral = literal(expr.left);
+			Expr.Literal rightLiteral = literal(expr.right);
+			if (leftLiteral != null && rightLiteral != null) {
+				try {
+					Object value = binaryValue(op, leftLiteral.litValue, rightLiteral.litValue);
+					return env -> value;
+				}
+				catch (RuntimeError error) {
+				}
+			}
+
+			if (rightLiteral != null && rightLiteral.litValue instanceof Double) {
+				Evaluator code = numberConstant(op, left, (double) rightLiteral.litValue);
+				if (code != null) {
+					return code;
+				}
+			}
+
+			switch (op.type) {
+			case PLUS:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					if (leftVal instanceof Double && rightVal instanceof Double) {
+						return (double) leftVal + (double) rightVal;
+					}
+					return binaryValue(op, leftVal, rightVal);
+				};
+			case MINUS:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal - (double) rightVal;
+				};
+			case STAR:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal * (double) rightVal;
+				};
+			case SLASH:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal / (double) rightVal;
+				};
+			case MOD:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal % (double) rightVal;
+				};
+			case LT:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal < (double) rightVal;
+				};
+			case GT:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal > (double) rightVal;
+				};
+			case LT_EQ:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal >= (double) rightVal;
+				};
+			case GT_EQ:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					Object rightVal = right.evaluate(env);
+					Interpreter.checkNumberOperands(op, leftVal, rightVal);
+					return (double) leftVal <= (double) rightVal;
+				};
+			case EQ:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return Interpreter.isEqual(leftVal, right.evaluate(env));
+				};
+			case DIFF:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return !Interpreter.isEqual(leftVal, right.evaluate(env));
+				};
+			default:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return binaryValue(op, leftVal, right.evaluate(env));
+				};
+			}
+		}
+
+		/* numberConstant: arithmetic and comparisons with a number literal on the right, null for
+		 * other operators. A left operand that is not a number takes the generic path, which
+		 * reports the error. '<=' and '>=' compare the way Interpreter.binaryValue() does. */
+		private Evaluator numberConstant(Token op, Evaluator left, double constant) {
+			Double boxed = constant;
+			switch (op.type) {
+			case PLUS:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal + constant) : binaryValue(op, leftVal, boxed);
+				};
+			case MINUS:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal - constant) : binaryValue(op, leftVal, boxed);
+				};
+			case STAR:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal * constant) : binaryValue(op, leftVal, boxed);
+				};
+			case SLASH:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal / constant) : binaryValue(op, leftVal, boxed);
+				};
+			case MOD:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal % constant) : binaryValue(op, leftVal, boxed);
+				};
+			case LT:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal < constant) : binaryValue(op, leftVal, boxed);
+				};
+			case GT:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal > constant) : binaryValue(op, leftVal, boxed);
+				};
+			case LT_EQ:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal >= constant) : binaryValue(op, leftVal, boxed);
+				};
+			case GT_EQ:
+				return env -> {
+					Object leftVal = left.evaluate(env);
+					return (leftVal instanceof Double) ? (Object) ((double) leftVal <= constant) : binaryValue(op, leftVal, boxed);
+				};
+			default:
+				return null;
+			}
+		}
+
+		public Evaluator visitUnary(Expr.Unary expr) {
+			Evaluator operand = compile(expr.exp);
+			Token op = expr.op;
+			if (op.type == TokenType.MINUS) {
+				return env -> {
+					Object value = operand.evaluate(env);
+					Interpreter.checkNumberOperand(op, value);
+					return 0 - (double) value;
+				};
+			}
+			return env -> !Interpreter.truthVal(operand.evaluate(env));
+		}
+
+		public Evaluator visitGrouping(Expr.Grouping expr) {
+			return compile(expr.exp);
+		}
+
+		public Evaluator visitLiteral(Expr.Literal expr) {
+			Object value = expr.litValue;
+			return env -> value;
+		}
+
+		/* The true branch is evaluated before the condition is tested, as in visitTernary() */
+		public Evaluator visitTernary(Expr.Ternary expr) {
+			Evaluator condition = compile(expr.condition);
+			Evaluator ifTrue = compile(expr.ifTrue);
+			Evaluator ifFalse = compile(expr.ifFalse);
+			return env -> {
+				Object conditionVal = condition.evaluate(env);
+				Object ifTrueVal = ifTrue.evaluate(env);
+				return Interpreter.isEqual(conditionVal, true) ? ifTrueVal : ifFalse.evaluate(env);
+			};
+		}
+
+		public Evaluator visitVariable(Expr.Variable expr) {
+			return read(expr.name, depthOf(expr));
+		}
+
+		/* read: variable @name declared @depth scopes out, or global when @depth is null */
+		private Evaluator read(Token name, Integer depth) {
+			String key = name.lexeme;
+			if (depth == null) {
+				Globals.Cell cell = engine.globals.cell(key);
+				return env -> cell.get(name);
+			}
+
+			/* A variable declared by a statement that did not run is looked up further out, as
+			 * Environment.get does */
+			switch (depth) {
+			case 0:
+				return env -> {
+					Object value = env.values.get(key);
+					return (value != null || env.values.containsKey(key)) ? value : env.get(name);
+				};
+			case 1:
+				return env -> {
+					Environment scope = env.outerEnv;
+					Object value = scope.values.get(key);
+					return (value != null || scope.values.containsKey(key)) ? value : scope.get(name);
+				};
+			default:
+				int distance = depth;
+				return env -> {
+					Environment scope = env.ancestor(distance);
+					Object value = scope.values.get(key);
+					return (value != null || scope.values.containsKey(key)) ? value : scope.get(name);
+				};
+			}
+		}
+
+		/* Assignments check the current value like Environment.getAt() and assignAt() */
+		public Evaluator visitAssign(Expr.Assign expr) {
+			Evaluator value = compile(expr.value);
+			Token name = expr.name;
+			String key = name.lexeme;
+			Token op = expr.op;
+			Integer depth = depthOf(expr);
+
+			if (depth == null) {
+				Globals.Cell cell = engine.globals.cell(key);
+				if (op.type == TokenType.ASGN) {
+					return env -> {
+						Object newValue = value.evaluate(env);
+						cell.get(name);
+						cell.value = newValue;
+						return newValue;
+					};
+				}
+				return env -> {
+					Object newValue = value.evaluate(env);
+					newValue = compoundValue(op, cell.get(name), newValue);
+					cell.value = newValue;
+					return newValue;
+				};
+			}
+
+			int distance = depth;
+			if (op.type == TokenType.ASGN) {
+				return env -> {
+					Object newValue = value.evaluate(env);
+					Environment scope = env.ancestor(distance);
+					if (scope.values.get(key) == null) {
+						throw new RuntimeError(name, "Undefined identifier.");
+					}
+					scope.values.put(key, newValue);
+					return newValue;
+				};
+			}
+			return env -> {
+				Object newValue = value.evaluate(env);
+				Environment scope = env.ancestor(distance);
+				Object current = scope.values.get(key);
+				if (current == null) {
+					throw new RuntimeError(name, "Undefined identifier.");
+				}
+				newValue = compoundValue(op, current, newValue);
+				scope.values.put(key, newValue);
+				return newValue;
+			};
+		}
+
+		public Evaluator visitCall(Expr.Call expr) {
+			Evaluator callee = compile(expr.callee);
+			Evaluator[] args = compile(expr.args);
+			Token paren = expr.paren;
+			CallCache site = new CallCache(paren);
+
+			switch (args.length) {
+			case 0:
+				return env -> {
+					Object function = callee.evaluate(env);
+					if (!(function instanceof Callable)) {
+						throw new RuntimeError(paren, "The expression before '(' is not callable.");
+					}
+					return site.call(engine, (Callable) function, new ArrayList<>(0));
+				};
+			case 1: {
+				Evaluator arg = args[0];
+				return env -> {
+					Object function = callee.evaluate(env);
+					if (!(function instanceof Callable)) {
+						throw new RuntimeError(paren, "The expression before '(' is not callable.");
+					}
+					List<Object> arguments = new ArrayList<>(1);
+					arguments.add(arg.evaluate(env));
+					return site.call(engine, (Callable) function, arguments);
+				};
+			}
+			default:
+				return env -> {
+					Object function = callee.evaluate(env);
+					if (!(function instanceof Callable)) {
+						throw new RuntimeError(paren, "The expression before '(' is not callable.");
+					}
+					Object[] values = new Object[args.length];
+					for (int i = 0; i < values.length; i++) {
+						values[i] = args[i].evaluate(env);
+					}
+					return site.call(engine, (Callable) function, Arrays.asList(values));
+				};
+			}
+		}
+
+		public Evaluator visitGet(Expr.Get expr) {
+			Evaluator object = compile(expr.object);
+			Token field = expr.field;
+			return env -> {
+				Object instance = object.evaluate(env);
+				if (!(instance instanceof Instance)) {
+					throw new RuntimeError(field, "Invalid field access.");
+				}
+				return ((Instance) instance).get(engine, field);
+			};
+		}
+
+		public Evaluator visitSet(Expr.Set expr) {
+			Evaluator object = compile(expr.object);
+			Evaluator value = compile(expr.value);
+			Token field = expr.field;
+			return env -> {
+				Object instance = object.evaluate(env);
+				if (!(instance instanceof Instance)) {
+					throw new RuntimeError(field, "Only objects have properties.");
+				}
+				Object newValue = value.evaluate(env);
+				((Instance) instance).set(field, newValue);
+				return newValue;
+			};
+		}
+
+		/* 'this' is always resolved inside a class, the resolver rejects it anywhere else */
+		public Evaluator visitThis(Expr.This expr) {
+			return read(expr.keyword, depthOf(expr));
+		}
+
+		/* The declaration is made once, every evaluation closes over the current scope */
+		public Evaluator visitFunction(Expr.Function expr) {
+			Stmt.FuncStmt declaration = new Stmt.FuncStmt(null, expr.body, expr.args);
+			return env -> new Function(declaration, env);
+		}
+
+		public Evaluator visitSuper(Expr.Super expr) {
+			int distance = depthOf(expr);
+			Token keyword = expr.keyword;
+			String method = expr.method.lexeme;
+			Counters counters = engine.counters;
+			return env -> {
+				LoxClass superclass = (LoxClass) env.getAt(distance, keyword);
+				Instance instance = (Instance) env.getAt(distance - 1, "this");
+				Function function = superclass.findMethod(method);
+				if (function == null) {
+					throw new RuntimeError(keyword, "The superclass does not own method '" + method + "'.");
+				}
+				counters.environments++;
+				return function.bind(instance);
+			};
+		}
+
+		public Evaluator visitArrayLiteral(Expr.ArrayLiteral expr) {
+			Evaluator[] elements = compile(expr.elements);
+			return env -> {
+				LoxArray array = new LoxArray(elements.length);
+				for (Evaluator element : elements) {
+					array.push(element.evaluate(env));
+				}
+				return array;
+			};
+		}
+
+		public Evaluator visitIndex(Expr.Index expr) {
+			Evaluator object = compile(expr.object);
+			Evaluator index = compile(expr.index);
+			Token bracket = expr.bracket;
+			return env -> {
+				Object target = object.evaluate(env);
+				Object key = index.evaluate(env);
+				if (target instanceof LoxArray) {
+					LoxArray array = (LoxArray) target;
+					return array.get(Interpreter.checkIndex(bracket, array, key));
+				}
+				if (target instanceof LoxMap) {
+					return ((LoxMap) target).get(key);
+				}
+				throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+			};
+		}
+
+		public Evaluator visitIndexSet(Expr.IndexSet expr) {
+			Evaluator object = compile(expr.object);
+			Evaluator index = compile(expr.index);
+			Evaluator value = compile(expr.value);
+			Token bracket = expr.bracket;
+			Token op = expr.op;
+			boolean compound = op.type != TokenType.ASGN;
+			return env -> {
+				Object target = object.evaluate(env);
+				Object key = index.evaluate(env);
+				Object newValue = value.evaluate(env);
+
+				if (target instanceof LoxArray) {
+					LoxArray array = (LoxArray) target;
+					int position = Interpreter.checkIndex(bracket, array, key);
+					if (compound) {
+						newValue = compoundValue(op, array.get(position), newValue);
+					}
+					array.set(position, newValue);
+					return newValue;
+				}
+				if (target instanceof LoxMap) {
+					LoxMap map = (LoxMap) target;
+					if (compound) {
+						newValue = compoundValue(op, map.get(key), newValue);
+					}
+					Interpreter.putEntry(bracket, map, key, newValue);
+					return newValue;
+				}
+				throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+			};
+		}
+	}
+}
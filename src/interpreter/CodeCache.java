@@ -0,0 +1,67 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* CodeCache: compiled code installed by the Jit, within a budget
+ *
+ * The size of a Code is the size of its class file, which the metadata of the hidden class is
+ * roughly proportional to. Installing code beyond the budget evicts the least recently used
+ * code: the Jit records the tick of every use of a Code, and the entries with the oldest ticks
+ * go first. Eviction only drops the cache's and the unit's references, so that the class can be
+ * unloaded once the calls running it have returned. */
+final class CodeCache {
+	static final long DEFAULT_BUDGET = 1024 * 1024;
+
+	private final long budget;
+	private final List<Jit.Code> entries = new ArrayList<>();
+	private long size = 0;
+	private long peak = 0;
+
+	CodeCache(long budget) {
+		this.budget = budget;
+	}
+
+	/* add: install @code, giving the code evicted to make room for it */
+	List<Jit.Code> add(Jit.Code code) {
+		List<Jit.Code> evicted = new ArrayList<>();
+		while (size + code.size > budget && !entries.isEmpty()) {
+			Jit.Code oldest = entries.get(0);
+			for (Jit.Code entry : entries) {
+				if (entry.lastUse < oldest.lastUse) {
+					oldest = entry;
+				}
+			}
+			remove(oldest);
+			evicted.add(oldest);
+		}
+
+		/* Code larger than the whole budget still runs, alone in the cache */
+		entries.add(code);
+		size += code.size;
+		peak = Math.max(peak, size);
+		return evicted;
+	}
+
+	void remove(Jit.Code code) {
+		if (entries.remove(code)) {
+			size -= code.size;
+		}
+	}
+
+	int count() {
+		return entries.size();
+	}
+
+	long size() {
+		return size;
+	}
+
+	long peak() {
+		return peak;
+	}
+
+	long budget() {
+		return budget;
+	}
+}
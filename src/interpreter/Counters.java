@@ -0,0 +1,41 @@
+package interpreter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/* Counters: execution counters of the interpreters running on one thread
+ *
+ * Each thread gets its own Counters, which an Interpreter looks up once when it is created; the
+ * hot paths then pay a plain increment of a field nobody else writes. Readers such as the JMX
+ * MBean sum the counters of all threads when they are asked, reading them racily: a total may
+ * lag the interpreter threads by a few increments. An interpreter must run on the thread that
+ * created it. */
+final class Counters {
+	/* Counters of every thread that ever created an interpreter */
+	private static final List<Counters> ALL = new CopyOnWriteArrayList<>();
+
+	private static final ThreadLocal<Counters> CURRENT = ThreadLocal.withInitial(() -> {
+		Counters counters = new Counters();
+		ALL.add(counters);
+		return counters;
+	});
+
+	long statements = 0;
+	long calls = 0;
+	long environments = 0;
+	long instances = 0;
+
+	/* Lox functions being executed on this thread */
+	int depth = 0;
+
+	private Counters() {
+	}
+
+	static Counters current() {
+		return CURRENT.get();
+	}
+
+	static List<Counters> all() {
+		return ALL;
+	}
+}
@@ -0,0 +1,338 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* CoverageInterpreter: interpreter counting the executions of every source line, for --coverage
+ *
+ * Only this subclass counts, by overriding execute() and executeBlock(); a normal run never
+ * loads it and pays nothing. Before a script runs, its statements (function bodies included) are
+ * registered with their line, which also tells which lines are executable. Executions are counted
+ * in a long[] indexed by line, calls of every function in its record.
+ *
+ * At exit it writes <prefix>.info in the lcov tracefile format and <prefix>.txt, the source
+ * annotated with the count of every line the way gcov does it: '-' for lines without statements,
+ * '#####' for executable lines that never ran. */
+final class CoverageInterpreter extends Interpreter {
+	/* A function of the script and the number of its calls */
+	private static final class FunctionRecord {
+		final String name;
+		final int line;
+		long calls = 0;
+
+		FunctionRecord(String name, int line) {
+			this.name = name;
+			this.line = line;
+		}
+	}
+
+	/* Line of every counted statement. Blocks are not counted, their statements are, and a
+	 * statement on the same line as its parent or the statement before it is not counted either,
+	 * so that a line counts how often execution reached it rather than its statements. */
+	private final Map<Stmt, Integer> lines = new IdentityHashMap<>();
+
+	/* Records of the functions, by body */
+	private final Map<Stmt.Block, FunctionRecord> functions = new IdentityHashMap<>();
+
+	/* hits[line]: executions of the statements starting on @line, -1 for lines without any */
+	private long[] hits = new long[0];
+
+	CoverageInterpreter() {
+		super();
+	}
+
+	@Override
+	public void interpret(List<Stmt> stmts) {
+		Registrar registrar = new Registrar();
+		for (Stmt stmt : stmts) {
+			registrar.register(stmt);
+		}
+		super.interpret(stmts);
+	}
+
+	@Override
+	void execute(Stmt stmt) {
+		Integer line = lines.get(stmt);
+		if (line != null) {
+			hits[line]++;
+		}
+		super.execute(stmt);
+	}
+
+	@Override
+	void executeBlock(Stmt.Block block, Environment env) {
+		FunctionRecord function = functions.get(block);
+		if (function != null) {
+			function.calls++;
+		}
+		super.executeBlock(block, env);
+	}
+
+	private void addLine(Stmt stmt, int line) {
+		if (line >= hits.length) {
+			int length = hits.length;
+			hits = Arrays.copyOf(hits, Math.max(line + 1, length * 2));
+			Arrays.fill(hits, length, hits.length, -1);
+		}
+		if (hits[line] < 0) {
+			hits[line] = 0;
+		}
+		lines.put(stmt, line);
+	}
+
+	private void addFunction(String name, Stmt.Block body, int line) {
+		functions.putIfAbsent(body, new FunctionRecord(name, line));
+	}
+
+	/* Registrar: walks a script to register its statements and functions */
+	private final class Registrar implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+		private String className = null;
+
+		/* Line of the parent of the next statement, or of the statement before it in its block */
+		private int previous = 0;
+
+		void register(Stmt stmt) {
+			if (stmt == null) {
+				return;
+			}
+
+			int line = previous;
+			if (!(stmt instanceof Stmt.Block)) {
+				line = LineFinder.of(stmt);
+				if (line != previous) {
+					addLine(stmt, line);
+				}
+			}
+
+			previous = line;
+			stmt.accept(this);
+			previous = line;
+		}
+
+		/* registerBody: the first statement of a function counts even on the line of its header */
+		private void registerBody(Stmt.Block body) {
+			String enclosingClass = className;
+			int enclosingLine = previous;
+			className = null;
+			previous = 0;
+			register(body);
+			className = enclosingClass;
+			previous = enclosingLine;
+		}
+
+		private void register(Expr expr) {
+			if (expr != null) {
+				expr.accept(this);
+			}
+		}
+
+		private void register(List<? extends Expr> exprs) {
+			for (Expr expr : exprs) {
+				register(expr);
+			}
+		}
+
+		/* Statements */
+
+		public Void visitExpression(Stmt.Expression stmt) {
+			register(stmt.expression);
+			return null;
+		}
+
+		public Void visitPrint(Stmt.Print stmt) {
+			register(stmt.expression);
+			return null;
+		}
+
+		public Void visitVarStmt(Stmt.VarStmt stmt) {
+			register(stmt.init);
+			return null;
+		}
+
+		public Void visitBlock(Stmt.Block stmt) {
+			for (Stmt statement : stmt.statements) {
+				register(statement);
+			}
+			return null;
+		}
+
+		public Void visitConditional(Stmt.Conditional stmt) {
+			register(stmt.expr);
+			register(stmt.thenBranch);
+			register(stmt.elseBranch);
+			return null;
+		}
+
+		public Void visitWhile(Stmt.While stmt) {
+			register(stmt.expr);
+			register(stmt.body);
+			register(stmt.increment);
+			return null;
+		}
+
+		public Void visitFuncStmt(Stmt.FuncStmt stmt) {
+			String name = (className == null) ? stmt.name.lexeme : className + "." + stmt.name.lexeme;
+			addFunction(name, stmt.body, stmt.name.line);
+			registerBody(stmt.body);
+			return null;
+		}
+
+		public Void visitReturn(Stmt.Return stmt) {
+			register(stmt.expr);
+			return null;
+		}
+
+		public Void visitJump(Stmt.Jump stmt) {
+			return null;
+		}
+
+		public Void visitClass(Stmt.Class stmt) {
+			String enclosing = className;
+			for (Stmt.FuncStmt method : stmt.methods) {
+				className = stmt.name.lexeme;
+				visitFuncStmt(method);
+			}
+			className = enclosing;
+			return null;
+		}
+
+		/* Expressions, searched for the bodies of lambdas */
+
+		public Void visitBinary(Expr.Binary expr) {
+			register(expr.left);
+			register(expr.right);
+			return null;
+		}
+
+		public Void visitUnary(Expr.Unary expr) {
+			register(expr.exp);
+			return null;
+		}
+
+		public Void visitGrouping(Expr.Grouping expr) {
+			register(expr.exp);
+			return null;
+		}
+
+		public Void visitLiteral(Expr.Literal expr) {
+			return null;
+		}
+
+		public Void visitTernary(Expr.Ternary expr) {
+			register(expr.condition);
+			register(expr.ifTrue);
+			register(expr.ifFalse);
+			return null;
+		}
+
+		public Void visitVariable(Expr.Variable expr) {
+			return null;
+		}
+
+		public Void visitAssign(Expr.Assign expr) {
+			register(expr.value);
+			return null;
+		}
+
+		public Void visitCall(Expr.Call expr) {
+			register(expr.callee);
+			register(expr.args);
+			return null;
+		}
+
+		public Void visitGet(Expr.Get expr) {
+			register(expr.object);
+			return null;
+		}
+
+		public Void visitSet(Expr.Set expr) {
+			register(expr.object);
+			register(expr.value);
+			return null;
+		}
+
+		public Void visitThis(Expr.This expr) {
+			return null;
+		}
+
+		public Void visitFunction(Expr.Function expr) {
+			int line = LineFinder.of(expr);
+			addFunction("<lambda>:" + line, expr.body, line);
+			registerBody(expr.body);
+			return null;
+		}
+
+		public Void visitSuper(Expr.Super expr) {
+			return null;
+		}
+
+		public Void visitArrayLiteral(Expr.ArrayLiteral expr) {
+			register(expr.elements);
+			return null;
+		}
+
+		public Void visitIndex(Expr.Index expr) {
+			register(expr.object);
+			register(expr.index);
+			return null;
+		}
+
+		public Void visitIndexSet(Expr.IndexSet expr) {
+			register(expr.object);
+			register(expr.index);
+			register(expr.value);
+			return null;
+		}
+	}
+
+	/* report: write <prefix>.info (lcov) and <prefix>.txt (annotated source) for the script at
+	 * @path whose lines are @source */
+	void report(Path path, String[] source, String prefix) throws IOException {
+		List<FunctionRecord> records = new ArrayList<>(functions.values());
+		records.sort((a, b) -> Integer.compare(a.line, b.line));
+
+		try (PrintWriter lcov = new PrintWriter(Files.newBufferedWriter(Path.of(prefix + ".info")))) {
+			lcov.println("TN:");
+			lcov.println("SF:" + path.toAbsolutePath().normalize());
+
+			int functionsHit = 0;
+			for (FunctionRecord record : records) {
+				lcov.println("FN:" + record.line + "," + record.name);
+			}
+			for (FunctionRecord record : records) {
+				lcov.println("FNDA:" + record.calls + "," + record.name);
+				functionsHit += (record.calls > 0) ? 1 : 0;
+			}
+			lcov.println("FNF:" + records.size());
+			lcov.println("FNH:" + functionsHit);
+
+			int found = 0;
+			int hit = 0;
+			for (int line = 1; line < hits.length; line++) {
+				if (hits[line] >= 0) {
+					lcov.println("DA:" + line + "," + hits[line]);
+					found++;
+					hit += (hits[line] > 0) ? 1 : 0;
+				}
+			}
+			lcov.println("LF:" + found);
+			lcov.println("LH:" + hit);
+			lcov.println("end_of_record");
+		}
+
+		try (PrintWriter annotated = new PrintWriter(Files.newBufferedWriter(Path.of(prefix + ".txt")))) {
+			for (int line = 1; line <= source.length; line++) {
+				long count = (line < hits.length) ? hits[line] : -1;
+				String column = (count < 0) ? "-" : (count == 0) ? "#####" : Long.toString(count);
+				annotated.printf("%9s:%5d:%s%n", column, line, source[line - 1]);
+			}
+		}
+	}
+}
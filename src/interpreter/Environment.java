@@ -4,19 +4,34 @@ import java.util.HashMap;
 
 
 public class Environment {
-	final Environment outerEnv;
-	final Map<String, Object> values = new HashMap<>();
+	/* Not final for the frames the interpreter recycles, see Interpreter.newFrame() */
+	Environment outerEnv;
+	final Map<String, Object> values;
+
+	/* captured: whether a closure may reach this scope, set for it and all its ancestors */
+	boolean captured = false;
 	
 	public Environment() {
-		outerEnv = null;
+		this(null, new HashMap<>());
 	}
 
 	public Environment(Environment outerEnv) {
+		this(outerEnv, new HashMap<>());
+	}
+
+	/* Environment: the outermost scope, whose variables are kept in @values, see Globals */
+	Environment(Map<String, Object> values) {
+		this(null, values);
+	}
+
+	private Environment(Environment outerEnv, Map<String, Object> values) {
 		this.outerEnv = outerEnv;
+		this.values = values;
 	}
 	
 	public void define(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
+		if (values.containsKey(name.lexeme)
+				&& !(values instanceof Globals && ((Globals) values).builtin(name.lexeme))) {
 			Lox.hadRuntimeError = true;
 			throw new RuntimeError(name, "Redeclare existing variable: \"" + name.lexeme + "\".");
 		}
@@ -74,6 +89,19 @@ public class Environment {
 		ancestor.assign(name, value);
 	}
 	
+	/* reuse: empty this scope, a frame nothing reaches any more, for a call in @outerEnv */
+	void reuse(Environment outerEnv) {
+		values.clear();
+		this.outerEnv = outerEnv;
+	}
+	
+	/* capture: mark this scope, which a Function is created in, and those around it as captured */
+	void capture() {
+		for (Environment env = this; env != null && !env.captured; env = env.outerEnv) {
+			env.captured = true;
+		}
+	}
+	
 	public Environment ancestor(int distance) {
 		Environment ancestorEnv = this;
 		for (int i = 0; i < distance; i++) {
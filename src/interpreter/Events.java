@@ -0,0 +1,165 @@
+package interpreter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Events: Java Flight Recorder events of the interpreter
+ *
+ * lox.Script		execution of a script, from its start to its end
+ * lox.SlowCall		call of a Lox function lasting longer than the threshold (20 ms by default,
+ *					configurable in the recording settings like any JFR threshold)
+ * lox.RuntimeError	runtime error reported to the user
+ *
+ * Events are only created while a recording is running. Loading the first event class starts
+ * the recorder, which would add a good fraction of a second to every run, so nothing is touched
+ * until the recorder has been started by -XX:StartFlightRecording or jcmd. From then on a
+ * recorder listener keeps @recording up to date. */
+final class Events {
+	private Events() {
+	}
+
+	private static volatile boolean recording = false;
+	private static boolean listening = false;
+
+	/* recording: whether events are being recorded, cheap enough for every call */
+	static boolean recording() {
+		if (!FlightRecorder.isInitialized()) {
+			return false;
+		}
+		if (!listening) {
+			listen();
+		}
+		return recording;
+	}
+
+	private static synchronized void listen() {
+		if (listening) {
+			return;
+		}
+
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			public void recorderInitialized(FlightRecorder recorder) {
+				update(recorder);
+			}
+
+			public void recordingStateChanged(Recording changed) {
+				update(FlightRecorder.getFlightRecorder());
+			}
+		});
+		listening = true;
+	}
+
+	private static void update(FlightRecorder recorder) {
+		boolean running = false;
+		for (Recording recording : recorder.getRecordings()) {
+			running |= recording.getState() == RecordingState.RUNNING;
+		}
+		recording = running;
+	}
+
+	@Name("lox.Script")
+	@Label("Lox Script")
+	@Category("Lox")
+	@Description("Execution of a Lox script")
+	@StackTrace(false)
+	static final class ScriptEvent extends Event {
+		@Label("Statements")
+		@Description("Top-level statements of the script")
+		int statements;
+
+		@Label("Failed")
+		boolean failed;
+	}
+
+	@Name("lox.SlowCall")
+	@Label("Slow Lox Call")
+	@Category("Lox")
+	@Description("Call of a Lox function that took longer than the threshold")
+	@Threshold("20 ms")
+	@StackTrace(false)
+	static final class SlowCallEvent extends Event {
+		@Label("Function")
+		String function;
+
+		@Label("Call Depth")
+		int depth;
+	}
+
+	@Name("lox.RuntimeError")
+	@Label("Lox Runtime Error")
+	@Category("Lox")
+	@StackTrace(false)
+	static final class RuntimeErrorEvent extends Event {
+		@Label("Message")
+		String message;
+
+		@Label("Line")
+		int line;
+
+		@Label("Token")
+		String token;
+	}
+
+	/* beginCall: start timing a call, null when no recording is running */
+	static SlowCallEvent beginCall() {
+		if (!recording()) {
+			return null;
+		}
+
+		SlowCallEvent event = new SlowCallEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endCall(SlowCallEvent event, Function function, int depth) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.function = Profiler.nameOf(function);
+			event.depth = depth;
+			event.commit();
+		}
+	}
+
+	/* beginScript: start timing a script, null when no recording is running */
+	static ScriptEvent beginScript() {
+		if (!recording()) {
+			return null;
+		}
+
+		ScriptEvent event = new ScriptEvent();
+		event.begin();
+		return event;
+	}
+
+	static void endScript(ScriptEvent event, int statements, boolean failed) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.statements = statements;
+			event.failed = failed;
+			event.commit();
+		}
+	}
+
+	static void runtimeError(RuntimeError error) {
+		if (!recording()) {
+			return;
+		}
+
+		RuntimeErrorEvent event = new RuntimeErrorEvent();
+		if (event.isEnabled()) {
+			event.message = error.getMessage();
+			event.line = error.token.line;
+			event.token = error.token.lexeme;
+			event.commit();
+		}
+	}
+}
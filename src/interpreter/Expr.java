@@ -17,6 +17,9 @@ public abstract class Expr{
   public R visitThis(This expr);
   public R visitFunction(Function expr);
   public R visitSuper(Super expr);
+  public R visitArrayLiteral(ArrayLiteral expr);
+  public R visitIndex(Index expr);
+  public R visitIndexSet(IndexSet expr);
  }
 
  public static class Binary extends Expr {
@@ -203,6 +206,56 @@ public abstract class Expr{
   }
  }
 
+ public static class ArrayLiteral extends Expr {
+  public final Token bracket;
+  public final List<Expr> elements;
+
+  public ArrayLiteral(Token bracket, List<Expr> elements) {
+   this.bracket = bracket;
+   this.elements = elements;
+  }
+
+  public <R> R accept(Visitor<R> visitor) {
+   return visitor.visitArrayLiteral(this);
+  }
+ }
+
+ public static class Index extends Expr {
+  public final Expr object;
+  public final Token bracket;
+  public final Expr index;
+
+  public Index(Expr object, Token bracket, Expr index) {
+   this.object = object;
+   this.bracket = bracket;
+   this.index = index;
+  }
+
+  public <R> R accept(Visitor<R> visitor) {
+   return visitor.visitIndex(this);
+  }
+ }
+
+ public static class IndexSet extends Expr {
+  public final Expr object;
+  public final Token bracket;
+  public final Expr index;
+  public final Expr value;
+  public final Token op;
+
+  public IndexSet(Expr object, Token bracket, Expr index, Expr value, Token op) {
+   this.object = object;
+   this.bracket = bracket;
+   this.index = index;
+   this.value = value;
+   this.op = op;
+  }
+
+  public <R> R accept(Visitor<R> visitor) {
+   return visitor.visitIndexSet(this);
+  }
+ }
+
 
  public abstract <R> R accept(Visitor<R> visitor);
 }
\ No newline at end of file
@@ -0,0 +1,735 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* ExprNode: executable expression of the self-specializing engine
+ *
+ * A binary operator starts as an Uninitialized node. Its first execution looks at the operands and
+ * rewrites the node for their types: NumberAdd or StringConcat for '+', NumberLt for '<', and so
+ * on. Specialized nodes guard their operand types. When a guard fails, the node deoptimizes for
+ * good into Generic, which has the semantics of Interpreter.binaryValue(). With --warm-start, a
+ * node whose operand types a previous run recorded is built specialized for them. Variables are
+ * bound when the tree is built, to a read at a fixed scope depth or to the cell of a global. */
+abstract class ExprNode extends Node {
+	abstract Object execute(Environment env);
+
+	static final class Literal extends ExprNode {
+		private final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		Object execute(Environment env) {
+			return value;
+		}
+	}
+
+	/* LocalRead: variable declared @depth scopes out of the current one */
+	static final class LocalRead extends ExprNode {
+		private final Token name;
+		private final int depth;
+
+		LocalRead(Token name, int depth) {
+			this.name = name;
+			this.depth = depth;
+		}
+
+		Object execute(Environment env) {
+			Environment scope = env;
+			for (int i = 0; i < depth; i++) {
+				scope = scope.outerEnv;
+			}
+
+			Object value = scope.values.get(name.lexeme);
+			if (value == null && !scope.values.containsKey(name.lexeme)) {
+				/* Declared by a statement that did not run: look further out, as Environment.get */
+				return scope.get(name);
+			}
+			return value;
+		}
+	}
+
+	/* GlobalRead: variable the resolver did not find in any scope, read from its cell */
+	static final class GlobalRead extends ExprNode {
+		private final Globals.Cell cell;
+		private final Token name;
+
+		GlobalRead(Globals.Cell cell, Token name) {
+			this.cell = cell;
+			this.name = name;
+		}
+
+		Object execute(Environment env) {
+			return cell.get(name);
+		}
+	}
+
+	/* Assign: assignment, with '=', '+=' or '-=', to a variable */
+	abstract static class Assign extends ExprNode {
+		final NodeInterpreter engine;
+		final Token name;
+		final Token op;
+		ExprNode value;
+
+		Assign(NodeInterpreter engine, Token name, Token op, ExprNode value) {
+			this.engine = engine;
+			this.name = name;
+			this.op = op;
+			this.value = adopt(value);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (value == child) {
+				value = replacement;
+			}
+		}
+	}
+
+	static final class LocalAssign extends Assign {
+		private final int depth;
+
+		LocalAssign(NodeInterpreter engine, Token name, Token op, int depth, ExprNode value) {
+			super(engine, name, op, value);
+			this.depth = depth;
+		}
+
+		Object execute(Environment env) {
+			Object newValue = value.execute(env);
+			Environment scope = env;
+			for (int i = 0; i < depth; i++) {
+				scope = scope.outerEnv;
+			}
+
+			/* Same checks as Environment.getAt() and assignAt() */
+			Object current = scope.values.get(name.lexeme);
+			if (current == null) {
+				throw new RuntimeError(name, "Undefined identifier.");
+			}
+			if (op.type != TokenType.ASGN) {
+				newValue = engine.compoundValue(op, current, newValue);
+			}
+			scope.values.put(name.lexeme, newValue);
+			return newValue;
+		}
+	}
+
+	static final class GlobalAssign extends Assign {
+		private final Globals.Cell cell;
+
+		GlobalAssign(NodeInterpreter engine, Token name, Token op, ExprNode value) {
+			super(engine, name, op, value);
+			this.cell = engine.globals.cell(name.lexeme);
+		}
+
+		Object execute(Environment env) {
+			Object newValue = value.execute(env);
+			Object current = cell.get(name);
+			if (op.type != TokenType.ASGN) {
+				newValue = engine.compoundValue(op, current, newValue);
+			}
+			cell.value = newValue;
+			return newValue;
+		}
+	}
+
+	/* Binary: operator whose operands are both evaluated, that is anything but 'and' and 'or' */
+	abstract static class Binary extends ExprNode {
+		final NodeInterpreter engine;
+		final Token op;
+		ExprNode left;
+		ExprNode right;
+
+		/* Node that replaced this one. An execution that started before the rewrite, such as a
+		 * recursive call in an operand, carries on with it. */
+		Binary successor = null;
+
+		Binary(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			this.engine = engine;
+			this.op = op;
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		Object execute(Environment env) {
+			Object leftVal = left.execute(env);
+			return apply(leftVal, right.execute(env));
+		}
+
+		abstract Object apply(Object leftVal, Object rightVal);
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (left == child) {
+				left = replacement;
+			}
+			else if (right == child) {
+				right = replacement;
+			}
+		}
+
+		/* deoptimize: rewrite this node for good into the generic one, after a guard failed */
+		final Binary deoptimize() {
+			if (successor == null) {
+				successor = replace(new Generic(engine, op, left, right));
+				if (engine.siteProfile != null) {
+					engine.siteProfile.recordOperands(op, SiteProfile.GENERIC);
+				}
+			}
+			return successor;
+		}
+	}
+
+	/* Uninitialized: operator that has not run yet */
+	static final class Uninitialized extends Binary {
+		Uninitialized(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (successor == null) {
+				successor = replace(specialize(leftVal, rightVal));
+			}
+			return successor.apply(leftVal, rightVal);
+		}
+
+		private Binary specialize(Object leftVal, Object rightVal) {
+			String types = SiteProfile.GENERIC;
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				types = SiteProfile.NUMBERS;
+			}
+			else if (leftVal instanceof String && rightVal instanceof String) {
+				types = SiteProfile.STRINGS;
+			}
+
+			Binary node = forTypes(engine, op, types, left, right);
+			if (engine.siteProfile != null) {
+				engine.siteProfile.recordOperands(op, (node instanceof Generic) ? SiteProfile.GENERIC : types);
+			}
+			return node;
+		}
+
+		/* forTypes: node for @op applied to operands of @types, see SiteProfile */
+		static Binary forTypes(NodeInterpreter engine, Token op, String types, ExprNode left, ExprNode right) {
+			if (types.equals(SiteProfile.NUMBERS)) {
+				switch (op.type) {
+				case PLUS:
+					return new NumberAdd(engine, op, left, right);
+				case MINUS:
+					return new NumberSub(engine, op, left, right);
+				case STAR:
+					return new NumberMul(engine, op, left, right);
+				case SLASH:
+					return new NumberDiv(engine, op, left, right);
+				case MOD:
+					return new NumberMod(engine, op, left, right);
+				case LT:
+					return new NumberLt(engine, op, left, right);
+				case GT:
+					return new NumberGt(engine, op, left, right);
+				case LT_EQ:
+					return new NumberLtEq(engine, op, left, right);
+				case GT_EQ:
+					return new NumberGtEq(engine, op, left, right);
+				default:
+					break;
+				}
+			}
+			else if (op.type == TokenType.PLUS && types.equals(SiteProfile.STRINGS)) {
+				return new StringConcat(engine, op, left, right);
+			}
+
+			return new Generic(engine, op, left, right);
+		}
+	}
+
+	/* Generic: any operands, any operator */
+	static final class Generic extends Binary {
+		Generic(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			return engine.binaryValue(op, leftVal, rightVal);
+		}
+	}
+
+	static final class NumberAdd extends Binary {
+		NumberAdd(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal + (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class StringConcat extends Binary {
+		StringConcat(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof String && rightVal instanceof String) {
+				return (String) leftVal + (String) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberSub extends Binary {
+		NumberSub(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal - (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberMul extends Binary {
+		NumberMul(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal * (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberDiv extends Binary {
+		NumberDiv(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal / (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberMod extends Binary {
+		NumberMod(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal % (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberLt extends Binary {
+		NumberLt(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal < (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberGt extends Binary {
+		NumberGt(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal > (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	/* NumberLtEq and NumberGtEq compare the way Interpreter.binaryValue() does */
+	static final class NumberLtEq extends Binary {
+		NumberLtEq(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal >= (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	static final class NumberGtEq extends Binary {
+		NumberGtEq(NodeInterpreter engine, Token op, ExprNode left, ExprNode right) {
+			super(engine, op, left, right);
+		}
+
+		Object apply(Object leftVal, Object rightVal) {
+			if (leftVal instanceof Double && rightVal instanceof Double) {
+				return (double) leftVal <= (double) rightVal;
+			}
+			return deoptimize().apply(leftVal, rightVal);
+		}
+	}
+
+	/* Logical: 'and' and 'or', which only evaluate the right operand when needed */
+	static final class Logical extends ExprNode {
+		private final boolean isAnd;
+		private ExprNode left;
+		private ExprNode right;
+
+		Logical(boolean isAnd, ExprNode left, ExprNode right) {
+			this.isAnd = isAnd;
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		Object execute(Environment env) {
+			Object leftVal = left.execute(env);
+			if (Interpreter.truthVal(leftVal) != isAnd) {
+				return leftVal;
+			}
+			return right.execute(env);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (left == child) {
+				left = replacement;
+			}
+			else if (right == child) {
+				right = replacement;
+			}
+		}
+	}
+
+	static final class Unary extends ExprNode {
+		private final Token op;
+		private ExprNode operand;
+
+		Unary(Token op, ExprNode operand) {
+			this.op = op;
+			this.operand = adopt(operand);
+		}
+
+		Object execute(Environment env) {
+			Object value = operand.execute(env);
+			if (op.type == TokenType.MINUS) {
+				Interpreter.checkNumberOperand(op, value);
+				return 0 - (double) value;
+			}
+			return !Interpreter.truthVal(value);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (operand == child) {
+				operand = replacement;
+			}
+		}
+	}
+
+	/* Ternary: evaluates its true branch before testing the condition, as visitTernary() */
+	static final class Ternary extends ExprNode {
+		private ExprNode condition;
+		private ExprNode ifTrue;
+		private ExprNode ifFalse;
+
+		Ternary(ExprNode condition, ExprNode ifTrue, ExprNode ifFalse) {
+			this.condition = adopt(condition);
+			this.ifTrue = adopt(ifTrue);
+			this.ifFalse = adopt(ifFalse);
+		}
+
+		Object execute(Environment env) {
+			Object conditionVal = condition.execute(env);
+			Object ifTrueVal = ifTrue.execute(env);
+			if (Interpreter.isEqual(conditionVal, true)) {
+				return ifTrueVal;
+			}
+			return ifFalse.execute(env);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (condition == child) {
+				condition = replacement;
+			}
+			else if (ifTrue == child) {
+				ifTrue = replacement;
+			}
+			else if (ifFalse == child) {
+				ifFalse = replacement;
+			}
+		}
+	}
+
+	static final class Call extends ExprNode {
+		private final NodeInterpreter engine;
+		private final Token paren;
+		private final CallCache site;
+		private ExprNode callee;
+		private final ExprNode[] args;
+
+		Call(NodeInterpreter engine, ExprNode callee, Token paren, ExprNode[] args) {
+			this.engine = engine;
+			this.callee = adopt(callee);
+			this.paren = paren;
+			this.site = new CallCache(paren);
+			this.args = args;
+			for (ExprNode arg : args) {
+				adopt(arg);
+			}
+		}
+
+		Object execute(Environment env) {
+			Object function = callee.execute(env);
+			if (!(function instanceof Callable)) {
+				throw new RuntimeError(paren, "The expression before '(' is not callable.");
+			}
+
+			List<Object> arguments = new ArrayList<>(args.length);
+			for (ExprNode arg : args) {
+				arguments.add(arg.execute(env));
+			}
+			return site.call(engine, (Callable) function, arguments);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (callee == child) {
+				callee = replacement;
+				return;
+			}
+			for (int i = 0; i < args.length; i++) {
+				if (args[i] == child) {
+					args[i] = replacement;
+				}
+			}
+		}
+	}
+
+	static final class Get extends ExprNode {
+		private final NodeInterpreter engine;
+		private final Token field;
+		private ExprNode object;
+
+		Get(NodeInterpreter engine, ExprNode object, Token field) {
+			this.engine = engine;
+			this.object = adopt(object);
+			this.field = field;
+		}
+
+		Object execute(Environment env) {
+			Object instance = object.execute(env);
+			if (!(instance instanceof Instance)) {
+				throw new RuntimeError(field, "Invalid field access.");
+			}
+			return ((Instance) instance).get(engine, field);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (object == child) {
+				object = replacement;
+			}
+		}
+	}
+
+	static final class Set extends ExprNode {
+		private final Token field;
+		private ExprNode object;
+		private ExprNode value;
+
+		Set(ExprNode object, Token field, ExprNode value) {
+			this.object = adopt(object);
+			this.field = field;
+			this.value = adopt(value);
+		}
+
+		Object execute(Environment env) {
+			Object instance = object.execute(env);
+			if (!(instance instanceof Instance)) {
+				throw new RuntimeError(field, "Only objects have properties.");
+			}
+			Object newValue = value.execute(env);
+			((Instance) instance).set(field, newValue);
+			return newValue;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (object == child) {
+				object = replacement;
+			}
+			else if (value == child) {
+				value = replacement;
+			}
+		}
+	}
+
+	static final class Super extends ExprNode {
+		private final NodeInterpreter engine;
+		private final Token keyword;
+		private final Token method;
+		private final int depth;
+
+		Super(NodeInterpreter engine, Token keyword, Token method, int depth) {
+			this.engine = engine;
+			this.keyword = keyword;
+			this.method = method;
+			this.depth = depth;
+		}
+
+		Object execute(Environment env) {
+			LoxClass superclass = (LoxClass) env.getAt(depth, keyword);
+			Instance instance = (Instance) env.getAt(depth - 1, "this");
+			Function function = superclass.findMethod(method.lexeme);
+			if (function == null) {
+				throw new RuntimeError(keyword, "The superclass does not own method '"
+										+ method.lexeme + "'.");
+			}
+			engine.counters.environments++;
+			return function.bind(instance);
+		}
+	}
+
+	/* Lambda: the declaration is made once, every evaluation closes over the current scope */
+	static final class Lambda extends ExprNode {
+		private final Stmt.FuncStmt declaration;
+
+		Lambda(Expr.Function expr) {
+			this.declaration = new Stmt.FuncStmt(null, expr.body, expr.args);
+		}
+
+		Object execute(Environment env) {
+			return new Function(declaration, env);
+		}
+	}
+
+	static final class ArrayLiteral extends ExprNode {
+		private final ExprNode[] elements;
+
+		ArrayLiteral(ExprNode[] elements) {
+			this.elements = elements;
+			for (ExprNode element : elements) {
+				adopt(element);
+			}
+		}
+
+		Object execute(Environment env) {
+			LoxArray array = new LoxArray(elements.length);
+			for (ExprNode element : elements) {
+				array.push(element.execute(env));
+			}
+			return array;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i] == child) {
+					elements[i] = replacement;
+				}
+			}
+		}
+	}
+
+	static final class Index extends ExprNode {
+		private final Token bracket;
+		private ExprNode object;
+		private ExprNode index;
+
+		Index(ExprNode object, Token bracket, ExprNode index) {
+			this.object = adopt(object);
+			this.bracket = bracket;
+			this.index = adopt(index);
+		}
+
+		Object execute(Environment env) {
+			Object target = object.execute(env);
+			Object key = index.execute(env);
+
+			if (target instanceof LoxMap) {
+				return ((LoxMap) target).get(key);
+			}
+			if (!(target instanceof LoxArray)) {
+				throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+			}
+
+			LoxArray array = (LoxArray) target;
+			return array.get(Interpreter.checkIndex(bracket, array, key));
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (object == child) {
+				object = replacement;
+			}
+			else if (index == child) {
+				index = replacement;
+			}
+		}
+	}
+
+	static final class IndexSet extends ExprNode {
+		private final NodeInterpreter engine;
+		private final Token bracket;
+		private final Token op;
+		private ExprNode object;
+		private ExprNode index;
+		private ExprNode value;
+
+		IndexSet(NodeInterpreter engine, ExprNode object, Token bracket, ExprNode index, ExprNode value, Token op) {
+			this.engine = engine;
+			this.object = adopt(object);
+			this.bracket = bracket;
+			this.index = adopt(index);
+			this.value = adopt(value);
+			this.op = op;
+		}
+
+		Object execute(Environment env) {
+			Object target = object.execute(env);
+			Object key = index.execute(env);
+			Object newValue = value.execute(env);
+
+			if (target instanceof LoxMap) {
+				LoxMap map = (LoxMap) target;
+				if (op.type != TokenType.ASGN) {
+					newValue = engine.compoundValue(op, map.get(key), newValue);
+				}
+				Interpreter.putEntry(bracket, map, key, newValue);
+				return newValue;
+			}
+			if (!(target instanceof LoxArray)) {
+				throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+			}
+
+			LoxArray array = (LoxArray) target;
+			int position = Interpreter.checkIndex(bracket, array, key);
+			if (op.type != TokenType.ASGN) {
+				newValue = engine.compoundValue(op, array.get(position), newValue);
+			}
+			array.set(position, newValue);
+			return newValue;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (object == child) {
+				object = replacement;
+			}
+			else if (index == child) {
+				index = replacement;
+			}
+			else if (value == child) {
+				value = replacement;
+			}
+		}
+	}
+}
@@ -6,13 +6,21 @@ public class Function implements Callable {
 	final Environment closure;
 	final boolean isInit; // is a constructor/ an initializer? 
 
+	/* jitState: calls, loop iterations and compiled code, kept by the Jit once it saw a call */
+	Jit.State jitState = null;
+
+	/* layout: frame of the calls, see Interpreter.layoutOf() */
+	Interpreter.FrameLayout layout = null;
+
 	public Function(Stmt.FuncStmt declaration, Environment closure) {
+		closure.capture();
 		this.closure = closure;
 		this.declaration = declaration;
 		isInit = false;
 	}
 	
 	public Function(Stmt.FuncStmt declaration, Environment closure, boolean isInit) {
+		closure.capture();
 		this.closure = closure;
 		this.declaration = declaration;
 		this.isInit = isInit;
@@ -26,25 +34,77 @@ public class Function implements Callable {
 		/* Save the environment before calling */
 		Environment beforeCall = interpreter.environment;
 		
+		Counters counters = interpreter.counters;
+
+		/* A hot function runs its compiled code, which keeps its variables in JVM locals */
+		Jit jit = interpreter.jit;
+		Jit.Code code = (jit == null) ? null : jit.codeFor(interpreter, this, args);
+
 		/* Create a new stack frame for the function call */
-		Environment frame = new Environment(closure);
-		
-		for (int i = 0; i < args.size(); i++) {
-			Token argName = declaration.argNames.get(i);
-			Object value = args.get(i);
-			frame.define(argName, value);
+		Environment frame = null;
+		boolean registers = code == null && interpreter.registerFrames();
+		int callerBase = interpreter.frameBase();
+		int callerTop = interpreter.frameTop();
+		if (registers) {
+			frame = interpreter.pushFrame(this, args);
+		}
+		else if (code == null) {
+			frame = interpreter.newFrame(this);
+
+			for (int i = 0; i < args.size(); i++) {
+				Token argName = declaration.argNames.get(i);
+				Object value = args.get(i);
+				frame.define(argName, value);
+			}
 		}
 		
 		Object returnValue = null;
-		
-		try {
-			interpreter.executeBlock(declaration.body, frame);	
+
+		Profiler profiler = interpreter.profiler;
+		if (profiler != null) {
+			profiler.enter(this);
+		}
+		CallStack callStack = interpreter.callStack;
+		if (callStack != null) {
+			callStack.push(this);
+		}
+		Events.SlowCallEvent slowCall = Events.beginCall();
+		counters.depth++;
+		Function caller = null;
+		if (jit != null) {
+			caller = jit.running;
+			jit.running = this;
 		}
-		catch (ReturnValue valueWrapper) {
-			returnValue = valueWrapper.value;
+
+		try {
+			if (code != null) {
+				returnValue = code.call(interpreter, closure, args);
+			}
+			else {
+				returnValue = interpreter.executeBody(declaration.body, frame);
+			}
 		}
 		finally {
 			interpreter.environment = beforeCall;
+			if (registers) {
+				interpreter.popFrame(callerBase, callerTop);
+			}
+			else if (frame != null) {
+				interpreter.releaseFrame(this, frame);
+			}
+			if (jit != null) {
+				jit.running = caller;
+			}
+			if (profiler != null) {
+				profiler.exit();
+			}
+			if (callStack != null) {
+				callStack.pop();
+			}
+			if (slowCall != null) {
+				Events.endCall(slowCall, this, counters.depth);
+			}
+			counters.depth--;
 		}
 
 		
@@ -55,7 +115,14 @@ public class Function implements Callable {
 	Function bind(Instance instance) {
 		Environment surround = new Environment(closure);
 		surround.define("this", instance);
-		return new Function(declaration, surround, isInit);
+		Function bound = new Function(declaration, surround, isInit);
+
+		/* The copies bound to every instance count, and are compiled, as one function */
+		if (jitState == null) {
+			jitState = new Jit.State(arity());
+		}
+		bound.jitState = jitState;
+		return bound;
 	}
 	
 	public String toString() {
@@ -0,0 +1,178 @@
+package interpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Globals: the table of the global Environment, whose bindings are cells
+ *
+ * A Cell stays the same object for the whole run, whatever is assigned to the variable, so that
+ * a use of a global can be linked to its cell once and read it directly from then on: the tree
+ * interpreter links Expr.Variable and Expr.Assign on their first execution, the node and closure
+ * engines when they build the use, and the Jit compiles the cell in as a constant. A use of a
+ * variable that is not defined yet, such as one in a function declared before it, links to a
+ * cell created undefined, which its definition fills in later. Reading or assigning an undefined
+ * cell reports the error Environment.get() does.
+ *
+ * The natives the interpreter defines at startup are builtins: a script may declare a global of
+ * the same name once, which replaces the native instead of being a redeclaration, so that adding
+ * a native does not break the scripts that already use its name.
+ *
+ * As a Map it holds the defined variables only, which keeps Environment and the code walking
+ * the chain of Environments unaware of cells. */
+final class Globals extends AbstractMap<String, Object> {
+	static final class Cell {
+		final String name;
+		Object value = null;
+		boolean defined = false;
+		boolean builtin = false;
+
+		Cell(String name) {
+			this.name = name;
+		}
+
+		/* get: value of the variable, read by @name */
+		Object get(Token name) {
+			if (!defined) {
+				throw undefined(name);
+			}
+			return value;
+		}
+	}
+
+	/* The Jit looks cells up while compiling in the background */
+	private final Map<String, Cell> cells = new ConcurrentHashMap<>();
+	private int size = 0;
+
+	/* cell: the cell of global @name, created undefined if there is none yet */
+	Cell cell(String name) {
+		return cells.computeIfAbsent(name, Cell::new);
+	}
+
+	/* markBuiltins: make the globals defined so far builtins, which a declaration may replace */
+	void markBuiltins() {
+		for (Cell cell : cells.values()) {
+			cell.builtin = cell.defined;
+		}
+	}
+
+	/* builtin: whether global @name is still the native the interpreter defined at startup */
+	boolean builtin(String name) {
+		Cell cell = cells.get(name);
+		return cell != null && cell.builtin;
+	}
+
+	/* undefined: the error of a use of global @name that is not defined, as Environment.get() */
+	static RuntimeError undefined(Token name) {
+		Lox.hadRuntimeError = true;
+		return new RuntimeError(name, "Dereference an undefined variable.");
+	}
+
+	@Override
+	public Object get(Object name) {
+		Cell cell = cells.get(name);
+		return (cell == null) ? null : cell.value;
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		Cell cell = cells.get(name);
+		return cell != null && cell.defined;
+	}
+
+	@Override
+	public Object put(String name, Object value) {
+		Cell cell = cell(name);
+		Object previous = cell.value;
+		if (!cell.defined) {
+			cell.defined = true;
+			size++;
+		}
+		cell.builtin = false;
+		cell.value = value;
+		return previous;
+	}
+
+	/* remove: make the variable undefined, keeping its cell for the uses linked to it */
+	@Override
+	public Object remove(Object name) {
+		Cell cell = cells.get(name);
+		if (cell == null || !cell.defined) {
+			return null;
+		}
+		Object previous = cell.value;
+		cell.value = null;
+		cell.defined = false;
+		cell.builtin = false;
+		size--;
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			public int size() {
+				return size;
+			}
+
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				Iterator<Cell> all = cells.values().iterator();
+				return new Iterator<Map.Entry<String, Object>>() {
+					private Cell next = advance();
+					private Cell last = null;
+
+					private Cell advance() {
+						while (all.hasNext()) {
+							Cell cell = all.next();
+							if (cell.defined) {
+								return cell;
+							}
+						}
+						return null;
+					}
+
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					public Map.Entry<String, Object> next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+						last = next;
+						next = advance();
+						return new AbstractMap.SimpleEntry<String, Object>(last.name, last.value) {
+							public Object setValue(Object value) {
+								super.setValue(value);
+								Cell cell = cells.get(getKey());
+								Object previous = cell.value;
+								cell.value = value;
+								return previous;
+							}
+						};
+					}
+
+					public void remove() {
+						if (last == null) {
+							throw new IllegalStateException();
+						}
+						last.value = null;
+						last.defined = false;
+						last.builtin = false;
+						size--;
+						last = null;
+					}
+				};
+			}
+		};
+	}
+}
@@ -11,13 +11,15 @@ public class Instance {
 		this.loxClass = nadClass;
 	}
 	
-	public Object get(Token field) {
+	public Object get(Interpreter interpreter, Token field) {
 		if (fields.containsKey(field.lexeme)) {
 			return fields.get(field.lexeme);
 		}
 
 		Function method = loxClass.findMethod(field.lexeme);
 		if (method != null) {
+			interpreter.counters.environments++;
+			interpreter.recordAllocation(AllocationProfiler.Kind.BOUND_METHOD);
 			return method.bind(this);
 		}
 
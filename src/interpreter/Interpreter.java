@@ -1,38 +1,137 @@
 package interpreter;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
 import java.util.ArrayList;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-	final Environment global = new Environment();
+	final Globals globals = new Globals();
+	final Environment global = new Environment(globals);
 	Environment environment = global;
 	
 	/* locals: Keep track of 'depth' of each variable */
 	private final Map<Expr, Integer> locals = new HashMap<>();
+
+	/* bareBlocks: blocks declaring nothing, which run in the scope around them, see Resolver */
+	private final Set<Stmt.Block> bareBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/* Register frames, see Resolver. When they are enabled, a local that no closure captures lives
+	 * in registers[base + slot], base being the first register of the running call; only the
+	 * locals that closures capture live in Environments. The registers are one array, reused by
+	 * every call, which pushes its frame on top of its caller's.
+	 *
+	 * places: the slot of a local for each of its uses and declarations, or -1 - the number of
+	 * Environments between the use and the local's when it is captured
+	 * scopedBlocks: blocks declaring a captured local, which get an Environment
+	 * layouts: frame of each function, by body, and of each script, by its statements */
+	private boolean registerFrames = false;
+	private final Map<Object, Integer> places = new IdentityHashMap<>();
+	private final Set<Stmt.Block> scopedBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Map<Object, FrameLayout> layouts = new IdentityHashMap<>();
+	private Object[] registers = new Object[256];
+	private int base = 0;
+	private int top = 0;
+
+	/* FrameLayout: registers of a function, whether its scope gets an Environment, the slot of
+	 * each parameter, -1 for those living in the Environment, and whether a closure may keep the
+	 * Environment of a call alive once it returns */
+	static final class FrameLayout {
+		final int size;
+		final boolean scoped;
+		final int[] params;
+		final boolean escapes;
+
+		FrameLayout(int size, boolean scoped, int[] params, boolean escapes) {
+			this.size = size;
+			this.scoped = scoped;
+			this.params = params;
+			this.escapes = escapes;
+		}
+	}
+
+	/* framePool: Environments of returned calls that nothing can reach, see newFrame() */
+	private static final int MAX_POOLED_FRAMES = 64;
+	private final Environment[] framePool = new Environment[MAX_POOLED_FRAMES];
+	private int pooledFrames = 0;
+
+	/* callSites: inline cache of each call expression evaluated so far, see CallCache */
+	private final Map<Expr.Call, CallCache> callSites = new IdentityHashMap<>();
+
+	/* globalCells: cell each use of a global executed so far is linked to, see Globals */
+	private final Map<Expr, Globals.Cell> globalCells = new IdentityHashMap<>();
+
+	/* out: destination of 'print' statements */
+	final OutputSink out;
+
+	/* profiler: per-function profile of calls, null unless profiling is enabled */
+	Profiler profiler = null;
+
+	/* callStack: call stack published for the sampling profiler, null unless sampling */
+	CallStack callStack = null;
+
+	/* counters: execution counters of the thread running this interpreter, see Metrics */
+	final Counters counters = Counters.current();
+
+	/* allocations: allocations attributed to source lines, null unless profiling them */
+	AllocationProfiler allocations = null;
+
+	/* jit: compiler of hot functions to bytecode, null unless compiling them */
+	Jit jit = null;
+
+	/* siteProfile: profiles of the script's sites kept between runs, null unless --warm-start */
+	SiteProfile siteProfile = null;
 	
 	Interpreter() {
-		global.define("clock", new Callable() {
-			public int arity() {
-				return 0;
-			}
-			
+		this(new OutputSink(System.out, OutputSink.FlushPolicy.THRESHOLD));
+	}
+
+	Interpreter(OutputSink out) {
+		this.out = out;
+
+		global.define("clock", new NativeFunction("clock", 0) {
 			public Object call(Interpreter interpreter, List<Object> args) {
 				return (double) System.currentTimeMillis() / 1000.0;
 			}
-			
-			public String toString() {
-				return "<native fn>";
+		});
+
+		global.define("flush", new NativeFunction("flush", 0) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				interpreter.out.flush();
+				return null;
 			}
 		});
+
+		StreamNatives.define(global);
+		ArrayNatives.define(global);
+		MapNatives.define(global);
+		VectorNatives.define(global);
+		globals.markBuiltins();
 	}
 
 	private Object evaluate(Expr expr) {
 		return expr.accept(this);
 	}
+
+	/* number: box the result of arithmetic, recording the allocation when it is profiled */
+	private Object number(double value) {
+		if (allocations != null) {
+			allocations.record(AllocationProfiler.Kind.BOXED_DOUBLE);
+		}
+		return value;
+	}
+
+	void recordAllocation(AllocationProfiler.Kind kind) {
+		if (allocations != null) {
+			allocations.record(kind);
+		}
+	}
 	
-	private void checkNumberOperand(Token token, Object operand) {
+	static void checkNumberOperand(Token token, Object operand) {
 		if (operand instanceof Double) {
 			return;
 		}
@@ -40,7 +139,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(token, "Missing a numeric operand");
 	}
 	
-	private void checkNumberOperands(Token token, Object left, Object right) {
+	static void checkNumberOperands(Token token, Object left, Object right) {
 		if (left instanceof Double && right instanceof Double) {
 			return;
 		}
@@ -48,7 +147,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(token, "Both operands must be numeric");
 	}
 	
-	private boolean truthVal(Object literal) {
+	static boolean truthVal(Object literal) {
 		/* We treat `false` and `nil` objects as `false`
 		 * */
 		if (literal == null)
@@ -58,7 +157,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return true;
 	}
 	
-	private boolean isEqual(Object leftVal, Object rightVal) {
+	static boolean isEqual(Object leftVal, Object rightVal) {
 		if (leftVal == null && rightVal == null) {
 			return true;
 		}
@@ -69,15 +168,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return leftVal.equals(rightVal);
 	}
 	
-	private String stringify(Object object) {
-		if (object == null) {
-			return "nil";
-		}
-		
-		return object.toString();
-	}
-	
 	public void interpret(List<Stmt> stmts) {
+		/* The blocks of the script have their registers too */
+		FrameLayout script = registerFrames ? layouts.get(stmts) : null;
+		if (script != null && top + script.size > registers.length) {
+			registers = Arrays.copyOf(registers, Math.max(top + script.size, registers.length * 2));
+		}
+		int scriptBase = base;
+		int scriptTop = top;
+		if (script != null) {
+			base = top;
+			top += script.size;
+		}
+
 		try {
 			for (Stmt stmt : stmts) {
 				execute(stmt);
@@ -86,19 +189,170 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		catch (RuntimeError error) {
 			Lox.runtimeError(error);
 		}
+		finally {
+			if (script != null) {
+				popFrame(scriptBase, scriptTop);
+			}
+		}
 	}
 	
-	private void execute(Stmt stmt) {
-		if (stmt != null)
+	void execute(Stmt stmt) {
+		if (stmt != null) {
+			counters.statements++;
+			CallStack callStack = this.callStack;
+			if (callStack != null) {
+				callStack.statements[callStack.depth] = stmt;
+			}
 			stmt.accept(this);
+		}
 	}
 	
 	void resolve(Expr expr, int depth) {
 		locals.put(expr, depth);
 	}
+
+	void resolvePlace(Object site, int place) {
+		places.put(site, place);
+	}
+
+	void resolveBare(Stmt.Block block) {
+		bareBlocks.add(block);
+	}
+
+	/* isBare: whether @block runs in the scope around it instead of one of its own */
+	boolean isBare(Stmt.Block block) {
+		return bareBlocks.contains(block);
+	}
+
+	void resolveScoped(Stmt.Block block) {
+		scopedBlocks.add(block);
+	}
+
+	void resolveFrame(Object function, FrameLayout layout) {
+		layouts.put(function, layout);
+	}
+
+	/* enableRegisterFrames: keep the locals nothing captures in registers, for the tree-walking
+	 * engine when nothing else walks its Environments (the Jit does) */
+	void enableRegisterFrames() {
+		registerFrames = true;
+	}
+
+	boolean registerFrames() {
+		return registerFrames;
+	}
+
+	/* pushFrame: registers for a call of @function with @args, above those of the running call,
+	 * giving the Environment the call runs in */
+	Environment pushFrame(Function function, List<Object> args) {
+		FrameLayout layout = layoutOf(function);
+
+		int frameBase = top;
+		int frameTop = frameBase + layout.size;
+		if (frameTop > registers.length) {
+			registers = Arrays.copyOf(registers, Math.max(frameTop, registers.length * 2));
+		}
+
+		Environment env = function.closure;
+		if (layout.scoped) {
+			counters.environments++;
+			recordAllocation(AllocationProfiler.Kind.ENVIRONMENT);
+			env = new Environment(env);
+		}
+		for (int i = 0; i < layout.params.length; i++) {
+			int slot = layout.params[i];
+			if (slot >= 0) {
+				registers[frameBase + slot] = args.get(i);
+			}
+			else {
+				env.define(function.declaration.argNames.get(i), args.get(i));
+			}
+		}
+
+		base = frameBase;
+		top = frameTop;
+		return env;
+	}
+
+	/* layoutOf: frame of @function as the resolver found it, null if it did not resolve it */
+	FrameLayout layoutOf(Function function) {
+		FrameLayout layout = function.layout;
+		if (layout == null) {
+			layout = layouts.get(function.declaration.body);
+			function.layout = layout;
+		}
+		return layout;
+	}
+
+	/* newFrame: Environment for a call of @function, taken from the pool when the frame of the
+	 * call cannot escape and one is there
+	 *
+	 * A call running in Environments rather than registers allocates one, with its HashMap, per
+	 * call, which dies as soon as the call returns unless a closure captured it. The Resolver
+	 * proves which functions create no closure: the frames of their calls go back to the pool
+	 * when they return, see releaseFrame(). The pool is a stack owned by the interpreter, which
+	 * only runs on one thread. */
+	Environment newFrame(Function function) {
+		FrameLayout layout = layoutOf(function);
+		if (layout != null && !layout.escapes && pooledFrames > 0) {
+			Environment frame = framePool[--pooledFrames];
+			framePool[pooledFrames] = null;
+			frame.reuse(function.closure);
+			return frame;
+		}
+
+		counters.environments++;
+		recordAllocation(AllocationProfiler.Kind.ENVIRONMENT);
+		return new Environment(function.closure);
+	}
+
+	/* releaseFrame: give back @frame, in which a call of @function returned */
+	void releaseFrame(Function function, Environment frame) {
+		FrameLayout layout = function.layout;
+		if (layout != null && !layout.escapes && pooledFrames < MAX_POOLED_FRAMES) {
+			framePool[pooledFrames++] = frame;
+		}
+	}
+
+	/* popFrame: back to the registers of the caller, whose frame started at @callerBase and ended
+	 * at @callerTop */
+	void popFrame(int callerBase, int callerTop) {
+		Arrays.fill(registers, callerTop, top, null);
+		base = callerBase;
+		top = callerTop;
+	}
+
+	int frameBase() {
+		return base;
+	}
+
+	int frameTop() {
+		return top;
+	}
+
+	/* distance: number of Environments between @expr and the variable it uses, which lives in one */
+	private int distance(Expr expr) {
+		return registerFrames ? -1 - places.get(expr) : locals.get(expr);
+	}
+
+	/* declare: define @name, declared by @site, in the running scope or its register */
+	private void declare(Object site, Token name, Object value) {
+		Integer place = registerFrames ? places.get(site) : null;
+		if (place != null && place >= 0) {
+			registers[base + place] = value;
+		}
+		else {
+			environment.define(name, value);
+		}
+	}
+
+	/* depthOf: number of scopes between @expr and the variable it refers to, null for globals */
+	Integer depthOf(Expr expr) {
+		return locals.get(expr);
+	}
 	
 	Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
+		Integer distance = registerFrames ? Integer.valueOf(distance(expr)) : locals.get(expr);
 		
 		if (distance == null) {
 			return environment.get(name);
@@ -108,6 +362,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 	
 	void executeBlock(Stmt.Block block, Environment env) {
+		Environment previous = this.environment;
 		this.environment = env;
 		
 		try {
@@ -116,10 +371,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 		}
 		finally {
-			this.environment = env.outerEnv;
+			this.environment = previous;
 		}
 	}
 	
+	/* executeBody: run the body of a function in @frame, return the value it returns */
+	Object executeBody(Stmt.Block body, Environment frame) {
+		try {
+			executeBlock(body, frame);
+		}
+		catch (ReturnValue valueWrapper) {
+			return valueWrapper.value;
+		}
+		return null;
+	}
+
 	/* Implement Visitor interface for Expr types */
 	public Object visitLiteral(Expr.Literal expr) {
 		return expr.litValue;
@@ -128,12 +394,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Object visitVariable(Expr.Variable expr) {
 		//return environment.get(expr.name);
 
+		if (registerFrames) {
+			Integer place = places.get(expr);
+			if (place == null) {
+				return cellOf(expr, expr.name).get(expr.name);
+			}
+			if (place >= 0) {
+				return registers[base + place];
+			}
+			return environment.ancestor(-1 - place).get(expr.name);
+		}
+
 		Integer depth = locals.get(expr);
 		if (depth == null) {
-			return global.get(expr.name);
+			return cellOf(expr, expr.name).get(expr.name);
 		}
 		return environment.ancestor(depth).get(expr.name);
 	}
+
+	/* cellOf: cell of the global @name that @expr uses, linking @expr to it on its first use */
+	private Globals.Cell cellOf(Expr expr, Token name) {
+		Globals.Cell cell = globalCells.get(expr);
+		if (cell == null) {
+			cell = globals.cell(name.lexeme);
+			globalCells.put(expr, cell);
+		}
+		return cell;
+	}
 	
 	public Object visitUnary(Expr.Unary expr) {
 		Object rightVal = evaluate(expr.exp);
@@ -141,7 +428,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		switch (expr.op.type) {
 		case MINUS:
 			checkNumberOperand(expr.op, rightVal);
-			return 0 - (double) rightVal;
+			return number(0 - (double) rightVal);
 		}
 		
 		return !truthVal(rightVal);
@@ -172,45 +459,49 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		/* Evaluate expressions in which both sides need to be evaluated. */
 		
 		Object rightVal = evaluate(expr.right);
-		
-		switch (expr.op.type) {
+		return binaryValue(expr.op, leftVal, rightVal);
+	}
+
+	/* binaryValue: result of the operator @op, other than 'and' and 'or', applied to values */
+	Object binaryValue(Token op, Object leftVal, Object rightVal) {
+		switch (op.type) {
 		case PLUS:
 			if (leftVal instanceof Double && rightVal instanceof Double) {
-				return (double) leftVal + (double) rightVal;
+				return number((double) leftVal + (double) rightVal);
 			}
 			
 			if (leftVal instanceof String && rightVal instanceof String) {
 				return (String) leftVal + (String) rightVal;
 			}
 
-			throw new RuntimeError(expr.op, "Both operands must be either strings or numerics");
+			throw new RuntimeError(op, "Both operands must be either strings or numerics");
 		case MINUS:
-			checkNumberOperands(expr.op, leftVal, rightVal);
-			return (double) leftVal - (double) rightVal;
+			checkNumberOperands(op, leftVal, rightVal);
+			return number((double) leftVal - (double) rightVal);
 		case STAR:
-			checkNumberOperands(expr.op, leftVal, rightVal);
-			return (double) leftVal * (double) rightVal;
+			checkNumberOperands(op, leftVal, rightVal);
+			return number((double) leftVal * (double) rightVal);
 		case SLASH:
-			checkNumberOperands(expr.op, leftVal, rightVal);
-			return (double) leftVal / (double) rightVal;
+			checkNumberOperands(op, leftVal, rightVal);
+			return number((double) leftVal / (double) rightVal);
 		case MOD:
-			checkNumberOperands(expr.op, leftVal, rightVal);
-			return (double) leftVal % (double) rightVal;
+			checkNumberOperands(op, leftVal, rightVal);
+			return number((double) leftVal % (double) rightVal);
 		case EQ:
 			return isEqual(leftVal, rightVal);
 		case DIFF:
 			return !isEqual(leftVal, rightVal);
 		case LT:
-			checkNumberOperands(expr.op, leftVal, rightVal);
+			checkNumberOperands(op, leftVal, rightVal);
 			return (double) leftVal < (double) rightVal;
 		case GT:
-			checkNumberOperands(expr.op, leftVal, rightVal);
+			checkNumberOperands(op, leftVal, rightVal);
 			return (double) leftVal > (double) rightVal;
 		case LT_EQ:
-			checkNumberOperands(expr.op, leftVal, rightVal);
+			checkNumberOperands(op, leftVal, rightVal);
 			return (double) leftVal >= (double) rightVal;
 		case GT_EQ:
-			checkNumberOperands(expr.op, leftVal, rightVal);
+			checkNumberOperands(op, leftVal, rightVal);
 			return (double) leftVal <=(double) rightVal;
 		case COMMA:
 			return rightVal;
@@ -239,38 +530,42 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		Object value = evaluate(expr.value);
 
 		Integer depth = locals.get(expr);
+		int register = -1;
+		if (registerFrames) {
+			Integer place = places.get(expr);
+			depth = (place == null || place >= 0) ? null : -1 - place;
+			register = (place == null || place < 0) ? -1 : base + place;
+		}
 
 		/* Evaluate new value of variable */
+		Globals.Cell cell = null;
 		Object currentVal;
-		if (depth == null) {
-			currentVal = global.get(name);
+		if (register >= 0) {
+			/* Same check as Environment.getAt() */
+			currentVal = registers[register];
+			if (currentVal == null) {
+				throw new RuntimeError(name, "Undefined identifier.");
+			}
+		}
+		else if (depth == null) {
+			cell = cellOf(expr, name);
+			currentVal = cell.get(name);
 		}
 		else {
 			currentVal = environment.getAt(depth, name);
 		}
 
-		switch (expr.op.type) {
-		case ASGN:
+		if (expr.op.type == TokenType.ASGN) {
 			currentVal = value;
-			break;
-		case INC_ASGN:
-			if (value instanceof String && currentVal instanceof String) {
-				currentVal = (String) currentVal + (String) value;
-			}
-			else if (value instanceof Double && currentVal instanceof Double) {
-				currentVal = (double) currentVal + (double) value;
-			}
-			else {
-				throw new RuntimeError(expr.op, "Both operands must be either strings or numerics.");				
-			}		
-			break;
-		case DEC_ASGN:
-			checkNumberOperands(expr.op, value, currentVal);
-			currentVal = (double) currentVal - (double) value;
+		}
+		else {
+			currentVal = compoundValue(expr.op, currentVal, value);
 		}
 
-		if (depth == null)
-			global.assign(name, currentVal);
+		if (register >= 0)
+			registers[register] = currentVal;
+		else if (depth == null)
+			cell.value = currentVal;
 		else
 			environment.assignAt(depth, name, currentVal);
 		
@@ -285,20 +580,50 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 		
 		/* Evaluate each expression argument */
+		recordAllocation(AllocationProfiler.Kind.ARGUMENTS);
 		List<Object> arguments = new ArrayList<>();
 		for (Expr arg : call.args) {
 			arguments.add(evaluate(arg));
 		}
-		
-		Callable function = (Callable) callee;
+
+		CallCache site = callSites.get(call);
+		if (site == null) {
+			site = new CallCache(call.paren);
+			callSites.put(call, site);
+		}
+		return site.call(this, (Callable) callee, arguments);
+	}
+
+	/* callValue: call @function with evaluated @arguments, errors are reported at @paren */
+	Object callValue(Token paren, Callable function, List<Object> arguments) {
+		counters.calls++;
 		
 		/* Validate number of arguments */
 		if (function.arity() != arguments.size()) {
 			String message = "Expect " + function.arity() + " arguments but found " + arguments.size() + " arguments.";
-			throw new RuntimeError(call.paren, message);
+			throw new RuntimeError(paren, message);
 		}
 		
-		return function.call(this, arguments);
+		/* Functions and classes report to the profiler themselves */
+		Profiler profiler = this.profiler;
+		if (profiler != null && !(function instanceof Function || function instanceof LoxClass)) {
+			profiler.enter(function);
+		}
+		else {
+			profiler = null;
+		}
+
+		try {
+			return function.call(this, arguments);
+		}
+		catch (NativeError error) {
+			throw new RuntimeError(paren, error.getMessage());
+		}
+		finally {
+			if (profiler != null) {
+				profiler.exit();
+			}
+		}
 	}
 	
 	public Object visitGet(Expr.Get expr) {
@@ -307,7 +632,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			 throw new RuntimeError(expr.field, "Invalid field access.");
 		}
 		 
-		return ((Instance) object).get(expr.field);
+		return ((Instance) object).get(this, expr.field);
 	}
 
 	public Object visitThis(Expr.This expr) {
@@ -324,6 +649,100 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return value;
 	}
 
+	public Object visitArrayLiteral(Expr.ArrayLiteral expr) {
+		LoxArray array = new LoxArray(expr.elements.size());
+		for (Expr element : expr.elements) {
+			array.push(evaluate(element));
+		}
+		return array;
+	}
+
+	/* checkIndex: validate that @index is an integer within the bounds of @array */
+	static int checkIndex(Token bracket, LoxArray array, Object index) {
+		if (!(index instanceof Double) || (double) index != Math.floor((double) index)) {
+			throw new RuntimeError(bracket, "Array index must be an integer.");
+		}
+
+		double value = (double) index;
+		if (value < 0 || value >= array.size()) {
+			throw new RuntimeError(bracket, "Array index out of bounds.");
+		}
+		return (int) value;
+	}
+
+	/* putEntry: bind @key to @value in @map, reporting at @bracket a map that is full or cannot
+	 * grow */
+	static void putEntry(Token bracket, LoxMap map, Object key, Object value) {
+		boolean put;
+		try {
+			put = map.put(key, value);
+		}
+		catch (OutOfMemoryError error) {
+			throw new RuntimeError(bracket, "Map cannot grow past " + map.size() + " entries.");
+		}
+		if (!put) {
+			throw new RuntimeError(bracket, "Map is full.");
+		}
+	}
+
+	public Object visitIndex(Expr.Index expr) {
+		Object object = evaluate(expr.object);
+		Object index = evaluate(expr.index);
+
+		if (object instanceof LoxMap) {
+			return ((LoxMap) object).get(index);
+		}
+		if (!(object instanceof LoxArray)) {
+			throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+		}
+
+		LoxArray array = (LoxArray) object;
+		return array.get(checkIndex(expr.bracket, array, index));
+	}
+
+	public Object visitIndexSet(Expr.IndexSet expr) {
+		Object object = evaluate(expr.object);
+		Object index = evaluate(expr.index);
+		Object value = evaluate(expr.value);
+
+		if (object instanceof LoxMap) {
+			LoxMap map = (LoxMap) object;
+			if (expr.op.type != TokenType.ASGN) {
+				value = compoundValue(expr.op, map.get(index), value);
+			}
+			putEntry(expr.bracket, map, index, value);
+			return value;
+		}
+		if (!(object instanceof LoxArray)) {
+			throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+		}
+
+		LoxArray array = (LoxArray) object;
+		int position = checkIndex(expr.bracket, array, index);
+		if (expr.op.type != TokenType.ASGN) {
+			value = compoundValue(expr.op, array.get(position), value);
+		}
+
+		array.set(position, value);
+		return value;
+	}
+
+	/* compoundValue: new value of a variable or element updated with '+=' or '-=' */
+	Object compoundValue(Token op, Object current, Object value) {
+		if (op.type == TokenType.INC_ASGN) {
+			if (value instanceof String && current instanceof String) {
+				return (String) current + (String) value;
+			}
+			if (value instanceof Double && current instanceof Double) {
+				return number((double) current + (double) value);
+			}
+			throw new RuntimeError(op, "Both operands must be either strings or numerics.");
+		}
+
+		checkNumberOperands(op, value, current);
+		return number((double) current - (double) value);
+	}
+
 	public Object visitFunction(Expr.Function expr) {
 		Stmt.FuncStmt declaration = new Stmt.FuncStmt(null, expr.body, expr.args);
 		return new Function(declaration, environment);
@@ -333,24 +752,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	
 	public Void visitExpression(Stmt.Expression stmt) {
 		Object val = evaluate(stmt.expression);
-		if (Lox.consoleMode() && environment.outerEnv == null) {
-			System.out.println(stringify(val));
+		if (Lox.echoes(stmt)) {
+			out.println(val);
 		}
 		return null;
 	}
 	
 	public Void visitPrint(Stmt.Print stmt) {
 		Object exprVal = evaluate(stmt.expression);
-		System.out.println(stringify(exprVal));
+		out.println(exprVal);
 		return null;
 	}
 	
 	public Void visitVarStmt(Stmt.VarStmt stmt) {
-		environment.define(stmt.identifier, evaluate(stmt.init));
+		declare(stmt, stmt.identifier, evaluate(stmt.init));
 		return null;
 	}
 
 	public Void visitBlock(Stmt.Block block) {
+		if (registerFrames ? !scopedBlocks.contains(block) : bareBlocks.contains(block)) {
+			/* Its locals, if any, are in registers */
+			for (Stmt statement : block.statements) {
+				execute(statement);
+			}
+			return null;
+		}
+		counters.environments++;
+		recordAllocation(AllocationProfiler.Kind.ENVIRONMENT);
 		executeBlock(block, new Environment(this.environment));
 		return null;
 	}
@@ -365,7 +793,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitWhile(Stmt.While whileStmt) {
-		while (truthVal(evaluate(whileStmt.expr))) {
+		Jit jit = this.jit;
+		Jit.Loop loop = (jit == null) ? null : jit.loop(whileStmt);
+		for (;;) {
+			/* Before every iteration, as the loop may have got hot while running */
+			if (jit != null) {
+				Object completion = jit.enter(this, loop, whileStmt, environment);
+				if (completion != Jit.INTERPRET) {
+					if (completion != null) {
+						throw (ReturnValue) completion;
+					}
+					break;
+				}
+			}
+			if (!truthVal(evaluate(whileStmt.expr))) {
+				break;
+			}
+			if (jit != null) {
+				jit.backEdge(loop);
+			}
 			try {
 				execute(whileStmt.body);
 				
@@ -386,7 +832,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitFuncStmt(Stmt.FuncStmt funcStmt) {
-		environment.define(funcStmt.name, new Function(funcStmt, environment));
+		declare(funcStmt, funcStmt.name, new Function(funcStmt, environment));
 		return null;
 	}
 	
@@ -414,10 +860,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 		}
 
-		environment.define(stmt.name, null);
+		declare(stmt, stmt.name, null);
 		
 		if (superclass != null) {
 			/* Create a closure for each method in the inherited class */
+			counters.environments++;
+			recordAllocation(AllocationProfiler.Kind.ENVIRONMENT);
 			environment = new Environment(environment);
 			environment.define("super", superclass);
 		}
@@ -432,13 +880,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			environment = environment.outerEnv;
 		
 		LoxClass classObj = new LoxClass(stmt.name.lexeme, methodMap, (LoxClass) superclass);
-		environment.assign(stmt.name, classObj);
+		Integer place = registerFrames ? places.get(stmt) : null;
+		if (place != null && place >= 0) {
+			registers[base + place] = classObj;
+		}
+		else {
+			environment.assign(stmt.name, classObj);
+		}
 
 		return null;
 	}
 	
 	public Object visitSuper(Expr.Super expr) {
-		int spDistance = locals.get(expr);
+		int spDistance = distance(expr);
 		LoxClass superclass = (LoxClass) environment.getAt(spDistance, expr.keyword);
 		Instance instance = (Instance) environment.getAt(spDistance - 1, "this");
 		Function method = superclass.findMethod(expr.method.lexeme);
@@ -446,6 +900,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			throw new RuntimeError(expr.keyword, "The superclass does not own method '"
 									+ expr.method.lexeme + "'.");
 		}
+		counters.environments++;
+		recordAllocation(AllocationProfiler.Kind.BOUND_METHOD);
 		return method.bind(instance);
 	}
 }
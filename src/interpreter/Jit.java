@@ -0,0 +1,1726 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import interpreter.ClassWriter.Label;
+import interpreter.ClassWriter.MethodWriter;
+
+/* Jit: compiler of hot Lox functions to JVM bytecode, for --jit
+ *
+ * Every Function counts its calls and the loop iterations run in its body, whichever engine runs
+ * it. Once the count reaches the threshold, the body is compiled into a hidden class extending
+ * Code, whose call() runs the whole function: variables live in JVM locals instead of an
+ * Environment, and a variable that only ever holds numbers, as far as the compiler can tell, is
+ * kept in an unboxed double. Parameters are typed by feedback: one that was only passed numbers
+ * so far is unboxed on entry. A call passing anything else fails the guard in accepts(): it runs
+ * in the interpreter, and the function is compiled again later with the parameter boxed.
+ *
+ * Loops are compiled the same way, once their iterations reach the threshold, counted over every
+ * time they ran. Engines offer a loop to enter() before each of its iterations, so that a loop
+ * which got hot while running, like the main loop of a script, switches to compiled code at its
+ * next iteration: the variables of its body are dead there, and those declared around it are
+ * found in the Environment. The compiled loop runs until its condition is false or a 'return'
+ * completes it. Variables declared around the loop are loaded into JVM locals on entry and
+ * written back on exit, when no closure can reach their scope (see Environment.capture()),
+ * unboxed if they held a number when the loop was compiled. Entry is guarded on these
+ * assumptions: when they no longer hold, the loop runs in the interpreter, and is compiled again
+ * later with the variables that broke them boxed.
+ *
+ * Execution is tiered: functions and loops start in the engine, and the analysis of a hot one
+ * runs on the interpreter's thread, but its class is generated and defined on a pool of compiler
+ * threads while the engine keeps running it; the first call or iteration finding the compilation
+ * done installs the code (see submit()), unless --jit-sync compiles on the interpreter's thread.
+ * Installed code is kept in a CodeCache, whose least recently used code is evicted beyond its
+ * budget: the unit goes back to the engine until it is hot again. With --warm-start, the functions
+ * and loops that got hot in a previous run of the script are compiled on their first call or
+ * iteration, with the feedback that run gathered (see SiteProfile).
+ *
+ * Only functions whose body is made of plain statements and expressions are compiled: a body
+ * declaring a function, a lambda or a class, or using 'super', stays interpreted. The copies of
+ * a method bound to each instance share their State and code, reading 'this' from the closure.
+ * Compiled code counts its statements but does not publish them to the sampler, which
+ * attributes the time to the function's declaration line instead.
+ *
+ * Each call of compiled code goes through its own LoxCallSite, whose dynamic invoker the class
+ * keeps in a static final field: the JVM treats it as a constant, so a function the site is
+ * linked to can be inlined into the caller. Classes are written in a version that predates
+ * invokedynamic, so <clinit> takes the invokers from linking() instead of a bootstrap method.
+ *
+ * The CodeCache owns installed code: it references every Code it holds, and each Code its unit,
+ * until the code is evicted or deoptimized, even once the Function or loop it was compiled for
+ * is unreachable. The hidden class can then be unloaded, after the calls running it returned,
+ * as the unit's reference is dropped along with the cache's. */
+final class Jit {
+	static final int DEFAULT_THRESHOLD = 1000;
+
+	/* Compilations of one function, beyond which it stays interpreted */
+	private static final int MAX_COMPILATIONS = 4;
+
+	/* Bytecode size beyond which HotSpot would not compile the method anyway */
+	private static final int MAX_CODE_SIZE = 8000;
+
+	private final int threshold;
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	/* Whether compilations run on the interpreter's thread, which waits for them */
+	private final boolean synchronous;
+
+	private final CodeCache cache;
+
+	/* Functions and loops that got hot in previous runs, null unless --warm-start */
+	private final SiteProfile profile;
+
+	/* Invokers of the call sites of the class being initialized on this thread */
+	private static final ThreadLocal<MethodHandle[]> LINKING = new ThreadLocal<>();
+
+	/* running: function executing in the interpreter on this interpreter's thread, if any */
+	Function running = null;
+
+	/* Loops seen by the interpreter, see loop() */
+	private final Map<Stmt.While, Loop> loops = new IdentityHashMap<>();
+
+	/* Ticks of the uses of compiled code, which order the code cache's entries */
+	private long uses = 0;
+
+	/* Statistics of --tier-stats, for functions and loops */
+	private final Tier functions = new Tier();
+	private final Tier loopTier = new Tier();
+
+	/* Time spent generating and defining classes, on whichever thread did it */
+	private final AtomicLong compileNanos = new AtomicLong();
+
+	/* INTERPRET: completion of enter() when the loop has to be run by the interpreter */
+	static final Object INTERPRET = new Object();
+
+	Jit(int threshold, long cacheBudget, boolean synchronous, SiteProfile profile) {
+		this.threshold = threshold;
+		this.cache = new CodeCache(cacheBudget);
+		this.synchronous = synchronous;
+		this.profile = profile;
+	}
+
+	/* Compiler threads, shared by the interpreters of the process */
+	private static final class Pool {
+		static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2), task -> {
+					Thread thread = new Thread(task, "jit-compiler");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/* Unit: function or loop that the Jit counts and compiles */
+	abstract static class Unit {
+		int hotness = 0;
+		int compilations = 0;
+		boolean rejected = false;
+		Code code = null;
+
+		/* Compilation submitted and not installed yet */
+		Future<Code> pending = null;
+	}
+
+	/* State: what the Jit knows about one Function */
+	static final class State extends Unit {
+		/* Parameters that were passed something else than a number */
+		final boolean[] boxed;
+
+		State(int arity) {
+			boxed = new boolean[arity];
+		}
+	}
+
+	/* Loop: what the Jit knows about one while loop */
+	static final class Loop extends Unit {
+		/* Variables of the code's JVM locals: distance of their scope, name, whether unboxed */
+		int[] distances;
+		String[] names;
+		boolean[] numbers;
+
+		/* Variables, as "distance:name", that held something else than a number on entry */
+		final Set<String> boxed = new HashSet<>();
+
+		/* accepts: whether the variables of @env are as the code assumes, recording those that are not */
+		boolean accepts(Environment env) {
+			boolean accepted = true;
+			for (int i = 0; i < names.length; i++) {
+				Environment scope = env.ancestor(distances[i]);
+				if (scope.captured || !scope.values.containsKey(names[i])) {
+					accepted = false;
+				}
+				else if (numbers[i] && !(scope.values.get(names[i]) instanceof Double)) {
+					boxed.add(distances[i] + ":" + names[i]);
+					accepted = false;
+				}
+			}
+			return accepted;
+		}
+	}
+
+	/* Code: compiled function or loop, base class of the hidden classes */
+	abstract static class Code {
+		final Object[] constants;
+
+		/* Parameters passed unboxed, set once the class is defined */
+		boolean[] numbers;
+
+		/* Size of the class file, what the code cache accounts for */
+		int size;
+
+		/* Unit the code is installed for, and tick of its last use */
+		Unit unit;
+		long lastUse;
+
+		Code(Object[] constants) {
+			this.constants = constants;
+		}
+
+		boolean accepts(List<Object> args) {
+			for (int i = 0; i < numbers.length; i++) {
+				if (numbers[i] && !(args.get(i) instanceof Double)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		abstract Object call(Interpreter interpreter, Environment closure, List<Object> args);
+	}
+
+	/* Tier: what happened to the functions or the loops */
+	private static final class Tier {
+		long seen;
+		long submitted;
+		long installed;
+		long rejected;
+		long deoptimized;
+		long evicted;
+	}
+
+	/* codeFor: compiled code to run @function with @args, null to interpret the call */
+	Code codeFor(Interpreter interpreter, Function function, List<Object> args) {
+		State state = function.jitState;
+		if (state == null) {
+			state = new State(function.arity());
+			function.jitState = state;
+		}
+		if (state.compilations == 0 && state.hotness == 0) {
+			/* First call, of the function or of any copy of the method */
+			functions.seen++;
+			warm(state, (profile == null) ? null : profile.hotFunction(function.declaration.body));
+		}
+
+		Code code = (state.pending != null) ? install(state) : state.code;
+		boolean deoptimized = false;
+		if (code != null) {
+			if (code.accepts(args)) {
+				code.lastUse = ++uses;
+				return code;
+			}
+			/* Guard failed: back to the interpreter until the function is hot again */
+			deoptimize(state);
+			deoptimized = true;
+		}
+		if (state.rejected) {
+			return null;
+		}
+
+		for (int i = 0; i < state.boxed.length; i++) {
+			if (!(args.get(i) instanceof Double)) {
+				state.boxed[i] = true;
+			}
+		}
+		if (deoptimized && profile != null) {
+			profile.recordFunction(function.declaration.body, state.boxed);
+		}
+
+		if (++state.hotness < threshold || state.pending != null) {
+			return null;
+		}
+		if (state.compilations++ == MAX_COMPILATIONS) {
+			state.rejected = true;
+			functions.rejected++;
+			return null;
+		}
+
+		code = submit(state, new Compiler(interpreter, function.declaration, state.boxed));
+		if (profile != null && !state.rejected) {
+			profile.recordFunction(function.declaration.body, state.boxed);
+		}
+		if (code != null) {
+			code.lastUse = ++uses;
+		}
+		return code;
+	}
+
+	/* loop: state of @stmt, which engines look up once per execution of the loop or node */
+	Loop loop(Stmt.While stmt) {
+		Loop loop = loops.get(stmt);
+		if (loop == null) {
+			loop = new Loop();
+			loops.put(stmt, loop);
+			loopTier.seen++;
+			Set<String> boxed = (profile == null) ? null : profile.hotLoop(stmt);
+			if (boxed != null) {
+				loop.boxed.addAll(boxed);
+				loop.hotness = threshold;
+			}
+		}
+		return loop;
+	}
+
+	/* enter: run @stmt in compiled code from its condition, in @env, be it before its first
+	 * iteration or one after that
+	 *
+	 * Gives the completion of the loop, null or a ReturnValue, or INTERPRET when the loop is not
+	 * compiled or its guard failed, in which case nothing ran. */
+	Object enter(Interpreter interpreter, Loop loop, Stmt.While stmt, Environment env) {
+		Code code = (loop.pending != null) ? install(loop) : loop.code;
+		if (code != null && !loop.accepts(env)) {
+			/* Guard failed: back to the interpreter until the loop is hot again */
+			deoptimize(loop);
+			code = null;
+			if (profile != null) {
+				profile.recordLoop(stmt, loop.boxed);
+			}
+		}
+
+		if (code == null) {
+			if (loop.rejected || loop.pending != null || loop.hotness < threshold) {
+				return INTERPRET;
+			}
+			if (loop.compilations++ == MAX_COMPILATIONS) {
+				loop.rejected = true;
+				loopTier.rejected++;
+				return INTERPRET;
+			}
+
+			Compiler compiler = new Compiler(interpreter, stmt, env, loop.boxed);
+			code = submit(loop, compiler);
+			if (profile != null && !loop.rejected) {
+				profile.recordLoop(stmt, loop.boxed);
+			}
+			if (code == null) {
+				return INTERPRET;
+			}
+		}
+		code.lastUse = ++uses;
+		return code.call(interpreter, env, null);
+	}
+
+	/* warm: make @state hot right away, when a previous run found its parameters @boxed */
+	private void warm(State state, boolean[] boxed) {
+		if (boxed != null && boxed.length == state.boxed.length) {
+			System.arraycopy(boxed, 0, state.boxed, 0, boxed.length);
+			state.hotness = threshold - 1;
+		}
+	}
+
+	/* backEdge: one iteration of @loop, also one of a loop of the running function */
+	void backEdge(Loop loop) {
+		loop.hotness++;
+		Function function = running;
+		if (function != null && function.jitState != null) {
+			function.jitState.hotness++;
+		}
+	}
+
+	/* submit: compile @unit, the code when it could be installed right away
+	 *
+	 * The analysis runs on the interpreter's thread, as it looks up the resolver's depths and
+	 * the variables around a loop, which the interpreter keeps changing. Generating and defining
+	 * the class, most of the work, runs on the compiler threads unless compilations are
+	 * synchronous; the code is installed by the first call or iteration that finds it done. */
+	private Code submit(Unit unit, Compiler compiler) {
+		Tier tier = tierOf(unit);
+		if (!compiler.prepare()) {
+			unit.rejected = true;
+			tier.rejected++;
+			return null;
+		}
+
+		if (unit instanceof Loop) {
+			Loop loop = (Loop) unit;
+			int count = compiler.promoted.size();
+			loop.distances = new int[count];
+			loop.names = new String[count];
+			loop.numbers = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				Slot slot = compiler.promoted.get(i);
+				loop.distances[i] = slot.distance;
+				loop.names[i] = slot.name;
+				loop.numbers[i] = slot.number;
+			}
+		}
+
+		tier.submitted++;
+		FutureTask<Code> task = new FutureTask<>(() -> compile(compiler));
+		unit.pending = task;
+		if (synchronous) {
+			task.run();
+			return install(unit);
+		}
+		Pool.EXECUTOR.execute(task);
+		return null;
+	}
+
+	/* install: the code of the pending compilation of @unit if it is done, or its current code */
+	private Code install(Unit unit) {
+		Future<Code> pending = unit.pending;
+		if (!pending.isDone()) {
+			return unit.code;
+		}
+
+		unit.pending = null;
+		Code code;
+		try {
+			code = pending.get();
+		}
+		catch (InterruptedException | ExecutionException exp) {
+			code = null;
+		}
+
+		Tier tier = tierOf(unit);
+		if (code == null) {
+			unit.rejected = true;
+			tier.rejected++;
+			return null;
+		}
+		tier.installed++;
+		code.unit = unit;
+		unit.code = code;
+		for (Code evicted : cache.add(code)) {
+			/* Compiled again once hot again, if it has compilations left */
+			evicted.unit.code = null;
+			evicted.unit.hotness = 0;
+			tierOf(evicted.unit).evicted++;
+		}
+		return code;
+	}
+
+	private void deoptimize(Unit unit) {
+		cache.remove(unit.code);
+		unit.code = null;
+		unit.hotness = 0;
+		tierOf(unit).deoptimized++;
+	}
+
+	private Tier tierOf(Unit unit) {
+		return (unit instanceof Loop) ? loopTier : functions;
+	}
+
+	/* compile: code of the function or loop that @compiler analyzed, or null when it cannot be
+	 * compiled */
+	private Code compile(Compiler compiler) {
+		long start = System.nanoTime();
+		try {
+			byte[] bytes = compiler.emit();
+			if (bytes == null) {
+				return null;
+			}
+
+			MethodHandle[] invokers = new MethodHandle[compiler.sites.size()];
+			for (int i = 0; i < invokers.length; i++) {
+				invokers[i] = compiler.sites.get(i).dynamicInvoker();
+			}
+
+			LINKING.set(invokers);
+			MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+			Code code = (Code) hidden.lookupClass().getDeclaredConstructor(Object[].class)
+					.newInstance((Object) compiler.constants.toArray());
+			code.numbers = compiler.numbers;
+			code.size = bytes.length;
+			return code;
+		}
+		catch (ReflectiveOperationException | LinkageError | RuntimeException exp) {
+			return null;
+		}
+		finally {
+			LINKING.remove();
+			compileNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/* linking: invokers of the call sites, for <clinit> of the class being instantiated */
+	static MethodHandle[] linking() {
+		return LINKING.get();
+	}
+
+	/* report: statistics of the tiers, for --tier-stats */
+	void report(PrintStream out) {
+		out.printf(Locale.ROOT, "%-12s %10s %10s %10s %10s %12s %10s%n", "tier", "seen", "submitted", "installed",
+				"rejected", "deoptimized", "evicted");
+		report(out, "functions", functions);
+		report(out, "loops", loopTier);
+		out.printf(Locale.ROOT, "code cache: %d classes, %.1f KB of %.1f KB, peak %.1f KB%n", cache.count(),
+				cache.size() / 1024.0, cache.budget() / 1024.0, cache.peak() / 1024.0);
+		out.printf(Locale.ROOT, "compilation: %.3f ms, %s%n", compileNanos.get() / 1e6,
+				synchronous ? "on the interpreter's thread" : "in the background");
+		out.flush();
+	}
+
+	private static void report(PrintStream out, String name, Tier tier) {
+		out.printf(Locale.ROOT, "%-12s %10d %10d %10d %10d %12d %10d%n", name, tier.seen, tier.submitted,
+				tier.installed, tier.rejected, tier.deoptimized, tier.evicted);
+	}
+
+	/* Runtime entry points of compiled code */
+
+	static Object global(Globals.Cell cell, Token name) {
+		return cell.get(name);
+	}
+
+	static Object read(Environment closure, int distance, Token name) {
+		return closure.ancestor(distance).get(name);
+	}
+
+	/* assign: '=' to a boxed local, which like Environment.getAt() rejects a nil variable */
+	static Object assign(Object value, Object current, Token name) {
+		if (current == null) {
+			throw new RuntimeError(name, "Undefined identifier.");
+		}
+		return value;
+	}
+
+	static Object compound(Interpreter interpreter, Object value, Object current, Token op, Token name) {
+		if (current == null) {
+			throw new RuntimeError(name, "Undefined identifier.");
+		}
+		return interpreter.compoundValue(op, current, value);
+	}
+
+	/* assignOuter: assignment to a variable of the function's closure, as visitAssign() */
+	static Object assignOuter(Interpreter interpreter, Object value, Environment closure, int distance,
+			Token op, Token name) {
+		Object current = closure.getAt(distance, name);
+		if (op.type != TokenType.ASGN) {
+			value = interpreter.compoundValue(op, current, value);
+		}
+		closure.assignAt(distance, name, value);
+		return value;
+	}
+
+	static Object assignGlobal(Interpreter interpreter, Object value, Globals.Cell cell, Token op, Token name) {
+		Object current = cell.get(name);
+		if (op.type != TokenType.ASGN) {
+			value = interpreter.compoundValue(op, current, value);
+		}
+		cell.value = value;
+		return value;
+	}
+
+	/* promoted: value of a variable declared around a loop, loaded on entry */
+	static Object promoted(Environment env, int distance, String name) {
+		return env.ancestor(distance).values.get(name);
+	}
+
+	/* writeBack: value of a variable declared around a loop, stored on exit */
+	static void writeBack(Environment env, int distance, String name, Object value) {
+		env.ancestor(distance).values.put(name, value);
+	}
+
+	static ReturnValue returned(Object value) {
+		return new ReturnValue(value);
+	}
+
+	static Callable callee(Object callee, Token paren) {
+		if (!(callee instanceof Callable)) {
+			throw new RuntimeError(paren, "The expression before '(' is not callable.");
+		}
+		return (Callable) callee;
+	}
+
+	static Object get(Interpreter interpreter, Object object, Token field) {
+		if (!(object instanceof Instance)) {
+			throw new RuntimeError(field, "Invalid field access.");
+		}
+		return ((Instance) object).get(interpreter, field);
+	}
+
+	static Instance instance(Object object, Token field) {
+		if (!(object instanceof Instance)) {
+			throw new RuntimeError(field, "Only objects have properties.");
+		}
+		return (Instance) object;
+	}
+
+	static Object set(Instance instance, Object value, Token field) {
+		instance.set(field, value);
+		return value;
+	}
+
+	static Object index(Object object, Object index, Token bracket) {
+		if (object instanceof LoxMap) {
+			return ((LoxMap) object).get(index);
+		}
+		if (!(object instanceof LoxArray)) {
+			throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+		}
+
+		LoxArray array = (LoxArray) object;
+		return array.get(Interpreter.checkIndex(bracket, array, index));
+	}
+
+	static Object indexSet(Interpreter interpreter, Object object, Object index, Object value, Token bracket,
+			Token op) {
+		if (object instanceof LoxMap) {
+			LoxMap map = (LoxMap) object;
+			if (op.type != TokenType.ASGN) {
+				value = interpreter.compoundValue(op, map.get(index), value);
+			}
+			Interpreter.putEntry(bracket, map, index, value);
+			return value;
+		}
+		if (!(object instanceof LoxArray)) {
+			throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+		}
+
+		LoxArray array = (LoxArray) object;
+		int position = Interpreter.checkIndex(bracket, array, index);
+		if (op.type != TokenType.ASGN) {
+			value = interpreter.compoundValue(op, array.get(position), value);
+		}
+		array.set(position, value);
+		return value;
+	}
+
+	static Object array(Object[] elements) {
+		LoxArray array = new LoxArray(elements.length);
+		for (Object element : elements) {
+			array.push(element);
+		}
+		return array;
+	}
+
+	static void print(Interpreter interpreter, Object value) {
+		interpreter.out.println(value);
+	}
+
+	/* isTrue: condition of a ternary, which only takes the true branch for true itself */
+	static boolean isTrue(Object value) {
+		return Interpreter.isEqual(value, true);
+	}
+
+	/* Rejected: the body uses something the compiler does not support */
+	private static final class Rejected extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Rejected() {
+			super(null, null, false, false);
+		}
+	}
+
+	/* Type: how the value of an expression is held on the JVM stack */
+	private enum Type {
+		NUMBER, BOOLEAN, OBJECT
+	}
+
+	/* Slot: local variable or parameter of the compiled function, or variable around a loop */
+	private static final class Slot {
+		boolean number = true;
+		int index = -1;
+
+		/* Scope of a variable declared around a loop, as its distance from the loop's, and name */
+		int distance = -1;
+		String name = null;
+
+		/* Values stored in the slot: initializers and assignments; null for a parameter */
+		final List<Expr> stores = new ArrayList<>();
+	}
+
+	/* Compiler: analysis and code generation for one function or loop
+	 *
+	 * The analysis maps every variable of the body to a Slot, the closure or the cell of a global,
+	 * rejecting what is not supported. The code of a loop gets the Environment it runs in as its
+	 * closure, and promotes the variables of its scopes that no closure can reach to slots. Types are then inferred: a slot stays a number while every
+	 * value stored in it is a number, assuming the same of the other slots, until nothing changes. */
+	private final class Compiler {
+		private static final String CODE = "interpreter/Jit$Code";
+		private static final String INTERPRETER = "Linterpreter/Interpreter;";
+		private static final String TOKEN = "Linterpreter/Token;";
+		private static final String OBJECT = "Ljava/lang/Object;";
+		private static final String ENVIRONMENT = "Linterpreter/Environment;";
+		private static final String CELL = "Linterpreter/Globals$Cell;";
+		private static final String METHOD_HANDLE = "Ljava/lang/invoke/MethodHandle;";
+
+		/* Locals of call(): this, the interpreter, the closure, the arguments, then ours */
+		private static final int INTERPRETER_LOCAL = 1;
+		private static final int CLOSURE_LOCAL = 2;
+		private static final int ARGS_LOCAL = 3;
+		private static final int CONSTANTS_LOCAL = 4;
+		private static final int COUNTERS_LOCAL = 5;
+		private static final int FIRST_LOCAL = 6;
+
+		private final Interpreter interpreter;
+		private final Stmt.FuncStmt declaration;
+		private final boolean[] boxed;
+		final boolean[] numbers;
+
+		/* Loop compiled instead of a function, the Environment it is compiled in, and the
+		 * variables around it that are not to be unboxed */
+		private final Stmt.While loop;
+		private final Environment env;
+		private final Set<String> boxedNames;
+		final List<Slot> promoted = new ArrayList<>();
+		private final Map<String, Slot> promotions = new HashMap<>();
+
+		final List<Object> constants = new ArrayList<>();
+		final List<LoxCallSite> sites = new ArrayList<>();
+		private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+		private final List<Slot> parameters = new ArrayList<>();
+		private final List<Slot> allSlots = new ArrayList<>();
+		private final Map<Expr, Slot> slots = new IdentityHashMap<>();
+		private final Map<Stmt.VarStmt, Slot> declarations = new IdentityHashMap<>();
+
+		/* Distance in the closure of the variables declared outside the function */
+		private final Map<Expr, Integer> outer = new IdentityHashMap<>();
+
+		/* Scopes of the body during the analysis, the frame of the call first */
+		private final List<Map<String, Slot>> scopes = new ArrayList<>();
+
+		private int nextLocal = FIRST_LOCAL;
+		private String className;
+		private MethodWriter code;
+
+		Compiler(Interpreter interpreter, Stmt.FuncStmt declaration, boolean[] boxed) {
+			this.interpreter = interpreter;
+			this.declaration = declaration;
+			this.boxed = boxed;
+			this.numbers = new boolean[boxed.length];
+			this.loop = null;
+			this.env = null;
+			this.boxedNames = null;
+		}
+
+		Compiler(Interpreter interpreter, Stmt.While loop, Environment env, Set<String> boxedNames) {
+			this.interpreter = interpreter;
+			this.declaration = null;
+			this.boxed = new boolean[0];
+			this.numbers = new boolean[0];
+			this.loop = loop;
+			this.env = env;
+			this.boxedNames = boxedNames;
+		}
+
+		/* prepare: analyze and type the function or loop, false when it cannot be compiled */
+		boolean prepare() {
+			try {
+				analyze();
+				infer();
+				return true;
+			}
+			catch (Rejected rejected) {
+				return false;
+			}
+		}
+
+		/* emit: class file of the prepared function or loop, null when it cannot be compiled */
+		byte[] emit() {
+			try {
+				return generate();
+			}
+			catch (Rejected rejected) {
+				return null;
+			}
+		}
+
+		/* Analysis */
+
+		private void analyze() {
+			if (loop != null) {
+				analyze(loop);
+				return;
+			}
+
+			Map<String, Slot> frame = new HashMap<>();
+			for (int i = 0; i < declaration.argNames.size(); i++) {
+				Slot slot = new Slot();
+				slot.number = !boxed[i];
+				frame.put(declaration.argNames.get(i).lexeme, slot);
+				parameters.add(slot);
+				allSlots.add(slot);
+			}
+
+			scopes.add(frame);
+			analyzeAll(declaration.body.statements);
+			scopes.remove(0);
+		}
+
+		private void analyzeAll(List<Stmt> stmts) {
+			for (Stmt stmt : stmts) {
+				if (stmt instanceof Stmt.VarStmt) {
+					analyzeVar((Stmt.VarStmt) stmt);
+				}
+				else {
+					analyze(stmt);
+				}
+			}
+		}
+
+		/* Declarations are only compiled directly in a block, where they run once per scope */
+		private void analyzeVar(Stmt.VarStmt stmt) {
+			Map<String, Slot> scope = scopes.get(scopes.size() - 1);
+			if (scope.containsKey(stmt.identifier.lexeme)) {
+				throw new Rejected();
+			}
+
+			Slot slot = new Slot();
+			if (stmt.init == null) {
+				slot.number = false;
+			}
+			else {
+				analyze(stmt.init);
+				slot.stores.add(stmt.init);
+			}
+			scope.put(stmt.identifier.lexeme, slot);
+			declarations.put(stmt, slot);
+			allSlots.add(slot);
+		}
+
+		private void analyze(Stmt stmt) {
+			if (stmt == null) {
+				return;
+			}
+
+			if (stmt instanceof Stmt.Expression) {
+				analyze(((Stmt.Expression) stmt).expression);
+			}
+			else if (stmt instanceof Stmt.Print) {
+				analyze(((Stmt.Print) stmt).expression);
+			}
+			else if (stmt instanceof Stmt.Block) {
+				/* A bare block is no scope for the resolver's depths */
+				Stmt.Block block = (Stmt.Block) stmt;
+				if (interpreter.isBare(block)) {
+					analyzeAll(block.statements);
+				}
+				else {
+					scopes.add(new HashMap<>());
+					analyzeAll(block.statements);
+					scopes.remove(scopes.size() - 1);
+				}
+			}
+			else if (stmt instanceof Stmt.Conditional) {
+				Stmt.Conditional conditional = (Stmt.Conditional) stmt;
+				analyze(conditional.expr);
+				analyze(conditional.thenBranch);
+				analyze(conditional.elseBranch);
+			}
+			else if (stmt instanceof Stmt.While) {
+				Stmt.While loop = (Stmt.While) stmt;
+				analyze(loop.expr);
+				analyze(loop.body);
+				if (loop.increment != null) {
+					analyze(loop.increment);
+				}
+			}
+			else if (stmt instanceof Stmt.Return) {
+				Stmt.Return ret = (Stmt.Return) stmt;
+				if (ret.expr != null) {
+					analyze(ret.expr);
+				}
+			}
+			else {
+				throw new Rejected();
+			}
+		}
+
+		private void analyze(Expr expr) {
+			if (expr instanceof Expr.Literal) {
+				return;
+			}
+			if (expr instanceof Expr.Grouping) {
+				analyze(((Expr.Grouping) expr).exp);
+			}
+			else if (expr instanceof Expr.Variable) {
+				bind(expr, ((Expr.Variable) expr).name);
+			}
+			else if (expr instanceof Expr.This) {
+				bind(expr, ((Expr.This) expr).keyword);
+			}
+			else if (expr instanceof Expr.Assign) {
+				Expr.Assign assign = (Expr.Assign) expr;
+				analyze(assign.value);
+				Slot slot = bind(expr, assign.name);
+				if (slot != null) {
+					slot.stores.add(expr);
+				}
+			}
+			else if (expr instanceof Expr.Binary) {
+				analyze(((Expr.Binary) expr).left);
+				analyze(((Expr.Binary) expr).right);
+			}
+			else if (expr instanceof Expr.Ternary) {
+				Expr.Ternary ternary = (Expr.Ternary) expr;
+				analyze(ternary.condition);
+				analyze(ternary.ifTrue);
+				analyze(ternary.ifFalse);
+			}
+			else if (expr instanceof Expr.Call) {
+				analyze(((Expr.Call) expr).callee);
+				analyzeExprs(((Expr.Call) expr).args);
+			}
+			else if (expr instanceof Expr.Get) {
+				analyze(((Expr.Get) expr).object);
+			}
+			else if (expr instanceof Expr.Set) {
+				analyze(((Expr.Set) expr).object);
+				analyze(((Expr.Set) expr).value);
+			}
+			else if (expr instanceof Expr.Index) {
+				analyze(((Expr.Index) expr).object);
+				analyze(((Expr.Index) expr).index);
+			}
+			else if (expr instanceof Expr.IndexSet) {
+				Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+				analyze(indexSet.object);
+				analyze(indexSet.index);
+				analyze(indexSet.value);
+			}
+			else if (expr instanceof Expr.ArrayLiteral) {
+				analyzeExprs(((Expr.ArrayLiteral) expr).elements);
+			}
+			else {
+				throw new Rejected();
+			}
+		}
+
+		private void analyzeExprs(List<Expr> exprs) {
+			for (Expr expr : exprs) {
+				analyze(expr);
+			}
+		}
+
+		/* bind: slot of the variable @name used by @expr, null when it is declared outside */
+		private Slot bind(Expr expr, Token name) {
+			Integer depth = depthOf(expr);
+			if (depth == null) {
+				return null;
+			}
+
+			int nesting = scopes.size() - 1;
+			if (depth > nesting) {
+				Slot slot = (loop == null) ? null : promote(depth - nesting - 1, name);
+				if (slot == null) {
+					outer.put(expr, depth - nesting - 1);
+					return null;
+				}
+				slots.put(expr, slot);
+				return slot;
+			}
+
+			Slot slot = scopes.get(nesting - depth).get(name.lexeme);
+			if (slot == null) {
+				/* Declared by a statement that has not run yet */
+				throw new Rejected();
+			}
+			slots.put(expr, slot);
+			return slot;
+		}
+
+		/* promote: slot of the variable @name of the scope at @distance from the loop's, null
+		 * when a closure may reach the scope, which then has to hold the variable */
+		private Slot promote(int distance, Token name) {
+			Environment scope = env.ancestor(distance);
+			if (scope.captured || !scope.values.containsKey(name.lexeme)) {
+				return null;
+			}
+
+			String key = distance + ":" + name.lexeme;
+			Slot slot = promotions.get(key);
+			if (slot == null) {
+				slot = new Slot();
+				slot.number = scope.values.get(name.lexeme) instanceof Double && !boxedNames.contains(key);
+				slot.distance = distance;
+				slot.name = name.lexeme;
+				promotions.put(key, slot);
+				promoted.add(slot);
+				allSlots.add(slot);
+			}
+			return slot;
+		}
+
+		private Integer depthOf(Expr expr) {
+			return interpreter.depthOf(expr);
+		}
+
+		/* Types */
+
+		private void infer() {
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (Slot slot : allSlots) {
+					if (slot.number && !storesNumbers(slot)) {
+						slot.number = false;
+						changed = true;
+					}
+				}
+			}
+
+			for (int i = 0; i < parameters.size(); i++) {
+				numbers[i] = parameters.get(i).number;
+			}
+		}
+
+		private boolean storesNumbers(Slot slot) {
+			for (Expr store : slot.stores) {
+				Expr value = (store instanceof Expr.Assign) ? ((Expr.Assign) store).value : store;
+				if (typeOf(value) != Type.NUMBER) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Type typeOf(Expr expr) {
+			if (expr instanceof Expr.Literal) {
+				Object value = ((Expr.Literal) expr).litValue;
+				if (value instanceof Double) {
+					return Type.NUMBER;
+				}
+				return (value instanceof Boolean) ? Type.BOOLEAN : Type.OBJECT;
+			}
+			if (expr instanceof Expr.Grouping) {
+				return typeOf(((Expr.Grouping) expr).exp);
+			}
+			if (expr instanceof Expr.Variable || expr instanceof Expr.Assign) {
+				Slot slot = slots.get(expr);
+				return (slot != null && slot.number) ? Type.NUMBER : Type.OBJECT;
+			}
+			if (expr instanceof Expr.Ternary) {
+				Type ifTrue = typeOf(((Expr.Ternary) expr).ifTrue);
+				return (ifTrue == typeOf(((Expr.Ternary) expr).ifFalse)) ? ifTrue : Type.OBJECT;
+			}
+			if (expr instanceof Expr.Binary) {
+				Expr.Binary binary = (Expr.Binary) expr;
+				Type left = typeOf(binary.left);
+				Type right = typeOf(binary.right);
+				switch (binary.op.type) {
+				case COMMA:
+					return right;
+				case AND:
+				case OR:
+					return (left == Type.BOOLEAN && right == Type.BOOLEAN) ? Type.BOOLEAN : Type.OBJECT;
+				case EQ:
+				case DIFF:
+					return Type.BOOLEAN;
+				case PLUS:
+				case MINUS:
+				case STAR:
+				case SLASH:
+				case MOD:
+					return (left == Type.NUMBER && right == Type.NUMBER) ? Type.NUMBER : Type.OBJECT;
+				case LT:
+				case GT:
+				case LT_EQ:
+				case GT_EQ:
+					return (left == Type.NUMBER && right == Type.NUMBER) ? Type.BOOLEAN : Type.OBJECT;
+				default:
+					return Type.OBJECT;
+				}
+			}
+			return Type.OBJECT;
+		}
+
+		/* Code generation */
+
+		private byte[] generate() {
+			for (Slot slot : allSlots) {
+				slot.index = nextLocal;
+				nextLocal += slot.number ? 2 : 1;
+			}
+
+			String name = (loop != null) ? "loop" : (declaration.name == null) ? "lambda" : declaration.name.lexeme;
+			className = "interpreter/Compiled$" + name.replaceAll("[^A-Za-z0-9_]", "_");
+			ClassWriter writer = new ClassWriter(className, CODE);
+
+			MethodWriter init = writer.method(0, "<init>", "([Ljava/lang/Object;)V");
+			init.var(MethodWriter.ALOAD, 0);
+			init.var(MethodWriter.ALOAD, 1);
+			init.invoke(MethodWriter.INVOKESPECIAL, CODE, "<init>", "([Ljava/lang/Object;)V");
+			init.op(MethodWriter.RETURN);
+
+			code = writer.method(0, "call", "(" + INTERPRETER + ENVIRONMENT + "Ljava/util/List;)" + OBJECT);
+			generateBody();
+			if (code.size() > MAX_CODE_SIZE) {
+				return null;
+			}
+
+			MethodWriter clinit = writer.method(ClassWriter.ACC_STATIC, "<clinit>", "()V");
+			clinit.invoke(MethodWriter.INVOKESTATIC, "interpreter/Jit", "linking", "()[" + METHOD_HANDLE);
+			for (int i = 0; i < sites.size(); i++) {
+				writer.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL, "site" + i,
+						METHOD_HANDLE);
+				clinit.op(MethodWriter.DUP);
+				clinit.iconst(i);
+				clinit.op(MethodWriter.AALOAD);
+				clinit.field(MethodWriter.PUTSTATIC, className, "site" + i, METHOD_HANDLE);
+			}
+			clinit.op(MethodWriter.POP);
+			clinit.op(MethodWriter.RETURN);
+			return writer.toByteArray();
+		}
+
+		private void generateBody() {
+			code.var(MethodWriter.ALOAD, 0);
+			code.field(MethodWriter.GETFIELD, CODE, "constants", "[Ljava/lang/Object;");
+			code.var(MethodWriter.ASTORE, CONSTANTS_LOCAL);
+			code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+			code.field(MethodWriter.GETFIELD, "interpreter/Interpreter", "counters", "Linterpreter/Counters;");
+			code.var(MethodWriter.ASTORE, COUNTERS_LOCAL);
+
+			for (int i = 0; i < parameters.size(); i++) {
+				Slot slot = parameters.get(i);
+				code.var(MethodWriter.ALOAD, ARGS_LOCAL);
+				code.iconst(i);
+				code.invoke(MethodWriter.INVOKEINTERFACE, "java/util/List", "get", "(I)" + OBJECT);
+				if (slot.number) {
+					code.type(MethodWriter.CHECKCAST, "java/lang/Double");
+					code.invoke(MethodWriter.INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+					code.var(MethodWriter.DSTORE, slot.index);
+				}
+				else {
+					code.var(MethodWriter.ASTORE, slot.index);
+				}
+			}
+
+			if (loop != null) {
+				for (Slot slot : promoted) {
+					code.var(MethodWriter.ALOAD, CLOSURE_LOCAL);
+					code.iconst(slot.distance);
+					code.sconst(slot.name);
+					runtime("promoted", "(" + ENVIRONMENT + "ILjava/lang/String;)" + OBJECT);
+					if (slot.number) {
+						code.type(MethodWriter.CHECKCAST, "java/lang/Double");
+						code.invoke(MethodWriter.INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+					}
+					store(slot);
+				}
+				generateLoop(loop);
+				writeBack();
+				code.op(MethodWriter.ACONST_NULL);
+				code.op(MethodWriter.ARETURN);
+				return;
+			}
+
+			for (Stmt stmt : declaration.body.statements) {
+				generate(stmt);
+			}
+			code.op(MethodWriter.ACONST_NULL);
+			code.op(MethodWriter.ARETURN);
+		}
+
+		/* writeBack: store the variables a loop assigns back into their scopes */
+		private void writeBack() {
+			for (Slot slot : promoted) {
+				if (!slot.stores.isEmpty()) {
+					code.var(MethodWriter.ALOAD, CLOSURE_LOCAL);
+					code.iconst(slot.distance);
+					code.sconst(slot.name);
+					load(slot);
+					box(slot.number ? Type.NUMBER : Type.OBJECT);
+					runtime("writeBack", "(" + ENVIRONMENT + "ILjava/lang/String;" + OBJECT + ")V");
+				}
+			}
+		}
+
+		/* Statements */
+
+		private void generate(Stmt stmt) {
+			if (stmt == null) {
+				return;
+			}
+
+			/* counters.statements++ */
+			code.var(MethodWriter.ALOAD, COUNTERS_LOCAL);
+			code.op(MethodWriter.DUP);
+			code.field(MethodWriter.GETFIELD, "interpreter/Counters", "statements", "J");
+			code.op(MethodWriter.LCONST_1);
+			code.op(MethodWriter.LADD);
+			code.field(MethodWriter.PUTFIELD, "interpreter/Counters", "statements", "J");
+
+			if (stmt instanceof Stmt.Expression) {
+				pop(generate(((Stmt.Expression) stmt).expression));
+			}
+			else if (stmt instanceof Stmt.Print) {
+				code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+				generateObject(((Stmt.Print) stmt).expression);
+				runtime("print", "(" + INTERPRETER + OBJECT + ")V");
+			}
+			else if (stmt instanceof Stmt.VarStmt) {
+				Stmt.VarStmt var = (Stmt.VarStmt) stmt;
+				Slot slot = declarations.get(var);
+				if (var.init == null) {
+					code.op(MethodWriter.ACONST_NULL);
+				}
+				else if (slot.number) {
+					generate(var.init);
+				}
+				else {
+					generateObject(var.init);
+				}
+				store(slot);
+			}
+			else if (stmt instanceof Stmt.Block) {
+				for (Stmt statement : ((Stmt.Block) stmt).statements) {
+					generate(statement);
+				}
+			}
+			else if (stmt instanceof Stmt.Conditional) {
+				Stmt.Conditional conditional = (Stmt.Conditional) stmt;
+				Label elseBranch = new Label();
+				Label end = new Label();
+				condition(conditional.expr, elseBranch);
+				generate(conditional.thenBranch);
+				code.jump(MethodWriter.GOTO, end);
+				code.mark(elseBranch);
+				generate(conditional.elseBranch);
+				code.mark(end);
+			}
+			else if (stmt instanceof Stmt.While) {
+				generateLoop((Stmt.While) stmt);
+			}
+			else if (stmt instanceof Stmt.Return) {
+				Stmt.Return ret = (Stmt.Return) stmt;
+				if (ret.expr == null) {
+					code.op(MethodWriter.ACONST_NULL);
+				}
+				else {
+					generateObject(ret.expr);
+				}
+				/* A loop completes with the ReturnValue, for the engine running it to return */
+				if (loop != null) {
+					writeBack();
+					runtime("returned", "(" + OBJECT + ")Linterpreter/ReturnValue;");
+				}
+				code.op(MethodWriter.ARETURN);
+			}
+		}
+
+		private void generateLoop(Stmt.While stmt) {
+			Label test = new Label();
+			Label end = new Label();
+			code.mark(test);
+			condition(stmt.expr, end);
+			generate(stmt.body);
+			if (stmt.increment != null) {
+				pop(generate(stmt.increment));
+			}
+			code.jump(MethodWriter.GOTO, test);
+			code.mark(end);
+		}
+
+		private void pop(Type type) {
+			code.op((type == Type.NUMBER) ? MethodWriter.POP2 : MethodWriter.POP);
+		}
+
+		private void load(Slot slot) {
+			code.var(slot.number ? MethodWriter.DLOAD : MethodWriter.ALOAD, slot.index);
+		}
+
+		private void store(Slot slot) {
+			code.var(slot.number ? MethodWriter.DSTORE : MethodWriter.ASTORE, slot.index);
+		}
+
+		/* condition: jump to @ifFalse unless @expr is truthy */
+		private void condition(Expr expr, Label ifFalse) {
+			while (expr instanceof Expr.Grouping) {
+				expr = ((Expr.Grouping) expr).exp;
+			}
+
+			if (expr instanceof Expr.Binary) {
+				Expr.Binary binary = (Expr.Binary) expr;
+				if (typeOf(binary.left) == Type.NUMBER && typeOf(binary.right) == Type.NUMBER) {
+					switch (binary.op.type) {
+					case LT:
+						compare(binary, MethodWriter.DCMPG, MethodWriter.IFGE, ifFalse);
+						return;
+					case GT:
+						compare(binary, MethodWriter.DCMPL, MethodWriter.IFLE, ifFalse);
+						return;
+					case LT_EQ:
+						/* '<=' compares like '>=' in Interpreter.binaryValue() */
+						compare(binary, MethodWriter.DCMPL, MethodWriter.IFLT, ifFalse);
+						return;
+					case GT_EQ:
+						compare(binary, MethodWriter.DCMPG, MethodWriter.IFGT, ifFalse);
+						return;
+					default:
+						break;
+					}
+				}
+			}
+
+			Type type = generate(expr);
+			switch (type) {
+			case BOOLEAN:
+				code.jump(MethodWriter.IFEQ, ifFalse);
+				break;
+			case NUMBER:
+				code.op(MethodWriter.POP2);
+				break;
+			default:
+				code.invoke(MethodWriter.INVOKESTATIC, "interpreter/Interpreter", "truthVal", "(" + OBJECT + ")Z");
+				code.jump(MethodWriter.IFEQ, ifFalse);
+				break;
+			}
+		}
+
+		private void compare(Expr.Binary binary, int compare, int jump, Label ifFalse) {
+			generate(binary.left);
+			generate(binary.right);
+			code.op(compare);
+			code.jump(jump, ifFalse);
+		}
+
+		/* Expressions */
+
+		private Type generateObject(Expr expr) {
+			box(generate(expr));
+			return Type.OBJECT;
+		}
+
+		private void box(Type type) {
+			if (type == Type.NUMBER) {
+				code.invoke(MethodWriter.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+			}
+			else if (type == Type.BOOLEAN) {
+				code.invoke(MethodWriter.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+			}
+		}
+
+		private void constant(Object value, String internalName) {
+			Integer index = constantIndexes.get(value);
+			if (index == null) {
+				index = constants.size();
+				constants.add(value);
+				constantIndexes.put(value, index);
+			}
+			code.var(MethodWriter.ALOAD, CONSTANTS_LOCAL);
+			code.iconst(index);
+			code.op(MethodWriter.AALOAD);
+			code.type(MethodWriter.CHECKCAST, internalName);
+		}
+
+		private void token(Token token) {
+			constant(token, "interpreter/Token");
+		}
+
+		/* cell: the cell of global @name, see Globals */
+		private void cell(Token name) {
+			constant(interpreter.globals.cell(name.lexeme), "interpreter/Globals$Cell");
+		}
+
+		private void runtime(String name, String descriptor) {
+			code.invoke(MethodWriter.INVOKESTATIC, "interpreter/Jit", name, descriptor);
+		}
+
+		private int temporary(Type type) {
+			int index = nextLocal;
+			nextLocal += (type == Type.NUMBER) ? 2 : 1;
+			return index;
+		}
+
+		/* generate: code leaving the value of @expr on the stack, held as its type */
+		private Type generate(Expr expr) {
+			if (expr instanceof Expr.Literal) {
+				Object value = ((Expr.Literal) expr).litValue;
+				if (value instanceof Double) {
+					code.dconst((double) value);
+					return Type.NUMBER;
+				}
+				if (value instanceof Boolean) {
+					code.iconst((boolean) value ? 1 : 0);
+					return Type.BOOLEAN;
+				}
+				if (value == null) {
+					code.op(MethodWriter.ACONST_NULL);
+				}
+				else if (value instanceof String) {
+					code.sconst((String) value);
+				}
+				else {
+					constant(value, "java/lang/Object");
+				}
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.Grouping) {
+				return generate(((Expr.Grouping) expr).exp);
+			}
+			if (expr instanceof Expr.Variable) {
+				return generateVariable(expr, ((Expr.Variable) expr).name);
+			}
+			if (expr instanceof Expr.This) {
+				return generateVariable(expr, ((Expr.This) expr).keyword);
+			}
+			if (expr instanceof Expr.Assign) {
+				return generateAssign((Expr.Assign) expr);
+			}
+			if (expr instanceof Expr.Binary) {
+				return generateBinary((Expr.Binary) expr);
+			}
+			if (expr instanceof Expr.Ternary) {
+				return generateTernary((Expr.Ternary) expr);
+			}
+			if (expr instanceof Expr.Call) {
+				Expr.Call call = (Expr.Call) expr;
+				String site = "site" + sites.size();
+				sites.add(new LoxCallSite(call.paren));
+				code.field(MethodWriter.GETSTATIC, className, site, METHOD_HANDLE);
+				code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+				generateObject(call.callee);
+				token(call.paren);
+				runtime("callee", "(" + OBJECT + TOKEN + ")Linterpreter/Callable;");
+				generateArray(call.args);
+				code.invoke(MethodWriter.INVOKESTATIC, "java/util/Arrays", "asList", "([" + OBJECT + ")Ljava/util/List;");
+				code.invoke(MethodWriter.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact",
+						"(" + INTERPRETER + OBJECT + "Ljava/util/List;)" + OBJECT);
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.Get) {
+				Expr.Get get = (Expr.Get) expr;
+				code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+				generateObject(get.object);
+				token(get.field);
+				runtime("get", "(" + INTERPRETER + OBJECT + TOKEN + ")" + OBJECT);
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.Set) {
+				Expr.Set set = (Expr.Set) expr;
+				generateObject(set.object);
+				token(set.field);
+				runtime("instance", "(" + OBJECT + TOKEN + ")Linterpreter/Instance;");
+				generateObject(set.value);
+				token(set.field);
+				runtime("set", "(Linterpreter/Instance;" + OBJECT + TOKEN + ")" + OBJECT);
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.Index) {
+				Expr.Index index = (Expr.Index) expr;
+				generateObject(index.object);
+				generateObject(index.index);
+				token(index.bracket);
+				runtime("index", "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.IndexSet) {
+				Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+				code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+				generateObject(indexSet.object);
+				generateObject(indexSet.index);
+				generateObject(indexSet.value);
+				token(indexSet.bracket);
+				token(indexSet.op);
+				runtime("indexSet", "(" + INTERPRETER + OBJECT + OBJECT + OBJECT + TOKEN + TOKEN + ")" + OBJECT);
+				return Type.OBJECT;
+			}
+			if (expr instanceof Expr.ArrayLiteral) {
+				generateArray(((Expr.ArrayLiteral) expr).elements);
+				runtime("array", "([" + OBJECT + ")" + OBJECT);
+				return Type.OBJECT;
+			}
+			throw new Rejected();
+		}
+
+		private void generateArray(List<Expr> exprs) {
+			code.iconst(exprs.size());
+			code.type(MethodWriter.ANEWARRAY, "java/lang/Object");
+			for (int i = 0; i < exprs.size(); i++) {
+				code.op(MethodWriter.DUP);
+				code.iconst(i);
+				generateObject(exprs.get(i));
+				code.op(MethodWriter.AASTORE);
+			}
+		}
+
+		/* 'this' is read like a variable, from the closure of the bound method */
+		private Type generateVariable(Expr expr, Token name) {
+			Slot slot = slots.get(expr);
+			if (slot != null) {
+				load(slot);
+				return slot.number ? Type.NUMBER : Type.OBJECT;
+			}
+
+			Integer distance = outer.get(expr);
+			if (distance != null) {
+				code.var(MethodWriter.ALOAD, CLOSURE_LOCAL);
+				code.iconst(distance);
+				token(name);
+				runtime("read", "(" + ENVIRONMENT + "I" + TOKEN + ")" + OBJECT);
+			}
+			else {
+				cell(name);
+				token(name);
+				runtime("global", "(" + CELL + TOKEN + ")" + OBJECT);
+			}
+			return Type.OBJECT;
+		}
+
+		/* The value is evaluated before the variable is read, as in visitAssign() */
+		private Type generateAssign(Expr.Assign expr) {
+			Slot slot = slots.get(expr);
+			boolean compound = expr.op.type != TokenType.ASGN;
+
+			if (slot != null && slot.number) {
+				if (compound) {
+					load(slot);
+					generate(expr.value);
+					code.op((expr.op.type == TokenType.INC_ASGN) ? MethodWriter.DADD : MethodWriter.DSUB);
+				}
+				else {
+					generate(expr.value);
+				}
+				code.op(MethodWriter.DUP2);
+				store(slot);
+				return Type.NUMBER;
+			}
+
+			if (slot != null) {
+				if (compound) {
+					code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+					generateObject(expr.value);
+					load(slot);
+					token(expr.op);
+					token(expr.name);
+					runtime("compound", "(" + INTERPRETER + OBJECT + OBJECT + TOKEN + TOKEN + ")" + OBJECT);
+				}
+				else {
+					generateObject(expr.value);
+					load(slot);
+					token(expr.name);
+					runtime("assign", "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+				}
+				code.op(MethodWriter.DUP);
+				store(slot);
+				return Type.OBJECT;
+			}
+
+			Integer distance = outer.get(expr);
+			code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+			generateObject(expr.value);
+			if (distance != null) {
+				code.var(MethodWriter.ALOAD, CLOSURE_LOCAL);
+				code.iconst(distance);
+				token(expr.op);
+				token(expr.name);
+				runtime("assignOuter", "(" + INTERPRETER + OBJECT + ENVIRONMENT + "I" + TOKEN + TOKEN + ")" + OBJECT);
+			}
+			else {
+				cell(expr.name);
+				token(expr.op);
+				token(expr.name);
+				runtime("assignGlobal", "(" + INTERPRETER + OBJECT + CELL + TOKEN + TOKEN + ")" + OBJECT);
+			}
+			return Type.OBJECT;
+		}
+
+		private Type generateBinary(Expr.Binary expr) {
+			Type left = typeOf(expr.left);
+			Type right = typeOf(expr.right);
+			Type result = typeOf(expr);
+
+			switch (expr.op.type) {
+			case COMMA:
+				pop(generate(expr.left));
+				return generate(expr.right);
+			case AND:
+			case OR:
+				return generateLogical(expr, result);
+			case LT:
+			case GT:
+			case LT_EQ:
+			case GT_EQ:
+				if (result == Type.BOOLEAN) {
+					return generateBoolean(expr);
+				}
+				break;
+			case EQ:
+			case DIFF: {
+				boolean equal = expr.op.type == TokenType.EQ;
+				Label otherwise = new Label();
+				Label end = new Label();
+				if (left == Type.NUMBER && right == Type.NUMBER) {
+					/* Double.equals(), as isEqual(): NaN equals itself, 0 and -0 differ */
+					generate(expr.left);
+					generate(expr.right);
+					code.invoke(MethodWriter.INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+					code.jump(equal ? MethodWriter.IFNE : MethodWriter.IFEQ, otherwise);
+				}
+				else if (left == Type.BOOLEAN && right == Type.BOOLEAN) {
+					generate(expr.left);
+					generate(expr.right);
+					code.jump(equal ? MethodWriter.IF_ICMPNE : MethodWriter.IF_ICMPEQ, otherwise);
+				}
+				else {
+					generateObject(expr.left);
+					generateObject(expr.right);
+					code.invoke(MethodWriter.INVOKESTATIC, "interpreter/Interpreter", "isEqual",
+							"(" + OBJECT + OBJECT + ")Z");
+					code.jump(equal ? MethodWriter.IFEQ : MethodWriter.IFNE, otherwise);
+				}
+				code.iconst(1);
+				code.jump(MethodWriter.GOTO, end);
+				code.mark(otherwise);
+				code.iconst(0);
+				code.mark(end);
+				return Type.BOOLEAN;
+			}
+			default:
+				if (result == Type.NUMBER) {
+					generate(expr.left);
+					generate(expr.right);
+					code.op(arithmetic(expr.op.type));
+					return Type.NUMBER;
+				}
+				break;
+			}
+
+			code.var(MethodWriter.ALOAD, INTERPRETER_LOCAL);
+			token(expr.op);
+			generateObject(expr.left);
+			generateObject(expr.right);
+			code.invoke(MethodWriter.INVOKEVIRTUAL, "interpreter/Interpreter", "binaryValue",
+					"(" + TOKEN + OBJECT + OBJECT + ")" + OBJECT);
+			return Type.OBJECT;
+		}
+
+		private int arithmetic(TokenType op) {
+			switch (op) {
+			case PLUS:
+				return MethodWriter.DADD;
+			case MINUS:
+				return MethodWriter.DSUB;
+			case STAR:
+				return MethodWriter.DMUL;
+			case SLASH:
+				return MethodWriter.DDIV;
+			case MOD:
+				return MethodWriter.DREM;
+			default:
+				throw new Rejected();
+			}
+		}
+
+		private Type generateBoolean(Expr expr) {
+			Label otherwise = new Label();
+			Label end = new Label();
+			condition(expr, otherwise);
+			code.iconst(1);
+			code.jump(MethodWriter.GOTO, end);
+			code.mark(otherwise);
+			code.iconst(0);
+			code.mark(end);
+			return Type.BOOLEAN;
+		}
+
+		/* 'and' and 'or' give one of their operands, evaluating the right one only when needed */
+		private Type generateLogical(Expr.Binary expr, Type result) {
+			boolean isAnd = expr.op.type == TokenType.AND;
+			Label end = new Label();
+			if (result == Type.BOOLEAN) {
+				Label shortCut = new Label();
+				generate(expr.left);
+				code.jump(isAnd ? MethodWriter.IFEQ : MethodWriter.IFNE, shortCut);
+				generate(expr.right);
+				code.jump(MethodWriter.GOTO, end);
+				code.mark(shortCut);
+				code.iconst(isAnd ? 0 : 1);
+				code.mark(end);
+				return Type.BOOLEAN;
+			}
+
+			generateObject(expr.left);
+			code.op(MethodWriter.DUP);
+			code.invoke(MethodWriter.INVOKESTATIC, "interpreter/Interpreter", "truthVal", "(" + OBJECT + ")Z");
+			code.jump(isAnd ? MethodWriter.IFEQ : MethodWriter.IFNE, end);
+			code.op(MethodWriter.POP);
+			generateObject(expr.right);
+			code.mark(end);
+			return Type.OBJECT;
+		}
+
+		/* The true branch is evaluated before the condition is tested, as in visitTernary() */
+		private Type generateTernary(Expr.Ternary expr) {
+			Type result = typeOf(expr);
+			int condition = temporary(Type.BOOLEAN);
+			int ifTrue = temporary(result);
+
+			Type type = generate(expr.condition);
+			if (type == Type.BOOLEAN) {
+				code.var(MethodWriter.ISTORE, condition);
+			}
+			else if (type == Type.NUMBER) {
+				code.op(MethodWriter.POP2);
+				code.iconst(0);
+				code.var(MethodWriter.ISTORE, condition);
+			}
+			else {
+				runtime("isTrue", "(" + OBJECT + ")Z");
+				code.var(MethodWriter.ISTORE, condition);
+			}
+
+			generateAs(expr.ifTrue, result);
+			code.var(storeOf(result), ifTrue);
+
+			Label otherwise = new Label();
+			Label end = new Label();
+			code.var(MethodWriter.ILOAD, condition);
+			code.jump(MethodWriter.IFEQ, otherwise);
+			code.var(loadOf(result), ifTrue);
+			code.jump(MethodWriter.GOTO, end);
+			code.mark(otherwise);
+			generateAs(expr.ifFalse, result);
+			code.mark(end);
+			return result;
+		}
+
+		private void generateAs(Expr expr, Type type) {
+			if (type == Type.OBJECT) {
+				generateObject(expr);
+			}
+			else {
+				generate(expr);
+			}
+		}
+
+		private int loadOf(Type type) {
+			switch (type) {
+			case NUMBER:
+				return MethodWriter.DLOAD;
+			case BOOLEAN:
+				return MethodWriter.ILOAD;
+			default:
+				return MethodWriter.ALOAD;
+			}
+		}
+
+		private int storeOf(Type type) {
+			switch (type) {
+			case NUMBER:
+				return MethodWriter.DSTORE;
+			case BOOLEAN:
+				return MethodWriter.ISTORE;
+			default:
+				return MethodWriter.ASTORE;
+			}
+		}
+	}
+}
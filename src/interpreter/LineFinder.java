@@ -0,0 +1,155 @@
+package interpreter;
+
+import java.util.List;
+
+/* LineFinder: source line of a syntax tree node
+ *
+ * Nodes do not store a position of their own, the line is that of the first token found in
+ * source order in the node or its children. 0 when the node carries no token at all, e.g. a
+ * statement made of a single literal. */
+final class LineFinder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+	private static final LineFinder INSTANCE = new LineFinder();
+
+	private LineFinder() {
+	}
+
+	static int of(Stmt stmt) {
+		return (stmt == null) ? 0 : stmt.accept(INSTANCE);
+	}
+
+	static int of(Expr expr) {
+		return (expr == null) ? 0 : expr.accept(INSTANCE);
+	}
+
+	/* first: line of the first of @nodes that has one */
+	private static int first(Object... nodes) {
+		for (Object node : nodes) {
+			int line = 0;
+			if (node instanceof Token) {
+				line = ((Token) node).line;
+			}
+			else if (node instanceof Expr) {
+				line = of((Expr) node);
+			}
+			else if (node instanceof Stmt) {
+				line = of((Stmt) node);
+			}
+			else if (node instanceof List) {
+				line = first(((List<?>) node).toArray());
+			}
+
+			if (line > 0) {
+				return line;
+			}
+		}
+		return 0;
+	}
+
+	/* Expressions */
+
+	public Integer visitBinary(Expr.Binary expr) {
+		return first(expr.left, expr.op, expr.right);
+	}
+
+	public Integer visitUnary(Expr.Unary expr) {
+		return first(expr.op, expr.exp);
+	}
+
+	public Integer visitGrouping(Expr.Grouping expr) {
+		return first(expr.exp);
+	}
+
+	public Integer visitLiteral(Expr.Literal expr) {
+		return 0;
+	}
+
+	public Integer visitTernary(Expr.Ternary expr) {
+		return first(expr.condition, expr.ifTrue, expr.ifFalse);
+	}
+
+	public Integer visitVariable(Expr.Variable expr) {
+		return expr.name.line;
+	}
+
+	public Integer visitAssign(Expr.Assign expr) {
+		return expr.name.line;
+	}
+
+	public Integer visitCall(Expr.Call expr) {
+		return first(expr.callee, expr.paren);
+	}
+
+	public Integer visitGet(Expr.Get expr) {
+		return first(expr.object, expr.field);
+	}
+
+	public Integer visitSet(Expr.Set expr) {
+		return first(expr.object, expr.field);
+	}
+
+	public Integer visitThis(Expr.This expr) {
+		return expr.keyword.line;
+	}
+
+	public Integer visitFunction(Expr.Function expr) {
+		return first(expr.args, expr.body);
+	}
+
+	public Integer visitSuper(Expr.Super expr) {
+		return expr.keyword.line;
+	}
+
+	public Integer visitArrayLiteral(Expr.ArrayLiteral expr) {
+		return expr.bracket.line;
+	}
+
+	public Integer visitIndex(Expr.Index expr) {
+		return first(expr.object, expr.bracket);
+	}
+
+	public Integer visitIndexSet(Expr.IndexSet expr) {
+		return first(expr.object, expr.bracket);
+	}
+
+	/* Statements */
+
+	public Integer visitExpression(Stmt.Expression stmt) {
+		return first(stmt.expression);
+	}
+
+	public Integer visitPrint(Stmt.Print stmt) {
+		return first(stmt.expression);
+	}
+
+	public Integer visitVarStmt(Stmt.VarStmt stmt) {
+		return stmt.identifier.line;
+	}
+
+	public Integer visitBlock(Stmt.Block stmt) {
+		return first(stmt.statements);
+	}
+
+	public Integer visitConditional(Stmt.Conditional stmt) {
+		return first(stmt.expr, stmt.thenBranch, stmt.elseBranch);
+	}
+
+	public Integer visitWhile(Stmt.While stmt) {
+		return first(stmt.expr, stmt.body);
+	}
+
+	public Integer visitFuncStmt(Stmt.FuncStmt stmt) {
+		return first(stmt.name, stmt.argNames, stmt.body);
+	}
+
+	public Integer visitReturn(Stmt.Return stmt) {
+		return stmt.keyword.line;
+	}
+
+	public Integer visitJump(Stmt.Jump stmt) {
+		return stmt.token.line;
+	}
+
+	public Integer visitClass(Stmt.Class stmt) {
+		return stmt.name.line;
+	}
+}
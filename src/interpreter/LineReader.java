@@ -0,0 +1,21 @@
+package interpreter;
+
+import java.io.IOException;
+
+/* LineReader: line-oriented input handed to Lox scripts by openFile() and 'stdin'
+ * readLine() returns the next line without its terminator, or null when the input is exhausted. */
+abstract class LineReader {
+	final String name;
+
+	LineReader(String name) {
+		this.name = name;
+	}
+
+	abstract String readLine() throws IOException;
+
+	abstract void close() throws IOException;
+
+	public String toString() {
+		return "<file " + name + ">";
+	}
+}
@@ -5,39 +5,275 @@ import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.io.Console;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 public class Lox {
 	static boolean hadRuntimeError = false;
 	static boolean hadSyntaxError = false;
 	private static boolean console = false;
 
+	/* echoed: expression statements at the top level of the line the prompt runs, whose values
+	 * it prints; not those nested in blocks, loops or functions */
+	private static final Set<Stmt> echoed = Collections.newSetFromMap(new IdentityHashMap<>());
+
 	static Interpreter interpreter = new Interpreter();
 	static Resolver resolver = new Resolver(interpreter);
 	
+	/* profileOutput: where --profile writes the collapsed call stacks, null when not profiling */
+	private static String profileOutput = null;
+
+	/* sampler: sampling profiler started by --sample, null when not sampling */
+	private static Sampler sampler = null;
+
+	/* sourceLines: lines of the script run from a file, shown by the sampler's report */
+	private static String[] sourceLines = null;
+
+	/* coveragePrefix: where --coverage writes <prefix>.info and <prefix>.txt, null when off */
+	private static String coveragePrefix = null;
+
+	private static String scriptPath = null;
+
+	/* warmStart: where --warm-start keeps the site profiles of scripts, null when off */
+	private static String warmStart = null;
+
+	/* tierStats: whether --tier-stats reports what the Jit compiled at exit */
+	private static boolean tierStats = false;
+
 	public static void main(String[] args) throws IOException {
-		if (args.length == 1) {
-			runFile(args[0]);	
+		String path = null;
+		int sampleRate = 0;
+		boolean allocations = false;
+		String engine = "tree";
+		int jitThreshold = 0;
+		long codeCache = CodeCache.DEFAULT_BUDGET;
+		boolean jitSync = false;
+		for (String arg : args) {
+			if (arg.equals("--profile")) {
+				profileOutput = "profile.collapsed";
+			}
+			else if (arg.startsWith("--profile=")) {
+				profileOutput = arg.substring("--profile=".length());
+			}
+			else if (arg.equals("--sample")) {
+				sampleRate = 100;
+			}
+			else if (arg.startsWith("--sample=")) {
+				sampleRate = parseRate(arg.substring("--sample=".length()));
+			}
+			else if (arg.equals("--coverage")) {
+				coveragePrefix = "coverage";
+			}
+			else if (arg.startsWith("--coverage=")) {
+				coveragePrefix = arg.substring("--coverage=".length());
+			}
+			else if (arg.equals("--allocations")) {
+				allocations = true;
+			}
+			else if (arg.startsWith("--engine=")) {
+				engine = arg.substring("--engine=".length());
+			}
+			else if (arg.equals("--jit")) {
+				jitThreshold = Jit.DEFAULT_THRESHOLD;
+			}
+			else if (arg.startsWith("--jit=")) {
+				jitThreshold = parseThreshold(arg.substring("--jit=".length()));
+			}
+			else if (arg.startsWith("--code-cache=")) {
+				codeCache = parseThreshold(arg.substring("--code-cache=".length())) * 1024L;
+			}
+			else if (arg.equals("--jit-sync")) {
+				jitSync = true;
+			}
+			else if (arg.equals("--tier-stats")) {
+				tierStats = true;
+			}
+			else if (arg.equals("--warm-start")) {
+				warmStart = SiteProfile.DEFAULT_DIRECTORY;
+			}
+			else if (arg.startsWith("--warm-start=")) {
+				warmStart = arg.substring("--warm-start=".length());
+			}
+			else if (arg.equals("--jmx")) {
+				Metrics.register();
+			}
+			else if (arg.startsWith("--") || path != null) {
+				usage();
+			}
+			else {
+				path = arg;
+			}
 		}
-		else if (args.length == 0) {
-			runPrompt();
+
+		/* Line counting takes an instrumented interpreter, installed before anything refers to
+		 * the default one, and so does any engine but the tree-walking one. Coverage and
+		 * allocations are only counted by the tree-walking interpreter. */
+		if (coveragePrefix != null) {
+			if (path == null || !engine.equals("tree")) {
+				usage();
+			}
+			interpreter = new CoverageInterpreter();
+		}
+		if (allocations && !engine.equals("tree")) {
+			usage();
+		}
+		if (jitThreshold > 0 && (coveragePrefix != null || allocations)) {
+			usage();
+		}
+		/* Profiles are kept per script, which the prompt does not have */
+		if (warmStart != null && path == null) {
+			usage();
+		}
+		if (jitThreshold == 0 && (tierStats || jitSync || codeCache != CodeCache.DEFAULT_BUDGET)) {
+			usage();
+		}
+		if (engine.equals("nodes")) {
+			interpreter = new NodeInterpreter();
+		}
+		else if (engine.equals("closures")) {
+			interpreter = new ClosureInterpreter();
+		}
+		else if (!engine.equals("tree")) {
+			usage();
+		}
+
+		if (profileOutput != null) {
+			interpreter.profiler = new Profiler();
+		}
+		/* The sampler and the allocation profiler share the published call stack */
+		if (sampleRate > 0 || allocations) {
+			interpreter.callStack = new CallStack();
+		}
+		if (sampleRate > 0) {
+			sampler = new Sampler(interpreter.callStack, sampleRate);
+			sampler.start();
+		}
+		if (allocations) {
+			interpreter.allocations = new AllocationProfiler(interpreter.callStack);
+		}
+		if (warmStart != null) {
+			interpreter.siteProfile = new SiteProfile(Paths.get(warmStart));
+		}
+		if (jitThreshold > 0) {
+			interpreter.jit = new Jit(jitThreshold, codeCache, jitSync, interpreter.siteProfile);
+		}
+		/* The prompt prints expression statements run in the global Environment, which locals in
+		 * registers would be mistaken for */
+		else if (engine.equals("tree") && path != null) {
+			interpreter.enableRegisterFrames();
+		}
+
+		/* Whatever is still buffered by 'print' is written out when the JVM exits, followed by
+		 * the profiles */
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			interpreter.out.flush();
+			if (interpreter.profiler != null) {
+				interpreter.profiler.report(System.err, Paths.get(profileOutput));
+			}
+			if (sampler != null) {
+				sampler.stop();
+				sampler.report(System.err, sourceLines);
+			}
+			if (interpreter.allocations != null) {
+				interpreter.allocations.report(System.err, sourceLines);
+			}
+			if (tierStats) {
+				interpreter.jit.report(System.err);
+			}
+			if (interpreter.siteProfile != null) {
+				try {
+					interpreter.siteProfile.save();
+				}
+				catch (IOException exp) {
+					System.err.println("Cannot write the site profile to '" + warmStart + "'.");
+				}
+			}
+			if (coveragePrefix != null && sourceLines != null) {
+				try {
+					((CoverageInterpreter) interpreter).report(Paths.get(scriptPath), sourceLines, coveragePrefix);
+				}
+				catch (IOException exp) {
+					System.err.println("Cannot write the coverage report '" + coveragePrefix + "'.");
+				}
+			}
+		}));
+
+		scriptPath = path;
+		if (path != null) {
+			runFile(path);
 		}
 		else {
-			System.out.println("Usage: java <source to the main class> <path to source code>");
-			System.exit(1);
+			runPrompt();
 		}
-		
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java <source to the main class> [options] [path to source code]");
+		System.out.println("  --profile[=<file>]     profile function calls, write the call stacks to <file>"
+				+ " (default profile.collapsed)");
+		System.out.println("  --sample[=<rate>]      sample the running function and line <rate> times per second"
+				+ " (default 100)");
+		System.out.println("  --coverage[=<prefix>]  count executions per line, write <prefix>.info (lcov) and"
+				+ " <prefix>.txt (default coverage)");
+		System.out.println("  --allocations          attribute the interpreter's allocations to source lines");
+		System.out.println("  --engine=<engine>      tree (default) to walk the AST, nodes for self-specializing"
+				+ " nodes, closures for closures compiled from the AST");
+		System.out.println("  --jit[=<threshold>]    compile functions and loops to bytecode once their calls and"
+				+ " loop iterations reach <threshold> (default " + Jit.DEFAULT_THRESHOLD + ")");
+		System.out.println("  --code-cache=<KB>      with --jit, evict the least recently used code beyond <KB> of"
+				+ " class files (default " + CodeCache.DEFAULT_BUDGET / 1024 + ")");
+		System.out.println("  --jit-sync             with --jit, compile on the interpreter's thread instead of in"
+				+ " the background");
+		System.out.println("  --tier-stats           with --jit, report what was compiled, deoptimized and evicted");
+		System.out.println("  --warm-start[=<dir>]   keep what was learned about the script's sites in <dir>, and"
+				+ " start from it next time (default " + SiteProfile.DEFAULT_DIRECTORY + ")");
+		System.out.println("  --jmx                  publish the interpreter metrics as the MBean " + Metrics.NAME);
+		System.exit(1);
+	}
+
+	private static int parseThreshold(String threshold) {
+		try {
+			int value = Integer.parseInt(threshold);
+			if (value > 0) {
+				return value;
+			}
+		}
+		catch (NumberFormatException exp) {
+		}
+		usage();
+		return 0;
+	}
+
+	private static int parseRate(String rate) {
+		try {
+			int value = Integer.parseInt(rate);
+			if (value > 0 && value <= 100_000) {
+				return value;
+			}
+		}
+		catch (NumberFormatException exp) {
+		}
+		usage();
+		return 0;
 	}
 	
 	public static void runPrompt() throws IOException {
 		console = true;
-		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+		/* Only an interactive terminal needs to see each line as soon as it is printed */
+		if (System.console() != null) {
+			interpreter.out.setPolicy(OutputSink.FlushPolicy.LINE);
+		}
 
 		while (true) {
+			interpreter.out.flush();
 			System.out.print(">> ");
-			String input = in.readLine();
+			String input = StreamNatives.STDIN.readLine();
+			if (input == null) {
+				break;
+			}
 			
 			try {
 				run(input);	
@@ -52,12 +288,18 @@ public class Lox {
 	public static boolean consoleMode() {
 		return console;
 	}
+
+	/* echoes: whether the prompt prints the value of the expression statement @stmt */
+	static boolean echoes(Stmt stmt) {
+		return console && echoed.contains(stmt);
+	}
 	
 	
 	public static void runFile(String path) throws IOException {
 		try {
 			byte[] bytes = Files.readAllBytes(Paths.get(path));
 			String source = new String(bytes);
+			sourceLines = source.lines().toArray(String[]::new);
 			run(source);
 		}
 		catch(IOException exp) {
@@ -74,29 +316,63 @@ public class Lox {
 
 	
 	public static void run(String source) {
+		List<Stmt> stmts = compile(source);
+		if (stmts == null) {
+			return;
+		}
+
+		if (console) {
+			echoed.clear();
+			for (Stmt stmt : stmts) {
+				if (stmt instanceof Stmt.Expression) {
+					echoed.add(stmt);
+				}
+			}
+		}
+
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.load(source);
+		}
+
+		Events.ScriptEvent event = Events.beginScript();
+		interpreter.interpret(stmts);
+		if (event != null) {
+			Events.endScript(event, stmts.size(), hadRuntimeError);
+		}
+
+		if (interpreter.profiler != null) {
+			interpreter.profiler.stop();
+		}
+	}
+
+	/* compile: scan, parse and resolve @source, null when it has a syntax error
+	 *
+	 * The list of tokens, the parser and the resolver's analysis are only reachable from here:
+	 * once the script runs, what is left of them is what the AST and the interpreter's tables
+	 * keep, the tokens of names, operators and parentheses. */
+	private static List<Stmt> compile(String source) {
 		Scanner sc = new Scanner(source);
 		sc.scanTokens();
 
 		List<Token> tokens = sc.getTokens();
 		if (hadSyntaxError) {
-			return;
+			return null;
 		}
 		
 		Parser parser = new Parser(tokens);
 		List<Stmt> stmts = parser.parse();
 		
 		if (stmts == null || hadSyntaxError) {
-			return;
+			return null;
 		}
 		
 		Resolver resolver = new Resolver(interpreter);
 		resolver.resolve(stmts);
 		
-		if (stmts == null || hadSyntaxError) {
-			return;
+		if (hadSyntaxError) {
+			return null;
 		}
-
-		interpreter.interpret(stmts);
+		return stmts;
 	}
 
 	/* reportError: print syntax error to the console
@@ -105,6 +381,7 @@ public class Lox {
 	 * @lineNumber: line number where the error is encountered */
 	public static void reportError(String message, String posMsg, int lineNumber) {
 	    /* Print an error message when a mistake is encountered */
+	    interpreter.out.flush();
 	    System.out.println("On line " +	 lineNumber + ", " + posMsg + ": " + message);
 	}
 	
@@ -120,9 +397,11 @@ public class Lox {
 	
 	static void runtimeError(RuntimeError error) {
 		int lineNumber = error.token.line;
+		interpreter.out.flush();
 		System.out.println("On line " + lineNumber +
 							", token '" + error.token.lexeme + 
 							"': " + error.getMessage());
 		hadRuntimeError = true;
+		Events.runtimeError(error);
 	}
 }
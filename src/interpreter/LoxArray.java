@@ -0,0 +1,146 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/* LoxArray: built-in growable array
+ *
+ * Storage starts as a double[] and stays so while every element is a number; the first
+ * non-numeric element widens it to an Object[] for the rest of the array's life. Numeric arrays
+ * are filled, grown and copied without boxing their elements. */
+public class LoxArray {
+	private static final int MIN_CAPACITY = 8;
+
+	/* Exactly one of @numbers and @objects is non-null */
+	private double[] numbers;
+	private Object[] objects;
+	private int size = 0;
+
+	LoxArray(int capacity) {
+		numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+	}
+
+	/* filled: create an array of @size copies of the number @value */
+	static LoxArray filled(int size, double value) {
+		LoxArray array = new LoxArray(size);
+		if (value != 0.0) {
+			Arrays.fill(array.numbers, 0, size, value);
+		}
+		array.size = size;
+		return array;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isNumeric() {
+		return numbers != null;
+	}
+
+	/* numbers: backing storage of a numeric array, only the first size() slots are elements */
+	double[] numbers() {
+		return numbers;
+	}
+
+	Object get(int index) {
+		if (numbers != null) {
+			return numbers[index];
+		}
+		return objects[index];
+	}
+
+	void set(int index, Object value) {
+		if (numbers != null) {
+			if (value instanceof Double) {
+				numbers[index] = (double) value;
+				return;
+			}
+			widen();
+		}
+		objects[index] = value;
+	}
+
+	void push(Object value) {
+		if (numbers != null && value instanceof Double) {
+			pushNumber((double) value);
+			return;
+		}
+
+		if (numbers != null) {
+			widen();
+		}
+		if (size == objects.length) {
+			ensureCapacity(size + 1);
+		}
+		objects[size++] = value;
+	}
+
+	private void pushNumber(double value) {
+		if (size == numbers.length) {
+			ensureCapacity(size + 1);
+		}
+		numbers[size++] = value;
+	}
+
+	/* widen: switch the storage to Object[], boxing the current elements once */
+	private void widen() {
+		objects = new Object[numbers.length];
+		for (int i = 0; i < size; i++) {
+			objects[i] = numbers[i];
+		}
+		numbers = null;
+	}
+
+	/* copy: copy @length elements of @src starting at @srcPos into @dst starting at @dstPos
+	 * @dst grows when the copied range ends past its size. Positions are checked by the caller. */
+	static void copy(LoxArray src, int srcPos, LoxArray dst, int dstPos, int length) {
+		int end = dstPos + length;
+		dst.ensureCapacity(end);
+
+		if (src.numbers != null && dst.numbers != null) {
+			System.arraycopy(src.numbers, srcPos, dst.numbers, dstPos, length);
+		}
+		else if (src.numbers == null && dst.numbers == null) {
+			System.arraycopy(src.objects, srcPos, dst.objects, dstPos, length);
+		}
+		else if (dst.numbers == null) {
+			for (int i = 0; i < length; i++) {
+				dst.objects[dstPos + i] = src.numbers[srcPos + i];
+			}
+		}
+		else {
+			dst.widen();
+			System.arraycopy(src.objects, srcPos, dst.objects, dstPos, length);
+		}
+
+		dst.size = Math.max(dst.size, end);
+	}
+
+	/* ensureCapacity: grow the storage to hold @capacity elements, at most ArrayNatives.MAX_SIZE */
+	private void ensureCapacity(int capacity) {
+		int length = (numbers != null) ? numbers.length : objects.length;
+		if (capacity <= length) {
+			return;
+		}
+
+		int newLength = (int) Math.min(Math.max(capacity, length * 2L), ArrayNatives.MAX_SIZE);
+		if (numbers != null) {
+			numbers = Arrays.copyOf(numbers, newLength);
+		}
+		else {
+			objects = Arrays.copyOf(objects, newLength);
+		}
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			Object element = get(i);
+			builder.append(element == null ? "nil" : element.toString());
+		}
+		return builder.append("]").toString();
+	}
+}
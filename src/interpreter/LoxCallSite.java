@@ -0,0 +1,130 @@
+package interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.List;
+
+/* LoxCallSite: inline cache of one call expression of compiled code, as a chain of method handles
+ *
+ * The target takes (Interpreter, Object callee, List<Object> args), where the callee is known to
+ * be Callable, and has the semantics of Interpreter.callValue(). A site starts unlinked. Its
+ * first call links it to the function, native or class it sees: a guard on the declaration of a
+ * function, or on the identity of a native or a class, in front of a handle calling that callee,
+ * which the arity check is no longer needed for. As in a CallCache, the copies of a method bound
+ * to each instance and the closures of one declaration all pass the guard of a function. A callee the guards do not know relinks the site, adding one more guard in front of the
+ * chain, until MAX_TARGETS callees have been seen: the site is then megamorphic and calls
+ * callValue() from then on. With --warm-start, a site that went megamorphic in a previous run is
+ * megamorphic from its first call. While the profiler runs, sites are never linked, so that
+ * natives keep being reported.
+ *
+ * Code compiled by the Jit holds the site's dynamic invoker in a static final field, which lets
+ * the JVM inline the linked function into the caller. The interpreters, for which the site is
+ * not a constant, use a CallCache instead. */
+final class LoxCallSite extends MutableCallSite {
+	static final MethodType TYPE = MethodType.methodType(Object.class, Interpreter.class, Object.class, List.class);
+
+	/* Callees a site is linked to, beyond which it is megamorphic */
+	private static final int MAX_TARGETS = 4;
+
+	private static final MethodHandle RELINK;
+	private static final MethodHandle IS_CALLEE;
+	private static final MethodHandle IS_DECLARATION;
+	private static final MethodHandle COUNT;
+	private static final MethodHandle CALL;
+	private static final MethodHandle CALL_FUNCTION;
+	private static final MethodHandle RETHROW;
+	private static final MethodHandle CALL_VALUE;
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			RELINK = lookup.findVirtual(LoxCallSite.class, "relink", TYPE);
+			IS_CALLEE = lookup.findStatic(LoxCallSite.class, "isCallee",
+					MethodType.methodType(boolean.class, Object.class, Interpreter.class, Object.class));
+			IS_DECLARATION = lookup.findStatic(LoxCallSite.class, "isDeclaration",
+					MethodType.methodType(boolean.class, Stmt.FuncStmt.class, Interpreter.class, Object.class));
+			COUNT = lookup.findStatic(LoxCallSite.class, "count", MethodType.methodType(void.class, Interpreter.class));
+			CALL = lookup.findVirtual(Callable.class, "call",
+					MethodType.methodType(Object.class, Interpreter.class, List.class));
+			CALL_FUNCTION = lookup.findStatic(LoxCallSite.class, "callFunction", TYPE);
+			RETHROW = lookup.findStatic(LoxCallSite.class, "rethrow",
+					MethodType.methodType(Object.class, Token.class, NativeError.class, Interpreter.class, List.class));
+			CALL_VALUE = lookup.findStatic(LoxCallSite.class, "callValue",
+					MethodType.methodType(Object.class, Token.class, Interpreter.class, Object.class, List.class));
+		}
+		catch (ReflectiveOperationException exp) {
+			throw new ExceptionInInitializerError(exp);
+		}
+	}
+
+	/* Closing parenthesis of the call, where errors are reported */
+	private final Token paren;
+
+	private int targets = 0;
+
+	LoxCallSite(Token paren) {
+		super(TYPE);
+		this.paren = paren;
+		setTarget(RELINK.bindTo(this));
+	}
+
+	/* relink: call @callee, which the guards did not recognize, and link the site to it */
+	private Object relink(Interpreter interpreter, Object callee, List<Object> args) {
+		Callable function = (Callable) callee;
+		SiteProfile profile = interpreter.siteProfile;
+		if (interpreter.profiler != null || targets == MAX_TARGETS
+				|| (targets == 0 && profile != null && profile.megamorphic(paren))) {
+			if (targets == MAX_TARGETS && profile != null) {
+				profile.recordMegamorphic(paren);
+			}
+			setTarget(MethodHandles.insertArguments(CALL_VALUE, 0, paren));
+		}
+		else if (function.arity() == args.size()) {
+			MethodHandle test = (function instanceof Function)
+					? IS_DECLARATION.bindTo(((Function) function).declaration) : IS_CALLEE.bindTo(callee);
+			setTarget(MethodHandles.guardWithTest(test, direct(function), getTarget()));
+			targets++;
+		}
+		return interpreter.callValue(paren, function, args);
+	}
+
+	/* direct: handle calling @function, counting the call and reporting errors of natives
+	 * A function is called as the callee the guard passed, which may be another copy of it. */
+	private MethodHandle direct(Callable function) {
+		if (function instanceof Function) {
+			return MethodHandles.foldArguments(CALL_FUNCTION, COUNT);
+		}
+
+		MethodHandle call = CALL.bindTo(function);
+		if (function instanceof NativeFunction) {
+			call = MethodHandles.catchException(call, NativeError.class, RETHROW.bindTo(paren));
+		}
+		call = MethodHandles.dropArguments(call, 1, Object.class);
+		return MethodHandles.foldArguments(call, COUNT);
+	}
+
+	private static boolean isCallee(Object expected, Interpreter interpreter, Object callee) {
+		return callee == expected;
+	}
+
+	private static boolean isDeclaration(Stmt.FuncStmt expected, Interpreter interpreter, Object callee) {
+		return callee instanceof Function && ((Function) callee).declaration == expected;
+	}
+
+	private static Object callFunction(Interpreter interpreter, Object callee, List<Object> args) {
+		return ((Function) callee).call(interpreter, args);
+	}
+
+	private static void count(Interpreter interpreter) {
+		interpreter.counters.calls++;
+	}
+
+	private static Object rethrow(Token paren, NativeError error, Interpreter interpreter, List<Object> args) {
+		throw new RuntimeError(paren, error.getMessage());
+	}
+
+	private static Object callValue(Token paren, Interpreter interpreter, Object callee, List<Object> args) {
+		return interpreter.callValue(paren, (Callable) callee, args);
+	}
+}
@@ -19,14 +19,30 @@ public class LoxClass implements Callable {
 	}
 	
 	public Object call(Interpreter interpreter, List<Object> args) {
-		Instance instance = new Instance(this);
-		
-		// Call the constructor
-		Function constructor = findMethod("init");
-		if (constructor != null) {
-			constructor.bind(instance).call(interpreter, args);
+		Profiler profiler = interpreter.profiler;
+		if (profiler != null) {
+			profiler.enter(this);
+		}
+
+		try {
+			Instance instance = new Instance(this);
+			interpreter.counters.instances++;
+			interpreter.recordAllocation(AllocationProfiler.Kind.INSTANCE);
+
+			// Call the constructor
+			Function constructor = findMethod("init");
+			if (constructor != null) {
+				interpreter.counters.environments++;
+				interpreter.recordAllocation(AllocationProfiler.Kind.BOUND_METHOD);
+				constructor.bind(instance).call(interpreter, args);
+			}
+			return instance;
+		}
+		finally {
+			if (profiler != null) {
+				profiler.exit();
+			}
 		}
-		return instance;
 	}
 	
 	public int arity() {
@@ -0,0 +1,258 @@
+package interpreter;
+
+/* LoxMap: built-in hash map
+ *
+ * Open addressing with linear probing over parallel key, value and hash arrays, so an entry costs
+ * no object of its own. Lookups of string and number keys, the common cases, compare the cached
+ * hash first and never go through a virtual equals(). Removal shifts the following entries of the
+ * probe sequence back instead of leaving tombstones.
+ *
+ * The largest table cannot grow, so it keeps one slot free: every probe sequence ends at an empty
+ * slot, and a map holding capacity - 1 entries refuses new keys. */
+public class LoxMap {
+	private static final int MIN_CAPACITY = 8;
+
+	/* Largest table, the largest power of two an array can have */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/* Entries a map can be sized for, those of the largest table at its load factor */
+	static final int MAX_EXPECTED = MAX_CAPACITY / 4 * 3;
+
+	/* Stands for the 'nil' key, since an empty slot is a null key */
+	private static final Object NIL_KEY = new Object();
+
+	private Object[] keys;
+	private Object[] values;
+	private int[] hashes;
+	private int mask;
+	private int size = 0;
+	private int resizeAt;
+
+	/* @expected: number of entries the map should hold without growing, at most MAX_EXPECTED */
+	LoxMap(int expected) {
+		long capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected && capacity < MAX_CAPACITY) {
+			capacity <<= 1;
+		}
+		allocate((int) capacity);
+	}
+
+	/* allocate: switch to empty arrays of @capacity, left unchanged when they cannot be allocated */
+	private void allocate(int capacity) {
+		Object[] newKeys = new Object[capacity];
+		Object[] newValues = new Object[capacity];
+		int[] newHashes = new int[capacity];
+		keys = newKeys;
+		values = newValues;
+		hashes = newHashes;
+		mask = capacity - 1;
+		resizeAt = capacity / 4 * 3;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int hashOf(Object key) {
+		if (key instanceof String) {
+			return mix(key.hashCode());
+		}
+		if (key instanceof Double) {
+			return hashOfNumber((double) key);
+		}
+		return mix(key.hashCode());
+	}
+
+	private static int hashOfNumber(double key) {
+		long bits = Double.doubleToLongBits(key);
+		return mix((int) (bits ^ (bits >>> 32)));
+	}
+
+	/* find: slot holding @key, or -(slot + 1) where @key would be inserted */
+	private int find(Object key) {
+		if (key == null) {
+			key = NIL_KEY;
+		}
+
+		if (key instanceof String) {
+			return findString((String) key, mix(key.hashCode()));
+		}
+		if (key instanceof Double) {
+			return findNumber((double) key);
+		}
+
+		int hash = mix(key.hashCode());
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			Object current = keys[slot];
+			if (current == null) {
+				return -(slot + 1);
+			}
+			if (hashes[slot] == hash && (current == key || key.equals(current))) {
+				return slot;
+			}
+		}
+	}
+
+	private int findString(String key, int hash) {
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			Object current = keys[slot];
+			if (current == null) {
+				return -(slot + 1);
+			}
+			if (hashes[slot] == hash && (current == key
+					|| (current instanceof String && key.equals((String) current)))) {
+				return slot;
+			}
+		}
+	}
+
+	private int findNumber(double key) {
+		int hash = hashOfNumber(key);
+		long bits = Double.doubleToLongBits(key);
+
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			Object current = keys[slot];
+			if (current == null) {
+				return -(slot + 1);
+			}
+			if (hashes[slot] == hash && current instanceof Double
+					&& Double.doubleToLongBits((double) current) == bits) {
+				return slot;
+			}
+		}
+	}
+
+	/* get: value bound to @key, or null (nil) when there is none */
+	Object get(Object key) {
+		int slot = find(key);
+		return (slot >= 0) ? values[slot] : null;
+	}
+
+	boolean has(Object key) {
+		return find(key) >= 0;
+	}
+
+	/* put: bind @key to @value, false when @key is new and the map is full
+	 * A map grows before taking a new key, so that one which cannot allocate its new table is
+	 * left as it was. */
+	boolean put(Object key, Object value) {
+		int slot = find(key);
+		if (slot >= 0) {
+			values[slot] = value;
+			return true;
+		}
+		if (size == keys.length - 1) {
+			return false;
+		}
+
+		/* The largest table fills up past its load factor instead of growing */
+		if (size + 1 > resizeAt && keys.length < MAX_CAPACITY) {
+			rehash(keys.length * 2);
+			slot = find(key);
+		}
+
+		if (key == null) {
+			key = NIL_KEY;
+		}
+		slot = -slot - 1;
+		keys[slot] = key;
+		values[slot] = value;
+		hashes[slot] = hashOf(key);
+		size++;
+		return true;
+	}
+
+	/* remove: unbind @key and return its value
+	 * The entries following the freed slot in its probe sequence are shifted back so that every
+	 * entry stays reachable from its home slot. */
+	Object remove(Object key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+
+		Object removed = values[slot];
+		int hole = slot;
+		for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+			int home = hashes[next] & mask;
+
+			/* The entry at @next may fill the hole unless its home lies cyclically in (hole, next] */
+			boolean reachable = (hole <= next) ? (hole < home && home <= next)
+											   : (hole < home || home <= next);
+			if (!reachable) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hashes[hole] = hashes[next];
+				hole = next;
+			}
+		}
+
+		keys[hole] = null;
+		values[hole] = null;
+		size--;
+		return removed;
+	}
+
+	private void rehash(int capacity) {
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] oldHashes = hashes;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == null) {
+				continue;
+			}
+
+			int slot = oldHashes[i] & mask;
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+
+	/* Slot-based iteration: slots range over [0, capacity()), a slot holds an entry when
+	 * keyAt() is not EMPTY. No Iterator object is involved. */
+	static final Object EMPTY = new Object();
+
+	int capacity() {
+		return keys.length;
+	}
+
+	Object keyAt(int slot) {
+		Object key = keys[slot];
+		if (key == null) {
+			return EMPTY;
+		}
+		return (key == NIL_KEY) ? null : key;
+	}
+
+	Object valueAt(int slot) {
+		return values[slot];
+	}
+
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int slot = 0; slot < keys.length; slot++) {
+			Object key = keyAt(slot);
+			if (key == EMPTY) {
+				continue;
+			}
+			if (builder.length() > 1) {
+				builder.append(", ");
+			}
+			builder.append(key == null ? "nil" : key.toString())
+				.append(": ")
+				.append(values[slot] == null ? "nil" : values[slot].toString());
+		}
+		return builder.append("}").toString();
+	}
+}
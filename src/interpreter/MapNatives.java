@@ -0,0 +1,98 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/* MapNatives: native functions on maps
+ * Maps are read and written with the index syntax, m[key] and m[key] = value.
+ *
+ * newMap()              empty map
+ * newMapSized(count)    empty map able to hold @count entries without growing
+ * mapHas(map, key)      whether @key is bound in @map
+ * mapRemove(map, key)   unbind @key, return its former value
+ * mapKeys(map)          array of the keys of @map
+ * mapEach(map, fn)      call @fn with every key and value of @map
+ * len() also accepts maps. */
+class MapNatives {
+	static void define(Environment global) {
+		global.define("newMap", new NativeFunction("newMap", 0) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				return new LoxMap(0);
+			}
+		});
+
+		global.define("newMapSized", new NativeFunction("newMapSized", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				int expected = ArrayNatives.checkCount(name, args.get(0));
+				if (expected > LoxMap.MAX_EXPECTED) {
+					throw new NativeError(name + "() expects at most " + LoxMap.MAX_EXPECTED + " entries.");
+				}
+				try {
+					return new LoxMap(expected);
+				}
+				catch (OutOfMemoryError error) {
+					throw new NativeError(name + "() cannot allocate a map of " + expected + " entries.");
+				}
+			}
+		});
+
+		global.define("mapHas", new NativeFunction("mapHas", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				return checkMap(name, args.get(0)).has(args.get(1));
+			}
+		});
+
+		global.define("mapRemove", new NativeFunction("mapRemove", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				return checkMap(name, args.get(0)).remove(args.get(1));
+			}
+		});
+
+		global.define("mapKeys", new NativeFunction("mapKeys", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxMap map = checkMap(name, args.get(0));
+				LoxArray keys = new LoxArray(map.size());
+				for (int slot = 0; slot < map.capacity(); slot++) {
+					Object key = map.keyAt(slot);
+					if (key != LoxMap.EMPTY) {
+						keys.push(key);
+					}
+				}
+				return keys;
+			}
+		});
+
+		global.define("mapEach", new NativeFunction("mapEach", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxMap map = checkMap(name, args.get(0));
+				if (!(args.get(1) instanceof Callable) || ((Callable) args.get(1)).arity() != 2) {
+					throw new NativeError("mapEach() expects a function of two arguments.");
+				}
+
+				Callable function = (Callable) args.get(1);
+
+				/* The argument list is reused for every entry, callees do not keep it.
+				 * Entries added by @function while iterating may or may not be visited. */
+				Object[] entry = new Object[2];
+				List<Object> entryArgs = Arrays.asList(entry);
+				for (int slot = 0; slot < map.capacity(); slot++) {
+					Object key = map.keyAt(slot);
+					if (key == LoxMap.EMPTY) {
+						continue;
+					}
+					entry[0] = key;
+					entry[1] = map.valueAt(slot);
+					function.call(interpreter, entryArgs);
+				}
+				return null;
+			}
+		});
+	}
+
+	static LoxMap checkMap(String function, Object value) {
+		if (!(value instanceof LoxMap)) {
+			throw new NativeError(function + "() expects a map.");
+		}
+		return (LoxMap) value;
+	}
+}
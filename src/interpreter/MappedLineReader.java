@@ -0,0 +1,100 @@
+package interpreter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* MappedLineReader: LineReader over a memory-mapped file
+ *
+ * The file is mapped one window at a time, so reading a file larger than the heap (or than the
+ * 2 GiB limit of a single mapping) runs in constant memory. Bytes are only decoded into a String
+ * when a line is actually requested. */
+class MappedLineReader extends LineReader {
+	static final int DEFAULT_WINDOW = 1 << 26;
+
+	private final FileChannel channel;
+	private final long size;
+	private int windowSize;
+
+	/* @window: currently mapped region, starting at file offset @windowStart
+	 * @position: file offset of the next line */
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long position = 0;
+
+	/* @scratch: reused buffer holding the bytes of the line being decoded */
+	private byte[] scratch = new byte[256];
+
+	MappedLineReader(String name, FileChannel channel, int windowSize) throws IOException {
+		super(name);
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	static MappedLineReader open(String path) throws IOException {
+		FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+		return new MappedLineReader(path, channel, DEFAULT_WINDOW);
+	}
+
+	String readLine() throws IOException {
+		while (position < size) {
+			if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+				map(position);
+			}
+
+			int offset = (int) (position - windowStart);
+			int limit = window.limit();
+
+			for (int i = offset; i < limit; i++) {
+				if (window.get(i) == '\n') {
+					position = windowStart + i + 1;
+					return decode(offset, i);
+				}
+			}
+
+			if (windowStart + limit == size) {
+				/* The last line has no terminator */
+				position = size;
+				return decode(offset, limit);
+			}
+
+			/* The line crosses the end of the window: map again from its first byte, with a
+			 * larger window if the line alone does not fit in it */
+			if (offset == 0) {
+				windowSize = (int) Math.min((long) windowSize * 2, Integer.MAX_VALUE);
+			}
+			map(position);
+		}
+
+		return null;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+	}
+
+	/* decode: build the line made of window bytes [from, to), dropping a trailing '\r' */
+	private String decode(int from, int to) {
+		if (to > from && window.get(to - 1) == '\r') {
+			to--;
+		}
+
+		int length = to - from;
+		if (length > scratch.length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		window.get(from, scratch, 0, length);
+
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,72 @@
+package interpreter;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/* Metrics: interpreter counters exposed as the MBean "nad.interpreter:type=Metrics"
+ *
+ * Every attribute is the sum of the Counters of all interpreter threads, computed when it is
+ * read. The call depth is the number of Lox functions being executed by all threads, i.e. the
+ * call depth of the interpreter when there is a single one. */
+public final class Metrics implements MetricsMBean {
+	static final String NAME = "nad.interpreter:type=Metrics";
+
+	private Metrics() {
+	}
+
+	/* register: make the metrics visible in the platform MBean server, once */
+	public static synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new Metrics(), name);
+			}
+		}
+		catch (JMException exp) {
+			throw new IllegalStateException("Cannot register " + NAME, exp);
+		}
+	}
+
+	public long getStatementsExecuted() {
+		long total = 0;
+		for (Counters counters : Counters.all()) {
+			total += counters.statements;
+		}
+		return total;
+	}
+
+	public long getCalls() {
+		long total = 0;
+		for (Counters counters : Counters.all()) {
+			total += counters.calls;
+		}
+		return total;
+	}
+
+	public long getEnvironmentAllocations() {
+		long total = 0;
+		for (Counters counters : Counters.all()) {
+			total += counters.environments;
+		}
+		return total;
+	}
+
+	public long getInstanceAllocations() {
+		long total = 0;
+		for (Counters counters : Counters.all()) {
+			total += counters.instances;
+		}
+		return total;
+	}
+
+	public int getCallDepth() {
+		int total = 0;
+		for (Counters counters : Counters.all()) {
+			total += counters.depth;
+		}
+		return total;
+	}
+}
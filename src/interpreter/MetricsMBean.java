@@ -0,0 +1,14 @@
+package interpreter;
+
+/* MetricsMBean: management interface of the interpreter metrics, see Metrics */
+public interface MetricsMBean {
+	long getStatementsExecuted();
+
+	long getCalls();
+
+	long getEnvironmentAllocations();
+
+	long getInstanceAllocations();
+
+	int getCallDepth();
+}
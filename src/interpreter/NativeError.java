@@ -0,0 +1,10 @@
+package interpreter;
+
+/* NativeError: error raised by a native function
+ * Natives do not know the token of their call site, so the interpreter catches this exception in
+ * visitCall() and reports it as a RuntimeError on the call's closing parenthesis. */
+public class NativeError extends RuntimeException {
+	public NativeError(String msg) {
+		super(msg);
+	}
+}
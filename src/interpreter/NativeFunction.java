@@ -0,0 +1,22 @@
+package interpreter;
+
+/* NativeFunction: base class of functions implemented in Java
+ * Subclasses only implement call(), failures are reported by throwing a NativeError which the
+ * interpreter turns into a RuntimeError pointing at the call site. */
+abstract class NativeFunction implements Callable {
+	final String name;
+	private final int arity;
+
+	NativeFunction(String name, int arity) {
+		this.name = name;
+		this.arity = arity;
+	}
+
+	public int arity() {
+		return arity;
+	}
+
+	public String toString() {
+		return "<native fn>";
+	}
+}
@@ -0,0 +1,30 @@
+package interpreter;
+
+/* Node: executable node of the self-specializing engine, see NodeInterpreter
+ *
+ * Nodes are built from the resolved AST and keep a pointer to their parent, so that a node can
+ * replace itself in the tree once it has seen the values it works on: the parent swaps the child
+ * in place and every later execution goes to the replacement directly. */
+abstract class Node {
+	Node parent = null;
+
+	/* adopt: make this node the parent of @child, which may be null */
+	<T extends Node> T adopt(T child) {
+		if (child != null) {
+			child.parent = this;
+		}
+		return child;
+	}
+
+	/* replace: put @replacement in the place of this node in its parent */
+	<T extends ExprNode> T replace(T replacement) {
+		replacement.parent = parent;
+		parent.replaceChild((ExprNode) this, replacement);
+		return replacement;
+	}
+
+	/* replaceChild: swap the child @child of this node for @replacement */
+	void replaceChild(ExprNode child, ExprNode replacement) {
+		throw new IllegalStateException(getClass().getSimpleName() + " has no rewritable child.");
+	}
+}
@@ -0,0 +1,243 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* NodeInterpreter: tree-walking engine over self-specializing nodes, for --engine=nodes
+ *
+ * The resolved AST is turned into a tree of ExprNode and StmtNode, where the resolver's depths
+ * are already looked up and operators rewrite themselves for the operand types they see (see
+ * ExprNode). Nodes receive the current Environment as an argument instead of dispatching through
+ * the visitors, so Functions, classes, instances and natives are shared with Interpreter: a
+ * Function's body is built into nodes the first time it is called and kept for later calls. */
+final class NodeInterpreter extends Interpreter {
+	/* Bodies of the functions called so far, built into nodes */
+	private final Map<Stmt.Block, StmtNode.Block> bodies = new IdentityHashMap<>();
+
+	private final Builder builder = new Builder();
+
+	NodeInterpreter() {
+		super();
+	}
+
+	@Override
+	public void interpret(List<Stmt> stmts) {
+		try {
+			for (Stmt stmt : stmts) {
+				if (stmt != null) {
+					Object completion = execute(builder.build(stmt), environment);
+					if (completion != null) {
+						throw (RuntimeException) completion;
+					}
+				}
+			}
+		}
+		catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		}
+	}
+
+	/* executeBody: run the body of a Function in its frame, without throwing its ReturnValue */
+	@Override
+	Object executeBody(Stmt.Block block, Environment frame) {
+		StmtNode.Block body = bodies.get(block);
+		if (body == null) {
+			body = (StmtNode.Block) builder.build(block);
+			bodies.put(block, body);
+		}
+
+		Object completion = body.executeIn(frame);
+		if (completion instanceof ReturnValue) {
+			return ((ReturnValue) completion).value;
+		}
+		if (completion != null) {
+			throw (LoopException) completion;
+		}
+		return null;
+	}
+
+	@Override
+	void executeBlock(Stmt.Block block, Environment env) {
+		executeBody(block, env);
+	}
+
+	/* execute: run a statement, null or its completion, see StmtNode */
+	Object execute(StmtNode node, Environment env) {
+		if (node == null) {
+			return null;
+		}
+
+		counters.statements++;
+		CallStack callStack = this.callStack;
+		if (callStack != null) {
+			callStack.statements[callStack.depth] = node.stmt;
+		}
+		return node.execute(env);
+	}
+
+	/* Builder: turns resolved statements and expressions into nodes */
+	private final class Builder implements Stmt.Visitor<StmtNode>, Expr.Visitor<ExprNode> {
+		private final NodeInterpreter engine = NodeInterpreter.this;
+
+		StmtNode build(Stmt stmt) {
+			return (stmt == null) ? null : stmt.accept(this);
+		}
+
+		ExprNode build(Expr expr) {
+			return (expr == null) ? null : expr.accept(this);
+		}
+
+		private ExprNode[] build(List<Expr> exprs) {
+			ExprNode[] nodes = new ExprNode[exprs.size()];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = build(exprs.get(i));
+			}
+			return nodes;
+		}
+
+		/* Statements */
+
+		public StmtNode visitExpression(Stmt.Expression stmt) {
+			return new StmtNode.Expression(engine, stmt, build(stmt.expression));
+		}
+
+		public StmtNode visitPrint(Stmt.Print stmt) {
+			return new StmtNode.Print(engine, stmt, build(stmt.expression));
+		}
+
+		public StmtNode visitVarStmt(Stmt.VarStmt stmt) {
+			return new StmtNode.Var(stmt, build(stmt.init));
+		}
+
+		/* A null statement, as left by a 'for' without initializer, is dropped */
+		public StmtNode visitBlock(Stmt.Block stmt) {
+			int count = 0;
+			StmtNode[] statements = new StmtNode[stmt.statements.size()];
+			for (Stmt statement : stmt.statements) {
+				if (statement != null) {
+					statements[count++] = build(statement);
+				}
+			}
+			if (count < statements.length) {
+				statements = Arrays.copyOf(statements, count);
+			}
+			return new StmtNode.Block(engine, stmt, statements);
+		}
+
+		public StmtNode visitConditional(Stmt.Conditional stmt) {
+			return new StmtNode.Conditional(engine, stmt, build(stmt.expr), build(stmt.thenBranch),
+					build(stmt.elseBranch));
+		}
+
+		public StmtNode visitWhile(Stmt.While stmt) {
+			return new StmtNode.While(engine, stmt, build(stmt.expr), build(stmt.body), build(stmt.increment));
+		}
+
+		public StmtNode visitFuncStmt(Stmt.FuncStmt stmt) {
+			return new StmtNode.FuncDecl(stmt);
+		}
+
+		public StmtNode visitReturn(Stmt.Return stmt) {
+			return new StmtNode.Return(stmt, build(stmt.expr));
+		}
+
+		public StmtNode visitJump(Stmt.Jump stmt) {
+			return new StmtNode.Jump(stmt);
+		}
+
+		public StmtNode visitClass(Stmt.Class stmt) {
+			return new StmtNode.Class(engine, stmt, build(stmt.superclass));
+		}
+
+		/* Expressions */
+
+		public ExprNode visitBinary(Expr.Binary expr) {
+			ExprNode left = build(expr.left);
+			ExprNode right = build(expr.right);
+			if (expr.op.type == TokenType.AND || expr.op.type == TokenType.OR) {
+				return new ExprNode.Logical(expr.op.type == TokenType.AND, left, right);
+			}
+			String types = (engine.siteProfile == null) ? null : engine.siteProfile.operands(expr.op);
+			if (types != null) {
+				return ExprNode.Uninitialized.forTypes(engine, expr.op, types, left, right);
+			}
+			return new ExprNode.Uninitialized(engine, expr.op, left, right);
+		}
+
+		public ExprNode visitUnary(Expr.Unary expr) {
+			return new ExprNode.Unary(expr.op, build(expr.exp));
+		}
+
+		public ExprNode visitGrouping(Expr.Grouping expr) {
+			return build(expr.exp);
+		}
+
+		public ExprNode visitLiteral(Expr.Literal expr) {
+			return new ExprNode.Literal(expr.litValue);
+		}
+
+		public ExprNode visitTernary(Expr.Ternary expr) {
+			return new ExprNode.Ternary(build(expr.condition), build(expr.ifTrue), build(expr.ifFalse));
+		}
+
+		public ExprNode visitVariable(Expr.Variable expr) {
+			Integer depth = depthOf(expr);
+			if (depth == null) {
+				return new ExprNode.GlobalRead(globals.cell(expr.name.lexeme), expr.name);
+			}
+			return new ExprNode.LocalRead(expr.name, depth);
+		}
+
+		public ExprNode visitAssign(Expr.Assign expr) {
+			Integer depth = depthOf(expr);
+			if (depth == null) {
+				return new ExprNode.GlobalAssign(engine, expr.name, expr.op, build(expr.value));
+			}
+			return new ExprNode.LocalAssign(engine, expr.name, expr.op, depth, build(expr.value));
+		}
+
+		public ExprNode visitCall(Expr.Call expr) {
+			return new ExprNode.Call(engine, build(expr.callee), expr.paren, build(expr.args));
+		}
+
+		public ExprNode visitGet(Expr.Get expr) {
+			return new ExprNode.Get(engine, build(expr.object), expr.field);
+		}
+
+		public ExprNode visitSet(Expr.Set expr) {
+			return new ExprNode.Set(build(expr.object), expr.field, build(expr.value));
+		}
+
+		/* 'this' is always resolved inside a class, the resolver rejects it anywhere else */
+		public ExprNode visitThis(Expr.This expr) {
+			Integer depth = depthOf(expr);
+			if (depth == null) {
+				return new ExprNode.GlobalRead(globals.cell(expr.keyword.lexeme), expr.keyword);
+			}
+			return new ExprNode.LocalRead(expr.keyword, depth);
+		}
+
+		public ExprNode visitFunction(Expr.Function expr) {
+			return new ExprNode.Lambda(expr);
+		}
+
+		public ExprNode visitSuper(Expr.Super expr) {
+			return new ExprNode.Super(engine, expr.keyword, expr.method, depthOf(expr));
+		}
+
+		public ExprNode visitArrayLiteral(Expr.ArrayLiteral expr) {
+			return new ExprNode.ArrayLiteral(build(expr.elements));
+		}
+
+		public ExprNode visitIndex(Expr.Index expr) {
+			return new ExprNode.Index(build(expr.object), expr.bracket, build(expr.index));
+		}
+
+		public ExprNode visitIndexSet(Expr.IndexSet expr) {
+			return new ExprNode.IndexSet(engine, build(expr.object), expr.bracket, build(expr.index),
+					build(expr.value), expr.op);
+		}
+	}
+}
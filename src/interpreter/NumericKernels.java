@@ -0,0 +1,46 @@
+package interpreter;
+
+/* NumericKernels: bulk operations over the first @length elements of double arrays
+ *
+ * The SIMD implementation needs the incubating jdk.incubator.vector module, which is only present
+ * when the JVM is started with '--add-modules jdk.incubator.vector'. Without it, or with
+ * -Dlox.vector=false, the scalar implementation is used. Both round every product before adding
+ * it, never fusing a multiply and an add, so element-wise operations give the same bits whichever
+ * runs, and whether an element falls in a whole vector or in the tail. Reductions may still round
+ * differently from one implementation to the other since they add the elements in another order. */
+interface NumericKernels {
+	NumericKernels INSTANCE = select();
+
+	double sum(double[] a, int length);
+
+	double dot(double[] a, double[] b, int length);
+
+	/* axpy: y = alpha * x + y */
+	void axpy(double alpha, double[] x, double[] y, int length);
+
+	void add(double[] a, double[] b, double[] out, int length);
+
+	void multiply(double[] a, double[] b, double[] out, int length);
+
+	/* min, max: @length must be positive */
+	double min(double[] a, int length);
+
+	double max(double[] a, int length);
+
+	private static NumericKernels select() {
+		boolean available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+		if (!available || !Boolean.parseBoolean(System.getProperty("lox.vector", "true"))) {
+			return new ScalarKernels();
+		}
+
+		try {
+			/* Loaded reflectively so that the scalar path never links against the vector API */
+			return (NumericKernels) Class.forName("interpreter.VectorKernels")
+										 .getDeclaredConstructor()
+										 .newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError exp) {
+			return new ScalarKernels();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/* OutputSink: buffered destination of the 'print' statement
+ *
+ * Lines are written in the charset and with the line separator System.out uses. When that
+ * charset is UTF-8, values are encoded straight into a byte buffer, so printing a number or a
+ * string does not create an intermediate String; other charsets go through String.getBytes().
+ * The buffer is handed to the underlying stream according to the flush policy, when it is full,
+ * or when flush() is called explicitly. */
+public class OutputSink {
+	/* @THRESHOLD: flush as soon as half the buffer is used, when it is full, on explicit flush()
+	 * and when the interpreter exits
+	 * @LINE: flush after every line, used by the REPL when it is attached to a terminal */
+	public enum FlushPolicy {
+		THRESHOLD, LINE,
+	}
+
+	private static final int CAPACITY = 1 << 16;
+	private static final int THRESHOLD = CAPACITY / 2;
+
+	/* Charset of System.out: the one of the terminal, if any, else the default one */
+	private static final Charset CHARSET = stdoutCharset();
+	private static final boolean UTF8 = CHARSET.equals(StandardCharsets.UTF_8);
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+	/* Integral doubles below this bound are printed by Double.toString() as "<digits>.0" */
+	private static final double PLAIN_NUMBER_BOUND = 1e7;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[CAPACITY];
+	private final byte[] digits = new byte[20];
+	private int count = 0;
+	private FlushPolicy policy;
+
+	public OutputSink(OutputStream out, FlushPolicy policy) {
+		this.out = out;
+		this.policy = policy;
+	}
+
+	public void setPolicy(FlushPolicy policy) {
+		this.policy = policy;
+	}
+
+	private static Charset stdoutCharset() {
+		String encoding = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+		try {
+			if (encoding != null) {
+				return Charset.forName(encoding);
+			}
+		}
+		catch (IllegalArgumentException exp) {
+			/* Unknown or unsupported: as PrintStream, fall back to the default */
+		}
+		return Charset.defaultCharset();
+	}
+
+	/* println: write the textual representation of a Lox value followed by a line separator */
+	public void println(Object value) {
+		print(value);
+		for (byte b : LINE_SEPARATOR) {
+			write(b);
+		}
+
+		if (policy == FlushPolicy.LINE || count >= THRESHOLD) {
+			flush();
+		}
+	}
+
+	public void print(Object value) {
+		if (!UTF8) {
+			writeBytes(String.valueOf(value == null ? "nil" : value).getBytes(CHARSET));
+		}
+		else if (value == null) {
+			writeAscii("nil");
+		}
+		else if (value instanceof Double) {
+			printNumber((double) value);
+		}
+		else if (value instanceof String) {
+			writeString((String) value);
+		}
+		else if (value instanceof Boolean) {
+			writeAscii((boolean) value ? "true" : "false");
+		}
+		else {
+			writeString(value.toString());
+		}
+	}
+
+	/* printNumber: write a number exactly as Double.toString() would
+	 * Integral values in the plain range (the common case) are written digit by digit, the
+	 * others fall back to Double.toString(). Negative zero is excluded from the fast path. */
+	private void printNumber(double value) {
+		long integral = (long) value;
+
+		if (integral != value || value <= -PLAIN_NUMBER_BOUND || value >= PLAIN_NUMBER_BOUND
+				|| (integral == 0 && Double.doubleToRawLongBits(value) != 0L)) {
+			writeAscii(Double.toString(value));
+			return;
+		}
+
+		if (integral < 0) {
+			write('-');
+			integral = -integral;
+		}
+
+		int pos = digits.length;
+		do {
+			digits[--pos] = (byte) ('0' + integral % 10);
+			integral /= 10;
+		}
+		while (integral != 0);
+
+		while (pos < digits.length) {
+			write(digits[pos++]);
+		}
+		write('.');
+		write('0');
+	}
+
+	private void writeAscii(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			write((byte) str.charAt(i));
+		}
+	}
+
+	/* writeString: encode @str as UTF-8 into the buffer */
+	private void writeString(String str) {
+		int length = str.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+
+			if (c < 0x80) {
+				write((byte) c);
+			}
+			else if (c < 0x800) {
+				write((byte) (0xC0 | (c >> 6)));
+				write((byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, str.charAt(++i));
+				write((byte) (0xF0 | (codePoint >> 18)));
+				write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				write((byte) (0x80 | (codePoint & 0x3F)));
+			}
+			else {
+				write((byte) (0xE0 | (c >> 12)));
+				write((byte) (0x80 | ((c >> 6) & 0x3F)));
+				write((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private void writeBytes(byte[] bytes) {
+		for (byte b : bytes) {
+			write(b);
+		}
+	}
+
+	private void write(char c) {
+		write((byte) c);
+	}
+
+	private void write(byte b) {
+		if (count == buffer.length) {
+			drain();
+		}
+		buffer[count++] = b;
+	}
+
+	private void drain() {
+		try {
+			out.write(buffer, 0, count);
+		}
+		catch (IOException exp) {
+			throw new UncheckedIOException(exp);
+		}
+		count = 0;
+	}
+
+	/* flush: hand every buffered byte to the underlying stream */
+	public void flush() {
+		drain();
+		try {
+			out.flush();
+		}
+		catch (IOException exp) {
+			throw new UncheckedIOException(exp);
+		}
+	}
+}
@@ -351,7 +351,8 @@ public class Parser {
 
 		if (scanTokenIfMatch(TokenType.ASGN, TokenType.INC_ASGN, TokenType.DEC_ASGN)) {
 			if (!(left instanceof Expr.Variable
-					|| left instanceof Expr.Get)) {
+					|| left instanceof Expr.Get
+					|| left instanceof Expr.Index)) {
 				throw error(previous(), "Invalid left-hand side in the assignment expression.");
 			}
 
@@ -361,6 +362,10 @@ public class Parser {
 			if (left instanceof Expr.Variable) {
 				left = new Expr.Assign(((Expr.Variable)left).name, asgnExpr, op);				
 			}
+			else if (left instanceof Expr.Index) {
+				Expr.Index index = (Expr.Index) left;
+				left = new Expr.IndexSet(index.object, index.bracket, index.index, asgnExpr, op);
+			}
 			else {
 				left = constructSetExpr((Expr.Get) left, asgnExpr);
 			}
@@ -492,6 +497,12 @@ public class Parser {
 				Token property = consume(TokenType.IDENTIFIER, "Expect an identifier after '.'.");
 				callee = new Expr.Get(callee, property);
 			}
+			else if (scanTokenIfMatch(TokenType.LEFT_SQUARE)) {
+				Token bracket = previous();
+				Expr index = scanExpr();
+				consume(TokenType.RIGHT_SQUARE, "Expect ']' after the index.");
+				callee = new Expr.Index(callee, bracket, index);
+			}
 			else {
 				break;
 			}
@@ -529,8 +540,13 @@ public class Parser {
 			return new Expr.Literal(false);
 		if (scanTokenIfMatch(TokenType.NIL))
 			return new Expr.Literal(null);
-		if (scanTokenIfMatch(TokenType.NUM, TokenType.STR_LIT))
-			return new Expr.Literal(previous().literal);
+		if (scanTokenIfMatch(TokenType.NUM))
+			return new Expr.Literal(Double.parseDouble(previous().lexeme));
+		if (scanTokenIfMatch(TokenType.STR_LIT)) {
+			/* The lexeme is the string between its quotes */
+			String lexeme = previous().lexeme;
+			return new Expr.Literal(lexeme.substring(1, lexeme.length() - 1));
+		}
 		if (scanTokenIfMatch(TokenType.LEFT_PAREN)) {
 			Expr innerExpr = scanExpr();
 			consume(TokenType.RIGHT_PAREN, "Expect token ')'.");
@@ -553,6 +569,8 @@ public class Parser {
 		}
 		if (scanTokenIfMatch(TokenType.FUNC))
 			return funcExpr();
+		if (scanTokenIfMatch(TokenType.LEFT_SQUARE))
+			return arrayLiteral();
 		throw error(previous(), "Expect an expression.");
 	}
 
@@ -577,6 +595,23 @@ public class Parser {
 		return new Expr.Function(body, args);
 	}
 
+	/* arrayLiteral: parse an array literal
+	 * Syntax: [<expression>, <expression>, ...] */
+	private Expr.ArrayLiteral arrayLiteral() {
+		Token bracket = previous();
+		List<Expr> elements = new ArrayList<>();
+
+		if (getCurrToken().type != TokenType.RIGHT_SQUARE) {
+			do {
+				elements.add(assignment());
+			}
+			while (scanTokenIfMatch(TokenType.COMMA));
+		}
+
+		consume(TokenType.RIGHT_SQUARE, "Expect ']' after array elements.");
+		return new Expr.ArrayLiteral(bracket, elements);
+	}
+
 	/* consume: Check if the next token belongs to 'type', if it does
 	 * not, throw an error.
 	 *  */
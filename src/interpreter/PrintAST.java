@@ -68,6 +68,26 @@ public class PrintAST implements Expr.Visitor<String> {
 		return "<anonymous func>";
 	}
 
+	public String visitArrayLiteral(Expr.ArrayLiteral expr) {
+		String elementsStr = "[";
+		for (int i = 0; i < expr.elements.size(); i++) {
+			if (i != 0) {
+				elementsStr += ", ";
+			}
+			elementsStr += expr.elements.get(i).accept(this);
+		}
+		return elementsStr + "]";
+	}
+
+	public String visitIndex(Expr.Index expr) {
+		return "(" + expr.object.accept(this) + "[" + expr.index.accept(this) + "])";
+	}
+
+	public String visitIndexSet(Expr.IndexSet expr) {
+		return "(" + expr.object.accept(this) + "[" + expr.index.accept(this) + "] "
+				+ expr.op.lexeme + " " + expr.value.accept(this) + ")";
+	}
+
 	public String visitThis(Expr.This _this) {
 		return "this";
 	}
@@ -77,9 +97,9 @@ public class PrintAST implements Expr.Visitor<String> {
 	}
 	
 	public static void main(String[] args) {
-		Expr.Unary expr1 = new Expr.Unary(new Token(TokenType.MINUS, "-", null, 0), new Expr.Literal(123));
-		Expr.Unary expr2 = new Expr.Unary(new Token(TokenType.NOT, "!", null, 0), new Expr.Literal(false));
-		Expr.Binary expr3 = new Expr.Binary(expr1, expr2, new Token(TokenType.PLUS, "+", null, 0));
+		Expr.Unary expr1 = new Expr.Unary(new Token(TokenType.MINUS, "-", 0), new Expr.Literal(123));
+		Expr.Unary expr2 = new Expr.Unary(new Token(TokenType.NOT, "!", 0), new Expr.Literal(false));
+		Expr.Binary expr3 = new Expr.Binary(expr1, expr2, new Token(TokenType.PLUS, "+", 0));
 		System.out.println(expr1.accept(new PrintAST()));
 		System.out.println(expr2.accept(new PrintAST()));
 		System.out.println(expr3.accept(new PrintAST()));
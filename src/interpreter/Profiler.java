@@ -0,0 +1,265 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/* Profiler: per-function profile of a run, enabled with --profile
+ *
+ * Function.call(), LoxClass.call() and calls of natives report to the profiler through enter()
+ * and exit() when Interpreter.profiler is set; with profiling off the hooks cost a null check.
+ * Calls are recorded in a call tree whose nodes are keyed by the identity of the callee (the
+ * body of a function, a class, a native), so once a call path has been seen the hooks
+ * allocate nothing. Per function it keeps the call count, inclusive and self wall time and the
+ * bytes allocated by the interpreter thread.
+ *
+ * A function calling itself directly stays in its caller's node, which counts every level of the
+ * recursion. Mutual recursion still gets a node per level, so the tree can be as deep as the
+ * script's stack: the report walks it with explicit stacks rather than recursive calls. */
+final class Profiler {
+	/* A call path of the call tree */
+	private static final class Node {
+		final Object key;
+		final Stats stats;
+		final Map<Object, Node> children = new IdentityHashMap<>();
+		long calls = 0;
+		long selfNanos = 0;
+		long selfBytes = 0;
+
+		Node(Object key, Stats stats) {
+			this.key = key;
+			this.stats = stats;
+		}
+	}
+
+	/* Totals of one function over all its call paths */
+	private static final class Stats {
+		final String name;
+		long calls = 0;
+		long inclusiveNanos = 0;
+		long selfNanos = 0;
+		long selfBytes = 0;
+
+		/* Activations of the function on the stack, recursive calls are timed once */
+		int active = 0;
+
+		Stats(String name) {
+			this.name = name;
+		}
+	}
+
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final Map<Object, Stats> functions = new IdentityHashMap<>();
+	private final Node root = new Node(null, new Stats("<script>"));
+	private Node current = root;
+
+	/* Per activation: node of the caller, start time and allocation counter, time and bytes
+	 * spent in callees */
+	private Node[] callers = new Node[64];
+	private long[] startNanos = new long[64];
+	private long[] startBytes = new long[64];
+	private long[] childNanos = new long[64];
+	private long[] childBytes = new long[64];
+	private int depth = 0;
+
+	private final long runStartNanos;
+	private final long runStartBytes;
+	private long runEndNanos;
+	private long runEndBytes;
+
+	Profiler() {
+		runStartNanos = runEndNanos = System.nanoTime();
+		runStartBytes = runEndBytes = threads.getCurrentThreadAllocatedBytes();
+	}
+
+	/* enter: @callee is being called from the current call path */
+	void enter(Callable callee) {
+		Object key = keyOf(callee);
+
+		Node node = (current.key == key) ? current : current.children.get(key);
+		if (node == null) {
+			Stats stats = functions.get(key);
+			if (stats == null) {
+				stats = new Stats(nameOf(callee));
+				functions.put(key, stats);
+			}
+			node = new Node(key, stats);
+			current.children.put(key, node);
+		}
+
+		if (depth == startNanos.length) {
+			callers = Arrays.copyOf(callers, depth * 2);
+			startNanos = Arrays.copyOf(startNanos, depth * 2);
+			startBytes = Arrays.copyOf(startBytes, depth * 2);
+			childNanos = Arrays.copyOf(childNanos, depth * 2);
+			childBytes = Arrays.copyOf(childBytes, depth * 2);
+		}
+
+		callers[depth] = current;
+		childNanos[depth] = 0;
+		childBytes[depth] = 0;
+		startBytes[depth] = threads.getCurrentThreadAllocatedBytes();
+		startNanos[depth] = System.nanoTime();
+		depth++;
+
+		node.stats.active++;
+		current = node;
+	}
+
+	/* exit: the callee of the matching enter() returns, normally or by an exception */
+	void exit() {
+		long elapsed = System.nanoTime() - startNanos[--depth];
+		long allocated = threads.getCurrentThreadAllocatedBytes() - startBytes[depth];
+
+		Node node = current;
+		long selfNanos = elapsed - childNanos[depth];
+		long selfBytes = allocated - childBytes[depth];
+		node.calls++;
+		node.selfNanos += selfNanos;
+		node.selfBytes += selfBytes;
+
+		Stats stats = node.stats;
+		stats.calls++;
+		stats.selfNanos += selfNanos;
+		stats.selfBytes += selfBytes;
+		if (--stats.active == 0) {
+			stats.inclusiveNanos += elapsed;
+		}
+
+		if (depth > 0) {
+			childNanos[depth - 1] += elapsed;
+			childBytes[depth - 1] += allocated;
+		}
+		current = callers[depth];
+		callers[depth] = null;
+	}
+
+	/* keyOf: identity of a callee shared by all its calls
+	 * Bound methods and closures are new Function objects, and a lambda even gets a new
+	 * declaration each time it is evaluated, but the body of a function is always the same. */
+	static Object keyOf(Callable callee) {
+		return (callee instanceof Function) ? ((Function) callee).declaration.body : callee;
+	}
+
+	static String nameOf(Callable callee) {
+		if (callee instanceof Function) {
+			Stmt.FuncStmt declaration = ((Function) callee).declaration;
+			if (declaration.name == null) {
+				return "<lambda>:" + LineFinder.of(declaration);
+			}
+			return declaration.name.lexeme + ":" + declaration.name.line;
+		}
+		if (callee instanceof LoxClass) {
+			return "new " + ((LoxClass) callee).name;
+		}
+		if (callee instanceof NativeFunction) {
+			return ((NativeFunction) callee).name + " (native)";
+		}
+		return callee.toString();
+	}
+
+	/* stop: mark the end of the profiled run, called by the interpreter thread after each script
+	 * since the allocation counter only reads the calling thread */
+	void stop() {
+		runEndNanos = System.nanoTime();
+		runEndBytes = threads.getCurrentThreadAllocatedBytes();
+	}
+
+	/* finish: charge the time and allocations outside of any call to the top-level code */
+	private void finish() {
+		long elapsed = runEndNanos - runStartNanos;
+		long allocated = runEndBytes - runStartBytes;
+
+		long callNanos = 0;
+		long callBytes = 0;
+		List<Node> pending = new ArrayList<>(root.children.values());
+		while (!pending.isEmpty()) {
+			Node node = pending.remove(pending.size() - 1);
+			callNanos += node.selfNanos;
+			callBytes += node.selfBytes;
+			pending.addAll(node.children.values());
+		}
+
+		root.calls = 1;
+		root.selfNanos = elapsed - callNanos;
+		root.selfBytes = allocated - callBytes;
+		root.stats.calls = 1;
+		root.stats.inclusiveNanos = elapsed;
+		root.stats.selfNanos = root.selfNanos;
+		root.stats.selfBytes = root.selfBytes;
+	}
+
+	/* report: print the per-function summary to @summary and write the call stacks to @stacks in
+	 * the collapsed format of flamegraph.pl ("frame;frame;frame <self microseconds>") */
+	void report(PrintStream summary, Path stacks) {
+		finish();
+
+		List<Stats> rows = new ArrayList<>(functions.values());
+		rows.add(root.stats);
+		rows.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+
+		summary.printf(Locale.ROOT, "%-32s %10s %14s %14s %14s%n",
+				"function", "calls", "inclusive ms", "self ms", "self alloc KB");
+		for (Stats row : rows) {
+			summary.printf(Locale.ROOT, "%-32s %10d %14.3f %14.3f %14.1f%n", row.name, row.calls,
+					row.inclusiveNanos / 1e6, row.selfNanos / 1e6, row.selfBytes / 1024.0);
+		}
+		summary.flush();
+
+		try (Writer writer = Files.newBufferedWriter(stacks)) {
+			writeStacks(writer);
+		}
+		catch (IOException exp) {
+			summary.println("Cannot write the call stacks to '" + stacks + "'.");
+		}
+	}
+
+	/* writeStacks: write the call path of every node, depth first
+	 * The paths are built in one StringBuilder, cut back to the path of the parent before each
+	 * child is appended. */
+	private void writeStacks(Writer writer) throws IOException {
+		StringBuilder path = new StringBuilder(root.stats.name);
+		Deque<Iterator<Node>> children = new ArrayDeque<>();
+		Deque<Integer> lengths = new ArrayDeque<>();
+
+		writeStack(writer, path, root);
+		children.push(root.children.values().iterator());
+		lengths.push(path.length());
+		while (!children.isEmpty()) {
+			Iterator<Node> siblings = children.peek();
+			if (!siblings.hasNext()) {
+				children.pop();
+				lengths.pop();
+				continue;
+			}
+
+			Node node = siblings.next();
+			path.setLength(lengths.peek());
+			path.append(';').append(node.stats.name);
+			writeStack(writer, path, node);
+			children.push(node.children.values().iterator());
+			lengths.push(path.length());
+		}
+	}
+
+	private static void writeStack(Writer writer, StringBuilder path, Node node) throws IOException {
+		long micros = node.selfNanos / 1000;
+		if (micros > 0) {
+			writer.append(path).append(' ').append(Long.toString(micros)).append('\n');
+		}
+	}
+}
@@ -1,10 +1,26 @@
 package interpreter;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Stack;
 
+/* Resolver: static pass binding every local variable to its declaration
+ *
+ * Each use of a local gets the number of scopes between it and the declaration, which is how the
+ * engines find it in the chain of Environments. A block that declares nothing, such as most loop
+ * bodies and branches, or the block wrapping a 'for' without a 'var', is not a scope: it is marked
+ * bare, and no engine gives it an Environment. The resolver also finds the locals that a
+ * closure captures, those used from another function than the one declaring them, for the
+ * register frames of the tree-walking interpreter: a local nothing captures gets a register of
+ * its function's frame, where sibling blocks share registers, and only a scope declaring a
+ * captured local still gets an Environment at run time. 'this' and 'super' always live in the
+ * Environments of Function.bind() and of the class. Places are only known once the whole script
+ * is resolved, as a closure may capture a local that earlier uses already resolved. A function
+ * declaring no function, lambda or class creates no closure, so nothing can reach the
+ * Environment of one of its calls once it returns: its frame is marked as not escaping, and the
+ * engines recycle it. */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private final Interpreter interpreter;
 	private final Stack<Map<String, Boolean>> scopes;
@@ -23,6 +39,78 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		NONE, CLASS, SUBCLASS,
 	}
 	private ClassType currentClass = ClassType.NONE;
+
+	/* Frame: registers of a function, or of the blocks of the script */
+	private static final class Frame {
+		final Object key;
+		final Frame outer;
+		final List<Local> params = new ArrayList<>();
+
+		/* Whether a function is declared in the frame's function, whose closure may keep the
+		 * Environments of its calls alive after they return */
+		boolean escapes = false;
+
+		/* Scope of the parameters and of the body's declarations */
+		Scope scope = null;
+		int next = 0;
+		int size = 0;
+
+		Frame(Object key, Frame outer) {
+			this.key = key;
+			this.outer = outer;
+		}
+	}
+
+	/* Scope: the escape analysis' view of an entry of @scopes */
+	private static final class Scope {
+		final Scope outer;
+		final Frame frame;
+		final Stmt.Block block;
+		final int firstSlot;
+		final Map<String, Local> locals = new HashMap<>();
+
+		/* Whether the scope gets an Environment at run time */
+		boolean scoped = false;
+
+		Scope(Scope outer, Frame frame, Stmt.Block block) {
+			this.outer = outer;
+			this.frame = frame;
+			this.block = block;
+			this.firstSlot = frame.next;
+		}
+	}
+
+	private static final class Local {
+		final Scope scope;
+		final int slot;
+		boolean captured = false;
+
+		Local(Scope scope, int slot) {
+			this.scope = scope;
+			this.slot = slot;
+		}
+	}
+
+	/* Use: @site, a use or a declaration of @local from @scope */
+	private static final class Use {
+		final Object site;
+		final Scope scope;
+		final Local local;
+
+		Use(Object site, Scope scope, Local local) {
+			this.site = site;
+			this.scope = scope;
+			this.local = local;
+		}
+	}
+
+	private final Frame script = new Frame(null, null);
+	private Frame frame = script;
+	private Scope scope = null;
+	private final List<Scope> allScopes = new ArrayList<>();
+	private final List<Frame> frames = new ArrayList<>();
+	private final List<Use> uses = new ArrayList<>();
+	private final List<Use> declarations = new ArrayList<>();
 	
 	Resolver(Interpreter interpreter) {
 		this.interpreter = interpreter;
@@ -30,8 +118,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitBlock(Stmt.Block block) {
-		beginScope();
-		resolve(block.statements);
+		/* A block declaring nothing runs in the scope around it, in every engine */
+		if (!declares(block)) {
+			interpreter.resolveBare(block);
+			resolveAll(block.statements);
+			return null;
+		}
+
+		beginScope(block);
+		resolveAll(block.statements);
 		endScope();
 		return null;
 	}
@@ -42,7 +137,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			Lox.hadSyntaxError = true;
 		}
 
-		declare(stmt.identifier);
+		declared(stmt, declare(stmt.identifier));
 		if (stmt.init != null)
 			resolve(stmt.init);
 		define(stmt.identifier);
@@ -50,7 +145,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitFuncStmt(Stmt.FuncStmt stmt) {
-		declare(stmt.name);
+		declared(stmt, declare(stmt.name));
 		define(stmt.name);
 		resolveFunction(stmt, FunctionType.FUNCTION);
 		return null;
@@ -71,6 +166,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitWhile(Stmt.While stmt) {
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.loop(stmt);
+		}
 		resolve(stmt.expr);
 		
 		if (stmt.body != null)
@@ -101,7 +199,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 
 	public Void visitClass(Stmt.Class stmt) {
-		declare(stmt.name);
+		declared(stmt, declare(stmt.name));
 		define(stmt.name);
 		
 		if (stmt.superclass != null) {
@@ -111,18 +209,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 				Lox.hadSyntaxError = true;
 			}
 			else {
-				beginScope();
+				beginScope(null);
 				scopes.peek().put("super", true);
+				bound("super");
 
 				resolve(stmt.superclass);
 			}
 		}
 
-		beginScope();
+		beginScope(null);
 		ClassType beforeDecl = currentClass;	// Save state before class declaration
 		currentClass = (stmt.superclass == null) ? ClassType.CLASS : ClassType.SUBCLASS;
 
 		scopes.peek().put("this", true);
+		bound("this");
 		for (Stmt.FuncStmt method : stmt.methods) {
 			FunctionType declaration = (method.name.lexeme.equals("init")) ?
 							FunctionType.INIT : FunctionType.METHOD;
@@ -149,6 +249,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitBinary(Expr.Binary expr) {
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.binary(expr.op);
+		}
 		resolve(expr.left);
 		resolve(expr.right);
 		return null;
@@ -183,6 +286,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	
 	public Void visitCall(Expr.Call expr) {
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.call(expr.paren);
+		}
 		resolve(expr.callee);
 		
 		for (Expr param : expr.args) {
@@ -213,20 +319,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	public Void visitArrayLiteral(Expr.ArrayLiteral expr) {
+		for (Expr element : expr.elements) {
+			resolve(element);
+		}
+		return null;
+	}
+
+	public Void visitIndex(Expr.Index expr) {
+		resolve(expr.object);
+		resolve(expr.index);
+		return null;
+	}
+
+	public Void visitIndexSet(Expr.IndexSet expr) {
+		resolve(expr.object);
+		resolve(expr.index);
+		resolve(expr.value);
+		return null;
+	}
+
 	public Void visitFunction(Expr.Function expr) {
-		beginScope();
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.function(expr.body, null);
+		}
+		Frame enclosingFrame = beginFrame(expr.body);
 		// Tell resolver it is inside a function's body
 		FunctionType beforeEval = currentFunc;
 		currentFunc = FunctionType.FUNCTION;
 
 		for (Token argument : expr.args) {
-			declare(argument);
+			frame.params.add(declare(argument));
 			define(argument);
 		}
-		resolve(expr.body.statements);
+		resolveAll(expr.body.statements);
 
 		currentFunc = beforeEval;
 		endScope();
+		frame = enclosingFrame;
 		return null;
 	}
 
@@ -252,18 +382,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private void resolveLocal(Expr expr, Token name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
 			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
+				int depth = scopes.size() - 1 - i;
+				interpreter.resolve(expr, depth);
+
+				Scope declaring = scope;
+				for (int j = 0; j < depth; j++) {
+					declaring = declaring.outer;
+				}
+				Local local = declaring.locals.get(name.lexeme);
+				if (declaring.frame != frame) {
+					local.captured = true;
+				}
+				uses.add(new Use(expr, scope, local));
 				return;
 			}
 		}
 	}
 	
-	private void declare(Token name) {
+	/* declare: declare @name in the innermost scope, giving its Local, null for a global */
+	private Local declare(Token name) {
 		if (scopes.empty()) {
-			return;
+			return null;
 		}
 		
 		scopes.peek().put(name.lexeme, false);
+
+		Local local = new Local(scope, frame.next++);
+		frame.size = Math.max(frame.size, frame.next);
+		Local previous = scope.locals.put(name.lexeme, local);
+		if (previous != null) {
+			/* Declared twice, which Environment.define() reports when the second one runs */
+			previous.captured = true;
+			local.captured = true;
+		}
+		return local;
+	}
+
+	private void declared(Stmt stmt, Local local) {
+		if (local != null) {
+			declarations.add(new Use(stmt, scope, local));
+		}
+	}
+
+	/* bound: 'this' or 'super', which the innermost scope, one of a class, holds */
+	private void bound(String name) {
+		Local local = new Local(scope, -1);
+		local.captured = true;
+		scope.locals.put(name, local);
 	}
 	
 	private void define(Token name) {
@@ -273,7 +438,55 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		scopes.peek().put(name.lexeme, true);
 	}
 	
+	/* resolve: resolve a script, then give the interpreter the places of its locals */
 	void resolve(List<Stmt> statements) {
+		resolveAll(statements);
+
+		for (Scope each : allScopes) {
+			for (Local local : each.locals.values()) {
+				each.scoped |= local.captured;
+			}
+			if (each.block != null && each.scoped) {
+				interpreter.resolveScoped(each.block);
+			}
+		}
+		for (Use use : uses) {
+			interpreter.resolvePlace(use.site, placeOf(use));
+		}
+		for (Use declaration : declarations) {
+			interpreter.resolvePlace(declaration.site, placeOf(declaration));
+		}
+
+		interpreter.resolveFrame(statements, new Interpreter.FrameLayout(script.size, false, new int[0], true));
+		for (Frame each : frames) {
+			int[] params = new int[each.params.size()];
+			for (int i = 0; i < params.length; i++) {
+				Local param = each.params.get(i);
+				params[i] = param.captured ? -1 : param.slot;
+			}
+			interpreter.resolveFrame(each.key,
+					new Interpreter.FrameLayout(each.size, each.scope.scoped, params, each.escapes));
+		}
+	}
+
+	/* placeOf: register of the local of @use, or -1 - the number of Environments between the
+	 * use and the local's */
+	private static int placeOf(Use use) {
+		Local local = use.local;
+		if (!local.captured) {
+			return local.slot;
+		}
+
+		int depth = 0;
+		for (Scope each = use.scope; each != local.scope; each = each.outer) {
+			if (each.scoped) {
+				depth++;
+			}
+		}
+		return -1 - depth;
+	}
+
+	private void resolveAll(List<Stmt> statements) {
 		for (Stmt statement : statements) {
 			resolve(statement);
 		}
@@ -290,28 +503,63 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private void resolveFunction(Stmt.FuncStmt function, FunctionType type) {
 		FunctionType enclosingFunc = currentFunc;
 		currentFunc = type;
+		if (interpreter.siteProfile != null) {
+			interpreter.siteProfile.function(function.body, function.name);
+		}
 		
-		beginScope();
+		Frame enclosingFrame = beginFrame(function.body);
 		
 		//Resolve parameters
 		for (Token param : function.argNames) {
-			declare(param);
+			frame.params.add(declare(param));
 			define(param);
 		}
 		
-		resolve(function.body.statements);
+		resolveAll(function.body.statements);
 		
 		endScope();
+		frame = enclosingFrame;
 
 		currentFunc = enclosingFunc;
 	}
 	
-	private void beginScope() {
+	private static boolean declares(Stmt.Block block) {
+		for (Stmt statement : block.statements) {
+			if (statement instanceof Stmt.VarStmt || statement instanceof Stmt.FuncStmt
+					|| statement instanceof Stmt.Class) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* beginScope: scope of @block, null for the scopes of a class */
+	private void beginScope(Stmt.Block block) {
 		scopes.add(new HashMap<String, Boolean>());
+		scope = new Scope(scope, frame, block);
+		allScopes.add(scope);
+	}
+
+	/* beginFrame: scope of the parameters and body of a function, with its own registers;
+	 * gives the frame to restore once it is resolved */
+	private Frame beginFrame(Stmt.Block body) {
+		Frame enclosing = frame;
+		/* The closure's chain of Environments goes through the calls of every enclosing function */
+		for (Frame each = enclosing; each != null && !each.escapes; each = each.outer) {
+			each.escapes = true;
+		}
+		frame = new Frame(body, enclosing);
+		frames.add(frame);
+		beginScope(null);
+		frame.scope = scope;
+		return enclosing;
 	}
 	
 	private void endScope() {
 		scopes.pop();
+		/* The registers of the scope are free for the blocks after it */
+		scope.frame.next = scope.firstSlot;
+		scope = scope.outer;
 	}
 	
 }
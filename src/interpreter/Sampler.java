@@ -0,0 +1,167 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/* Sampler: sampling profiler of Lox code, enabled with --sample
+ *
+ * A daemon thread reads the CallStack published by the interpreter at a fixed rate and counts,
+ * for every sample, the function and the statement on top of the stack (self samples) and every
+ * function on the stack (total samples). The interpreter thread only pays for keeping the
+ * CallStack up to date: a store per statement and a push/pop per call. Statements are mapped to
+ * source lines when the report is printed, not while sampling. */
+final class Sampler implements Runnable {
+	private static final int TOP_LINES = 20;
+
+	/* Samples of one function */
+	private static final class Counts {
+		final String name;
+		long self = 0;
+		long total = 0;
+
+		/* Sample in which this function was last counted, a recursive function is counted once */
+		long lastSample = -1;
+
+		Counts(String name) {
+			this.name = name;
+		}
+	}
+
+	private final CallStack stack;
+	private final long periodNanos;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/* Written by the sampler thread only, read once it has stopped */
+	private final Map<Object, Counts> functions = new IdentityHashMap<>();
+	private final Counts script = new Counts("<script>");
+	private final Map<Stmt, long[]> statements = new IdentityHashMap<>();
+	private long samples = 0;
+
+	/* @stack: call stack published by the interpreter
+	 * @rate: samples per second */
+	Sampler(CallStack stack, int rate) {
+		this.stack = stack;
+		this.periodNanos = 1_000_000_000L / rate;
+		this.thread = new Thread(this, "lox-sampler");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/* stop: stop sampling and wait for the sampler thread to finish its last sample */
+	void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		}
+		catch (InterruptedException exp) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run() {
+		while (running) {
+			LockSupport.parkNanos(periodNanos);
+			if (running) {
+				sample();
+			}
+		}
+	}
+
+	private void sample() {
+		/* The arrays are read once, the interpreter may replace them when the stack grows */
+		Function[] frames = stack.functions;
+		Stmt[] current = stack.statements;
+		int depth = Math.min(stack.depth, Math.min(frames.length, current.length) - 1);
+		if (depth < 0) {
+			return;
+		}
+
+		samples++;
+		script.total++;
+		for (int i = 1; i <= depth; i++) {
+			Counts counts = countsOf(frames[i]);
+			if (counts != null && counts.lastSample != samples) {
+				counts.lastSample = samples;
+				counts.total++;
+			}
+		}
+
+		Counts top = (depth == 0) ? script : countsOf(frames[depth]);
+		if (top != null) {
+			top.self++;
+		}
+
+		Stmt stmt = current[depth];
+		if (stmt != null) {
+			long[] count = statements.get(stmt);
+			if (count == null) {
+				statements.put(stmt, count = new long[1]);
+			}
+			count[0]++;
+		}
+	}
+
+	private Counts countsOf(Function function) {
+		if (function == null) {
+			return null;
+		}
+
+		Object key = Profiler.keyOf(function);
+		Counts counts = functions.get(key);
+		if (counts == null) {
+			counts = new Counts(Profiler.nameOf(function));
+			functions.put(key, counts);
+		}
+		return counts;
+	}
+
+	/* report: print the samples per function and the hottest source lines
+	 * @source: lines of the script, used to show the hot lines, may be null */
+	void report(PrintStream out, String[] source) {
+		out.printf(Locale.ROOT, "%d samples, %.1f ms apart%n", samples, periodNanos / 1e6);
+		if (samples == 0) {
+			out.flush();
+			return;
+		}
+
+		List<Counts> rows = new ArrayList<>(functions.values());
+		rows.add(script);
+		rows.sort((a, b) -> Long.compare(b.self, a.self));
+
+		out.printf(Locale.ROOT, "%-32s %10s %8s %10s %8s%n", "function", "self", "self %", "total", "total %");
+		for (Counts row : rows) {
+			out.printf(Locale.ROOT, "%-32s %10d %8.2f %10d %8.2f%n", row.name,
+					row.self, 100.0 * row.self / samples, row.total, 100.0 * row.total / samples);
+		}
+
+		/* Statements on the same line are merged */
+		Map<Integer, long[]> lines = new HashMap<>();
+		for (Map.Entry<Stmt, long[]> entry : statements.entrySet()) {
+			lines.computeIfAbsent(LineFinder.of(entry.getKey()), line -> new long[1])[0] += entry.getValue()[0];
+		}
+
+		List<Map.Entry<Integer, long[]>> hot = new ArrayList<>(lines.entrySet());
+		hot.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+		out.println();
+		out.printf(Locale.ROOT, "%6s %10s %8s  %s%n", "line", "samples", "%", "source");
+		for (Map.Entry<Integer, long[]> entry : hot.subList(0, Math.min(TOP_LINES, hot.size()))) {
+			int line = entry.getKey();
+			String text = (source != null && line > 0 && line <= source.length) ? source[line - 1].strip() : "";
+			out.printf(Locale.ROOT, "%6d %10d %8.2f  %s%n", line, entry.getValue()[0],
+					100.0 * entry.getValue()[0] / samples, text);
+		}
+		out.flush();
+	}
+}
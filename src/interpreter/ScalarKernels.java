@@ -0,0 +1,54 @@
+package interpreter;
+
+/* ScalarKernels: plain loops, used when the vector API is not available */
+class ScalarKernels implements NumericKernels {
+	public double sum(double[] a, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public double dot(double[] a, double[] b, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	public void axpy(double alpha, double[] x, double[] y, int length) {
+		for (int i = 0; i < length; i++) {
+			y[i] += alpha * x[i];
+		}
+	}
+
+	public void add(double[] a, double[] b, double[] out, int length) {
+		for (int i = 0; i < length; i++) {
+			out[i] = a[i] + b[i];
+		}
+	}
+
+	public void multiply(double[] a, double[] b, double[] out, int length) {
+		for (int i = 0; i < length; i++) {
+			out[i] = a[i] * b[i];
+		}
+	}
+
+	public double min(double[] a, int length) {
+		double min = a[0];
+		for (int i = 1; i < length; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return min;
+	}
+
+	public double max(double[] a, int length) {
+		double max = a[0];
+		for (int i = 1; i < length; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return max;
+	}
+}
@@ -3,6 +3,7 @@ package interpreter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
+import java.util.Map;
 
 public class Scanner {
 	private String source;					    /* Source code represented as a String */
@@ -10,6 +11,7 @@ public class Scanner {
 	private int line = 1;					    /* Current line number */
 	private int start = 0;					    /* Starting index of the lexeme */
 	private int current = 0;				    /* Index of the current character */
+	private final Map<String, String> lexemes = new HashMap<>();  /* Shared lexemes of names, keywords and operators */
 	static final HashMap<String, TokenType> reservedKeywords;
 	
 	static {
@@ -43,7 +45,7 @@ public class Scanner {
 		scanToken();
 	    }
 	    
-	    tokens.add(new Token(TokenType.EOF, "", null, line));
+	    tokens.add(new Token(TokenType.EOF, "", line));
 	}
 
 	/* @scanToken(): Scan a token per time in the source
@@ -78,6 +80,12 @@ public class Scanner {
 		case '}':
 		    addToken(TokenType.RIGHT_BRACKET);
 		    break;
+		case '[':
+		    addToken(TokenType.LEFT_SQUARE);
+		    break;
+		case ']':
+		    addToken(TokenType.RIGHT_SQUARE);
+		    break;
 		case '+':
 		    addToken(scanCharIfMatch('=') ? TokenType.INC_ASGN : TokenType.PLUS);
 		    break;
@@ -185,13 +193,17 @@ public class Scanner {
 	    return tokens;
 	}
 
+	/* addToken: add the token from `start` to `current`
+	 * The lexeme of a name, keyword or operator is shared with the other tokens of the same text,
+	 * the lexeme of a literal is its own. */
 	private void addToken(TokenType type) {
-	    addToken(type, null);
-	}
-
-	private void addToken(TokenType type, Object literal) {
 	    String lexeme = source.substring(start, current);
-	    tokens.add(new Token(type, lexeme, literal, line));
+	    if (type != TokenType.STR_LIT && type != TokenType.NUM) {
+		String shared = lexemes.putIfAbsent(lexeme, lexeme);
+		if (shared != null)
+		    lexeme = shared;
+	    }
+	    tokens.add(new Token(type, lexeme, line));
 	}
 
 	private char getCurrentChar() {
@@ -220,10 +232,8 @@ public class Scanner {
 		Lox.reportError("Unterminated string", "", line);
 	    }
 
-	    String strLit = source.substring(start + 1, current);
-
 	    scanChar();
-	    addToken(TokenType.STR_LIT, strLit);
+	    addToken(TokenType.STR_LIT);
 	}
 
 	/* @scanIdentifier(): Scan identifiers or reserved tokens
@@ -240,15 +250,6 @@ public class Scanner {
 	    if (type == null)
 		type = TokenType.IDENTIFIER;
 	    
-	    if (type == TokenType.TRUE) {
-	    	addToken(type, true);
-	    	return;
-	    }
-	    else if (type == TokenType.FALSE) {
-	    	addToken(type, false);
-	    	return;
-	    }
-
 	    addToken(type);
 	}
 	/* @scanChar(): scan the current character */
@@ -291,7 +292,6 @@ public class Scanner {
 		    scanChar();
 	    }
 
-	    Double value = Double.parseDouble(source.substring(start, current));
-	    addToken(TokenType.NUM, value);
+	    addToken(TokenType.NUM);
 	}
 }
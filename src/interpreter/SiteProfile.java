@@ -0,0 +1,284 @@
+package interpreter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/* SiteProfile: what the engines learned about the sites of a script, kept between runs for
+ * --warm-start
+ *
+ * The resolver numbers the sites that engines profile, in source order: binary operators, calls,
+ * while loops and function bodies. The engines record here what they learn about them, when they
+ * learn it: the operand types a node of the self-specializing engine was rewritten for, the
+ * calls that went megamorphic, and the functions and loops that got hot enough to be compiled,
+ * with the parameters and variables the Jit found boxed. At exit the profile is written to
+ * <directory>/<hash>.profile, the hash being the SHA-256 of the source. The next run of the same
+ * source loads it before running: binary nodes are built specialized, megamorphic sites start
+ * generic, and hot functions and loops are compiled on their first call or iteration.
+ *
+ * A profile is checked against the sites the resolver numbered, their count, kind and operator.
+ * A file that cannot be read, is of another format or does not match is ignored: the run starts
+ * cold and writes a new one. Profiles are only hints, as specialized nodes and compiled code keep
+ * their guards: a profile that is wrong for this run costs a deoptimization, not a wrong result. */
+final class SiteProfile {
+	static final String DEFAULT_DIRECTORY = ".lox-profiles";
+
+	/* First line of the files, changed with their format */
+	private static final String HEADER = "lox-site-profile 1";
+
+	/* Operand types of a binary node, see ExprNode.Uninitialized */
+	static final String NUMBERS = "numbers";
+	static final String STRINGS = "strings";
+	static final String GENERIC = "generic";
+
+	private static final String MEGAMORPHIC = "megamorphic";
+
+	private enum Kind {
+		BINARY, CALL, LOOP, FUNCTION,
+	}
+
+	private static final class Site {
+		final int id;
+		final Kind kind;
+		final String detail;
+
+		/* What was learned about the site, null while nothing was */
+		String value = null;
+
+		Site(int id, Kind kind, String detail) {
+			this.id = id;
+			this.kind = kind;
+			this.detail = detail;
+		}
+	}
+
+	private final Path directory;
+
+	/* Sites by the object that stands for them: the operator or parenthesis token of binary
+	 * operators and calls, the statement of loops, the body of functions */
+	private final Map<Object, Site> sites = new IdentityHashMap<>();
+	private final List<Site> numbered = new ArrayList<>();
+
+	/* Hash of the source, null until load() */
+	private String hash = null;
+
+	SiteProfile(Path directory) {
+		this.directory = directory;
+	}
+
+	/* Numbering, by the resolver */
+
+	void binary(Token op) {
+		number(op, Kind.BINARY, op.lexeme);
+	}
+
+	void call(Token paren) {
+		number(paren, Kind.CALL, "");
+	}
+
+	void loop(Stmt.While stmt) {
+		number(stmt, Kind.LOOP, "");
+	}
+
+	void function(Stmt.Block body, Token name) {
+		number(body, Kind.FUNCTION, (name == null) ? "" : name.lexeme);
+	}
+
+	private void number(Object key, Kind kind, String detail) {
+		Site site = new Site(numbered.size(), kind, detail);
+		sites.put(key, site);
+		numbered.add(site);
+	}
+
+	/* Lookups and records, by the engines and the Jit */
+
+	/* operands: operand types of binary @op, one of NUMBERS, STRINGS or GENERIC, or null */
+	synchronized String operands(Token op) {
+		return valueOf(op);
+	}
+
+	synchronized void recordOperands(Token op, String types) {
+		record(op, types);
+	}
+
+	synchronized boolean megamorphic(Token paren) {
+		return MEGAMORPHIC.equals(valueOf(paren));
+	}
+
+	synchronized void recordMegamorphic(Token paren) {
+		record(paren, MEGAMORPHIC);
+	}
+
+	/* hotFunction: parameters found boxed in the function of @body, null unless it got hot */
+	synchronized boolean[] hotFunction(Stmt.Block body) {
+		String value = valueOf(body);
+		if (value == null) {
+			return null;
+		}
+		boolean[] boxed = new boolean[value.length()];
+		for (int i = 0; i < boxed.length; i++) {
+			boxed[i] = value.charAt(i) == '1';
+		}
+		return boxed;
+	}
+
+	synchronized void recordFunction(Stmt.Block body, boolean[] boxed) {
+		StringBuilder value = new StringBuilder();
+		for (boolean parameter : boxed) {
+			value.append(parameter ? '1' : '0');
+		}
+		record(body, value.toString());
+	}
+
+	/* hotLoop: variables found boxed around @stmt, as Jit.Loop.boxed, null unless it got hot */
+	synchronized Set<String> hotLoop(Stmt.While stmt) {
+		String value = valueOf(stmt);
+		if (value == null) {
+			return null;
+		}
+		Set<String> boxed = new HashSet<>();
+		for (String variable : value.split(",")) {
+			if (!variable.isEmpty()) {
+				boxed.add(variable);
+			}
+		}
+		return boxed;
+	}
+
+	synchronized void recordLoop(Stmt.While stmt, Set<String> boxed) {
+		record(stmt, String.join(",", boxed));
+	}
+
+	private String valueOf(Object key) {
+		Site site = sites.get(key);
+		return (site == null) ? null : site.value;
+	}
+
+	private void record(Object key, String value) {
+		Site site = sites.get(key);
+		if (site != null) {
+			site.value = value;
+		}
+	}
+
+	/* Files */
+
+	/* load: read the profile recorded for @source, once the resolver numbered its sites; whether
+	 * there was one that matched */
+	synchronized boolean load(String source) {
+		hash = hash(source);
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file(), StandardCharsets.UTF_8);
+		}
+		catch (IOException exp) {
+			return false;
+		}
+
+		String[] values = parse(lines);
+		if (values == null) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			numbered.get(i).value = values[i];
+		}
+		return true;
+	}
+
+	/* parse: value of each numbered site according to @lines, null when they do not match them */
+	private String[] parse(List<String> lines) {
+		if (lines.size() < 2 || !lines.get(0).equals(HEADER)
+				|| !lines.get(1).equals(hash + " " + numbered.size())) {
+			return null;
+		}
+
+		String[] values = new String[numbered.size()];
+		for (String line : lines.subList(2, lines.size())) {
+			/* id, kind, detail, value */
+			String[] fields = line.split("\t", -1);
+			if (fields.length != 4) {
+				return null;
+			}
+			Site site;
+			try {
+				site = numbered.get(Integer.parseInt(fields[0]));
+			}
+			catch (NumberFormatException | IndexOutOfBoundsException exp) {
+				return null;
+			}
+			if (!site.kind.name().toLowerCase(Locale.ROOT).equals(fields[1]) || !site.detail.equals(fields[2])
+					|| !valid(site.kind, fields[3])) {
+				return null;
+			}
+			values[site.id] = fields[3];
+		}
+		return values;
+	}
+
+	private static boolean valid(Kind kind, String value) {
+		switch (kind) {
+		case BINARY:
+			return value.equals(NUMBERS) || value.equals(STRINGS) || value.equals(GENERIC);
+		case CALL:
+			return value.equals(MEGAMORPHIC);
+		case FUNCTION:
+			return value.matches("[01]*");
+		default:
+			return value.matches("([0-9]+:[^,\\s]+(,[0-9]+:[^,\\s]+)*)?");
+		}
+	}
+
+	/* save: write the profile, replacing the one it was loaded from */
+	synchronized void save() throws IOException {
+		if (hash == null) {
+			return;
+		}
+
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, hash, ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			writer.write(hash + " " + numbered.size());
+			writer.newLine();
+			for (Site site : numbered) {
+				if (site.value != null) {
+					writer.write(site.id + "\t" + site.kind.name().toLowerCase(Locale.ROOT) + "\t" + site.detail + "\t" + site.value);
+					writer.newLine();
+				}
+			}
+		}
+		/* Another run of the same script may be writing it too: the last one wins, whole */
+		Files.move(temporary, file(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path file() {
+		return directory.resolve(hash + ".profile");
+	}
+
+	private static String hash(String source) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException exp) {
+			throw new IllegalStateException(exp);
+		}
+	}
+}
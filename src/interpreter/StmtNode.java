@@ -0,0 +1,319 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* StmtNode: executable statement of the self-specializing engine
+ *
+ * Statements run through NodeInterpreter.execute(), which keeps the counters and the published
+ * CallStack up to date the way Interpreter.execute() does; @stmt is the statement the node was
+ * built from, published for the sampler.
+ *
+ * 'return', 'break' and 'continue' are not thrown from the statement that executes them. The
+ * ReturnValue or LoopException is returned as the completion of the statement instead, and
+ * passed up by the enclosing statements until a loop or the body of the function consumes it:
+ * throwing through the megamorphic execute() calls of every statement in between costs far more
+ * than the call itself. A null completion means execution continues with the next statement. */
+abstract class StmtNode extends Node {
+	final Stmt stmt;
+
+	StmtNode(Stmt stmt) {
+		this.stmt = stmt;
+	}
+
+	abstract Object execute(Environment env);
+
+	static final class Expression extends StmtNode {
+		private final NodeInterpreter engine;
+		private ExprNode expression;
+
+		Expression(NodeInterpreter engine, Stmt stmt, ExprNode expression) {
+			super(stmt);
+			this.engine = engine;
+			this.expression = adopt(expression);
+		}
+
+		Object execute(Environment env) {
+			Object value = expression.execute(env);
+			if (Lox.echoes(stmt)) {
+				engine.out.println(value);
+			}
+			return null;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (expression == child) {
+				expression = replacement;
+			}
+		}
+	}
+
+	static final class Print extends StmtNode {
+		private final NodeInterpreter engine;
+		private ExprNode expression;
+
+		Print(NodeInterpreter engine, Stmt stmt, ExprNode expression) {
+			super(stmt);
+			this.engine = engine;
+			this.expression = adopt(expression);
+		}
+
+		Object execute(Environment env) {
+			engine.out.println(expression.execute(env));
+			return null;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (expression == child) {
+				expression = replacement;
+			}
+		}
+	}
+
+	static final class Var extends StmtNode {
+		private final Token identifier;
+		private ExprNode init;
+
+		Var(Stmt.VarStmt stmt, ExprNode init) {
+			super(stmt);
+			this.identifier = stmt.identifier;
+			this.init = adopt(init);
+		}
+
+		Object execute(Environment env) {
+			env.define(identifier, init.execute(env));
+			return null;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (init == child) {
+				init = replacement;
+			}
+		}
+	}
+
+	/* Block: statements run in a scope of their own, in the scope around them for a bare block (see
+	 * Resolver), or in the frame of a call for a body */
+	static final class Block extends StmtNode {
+		private final NodeInterpreter engine;
+		private final StmtNode[] statements;
+		private final boolean bare;
+
+		Block(NodeInterpreter engine, Stmt.Block stmt, StmtNode[] statements) {
+			super(stmt);
+			this.engine = engine;
+			this.statements = statements;
+			this.bare = engine.isBare(stmt);
+			for (StmtNode statement : statements) {
+				adopt(statement);
+			}
+		}
+
+		Object execute(Environment env) {
+			if (bare) {
+				return executeIn(env);
+			}
+			engine.counters.environments++;
+			return executeIn(new Environment(env));
+		}
+
+		Object executeIn(Environment scope) {
+			for (StmtNode statement : statements) {
+				Object completion = engine.execute(statement, scope);
+				if (completion != null) {
+					return completion;
+				}
+			}
+			return null;
+		}
+	}
+
+	static final class Conditional extends StmtNode {
+		private final NodeInterpreter engine;
+		private ExprNode condition;
+		private final StmtNode thenBranch;
+		private final StmtNode elseBranch;
+
+		Conditional(NodeInterpreter engine, Stmt stmt, ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+			super(stmt);
+			this.engine = engine;
+			this.condition = adopt(condition);
+			this.thenBranch = adopt(thenBranch);
+			this.elseBranch = adopt(elseBranch);
+		}
+
+		Object execute(Environment env) {
+			if (Interpreter.truthVal(condition.execute(env))) {
+				return engine.execute(thenBranch, env);
+			}
+			return engine.execute(elseBranch, env);
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (condition == child) {
+				condition = replacement;
+			}
+		}
+	}
+
+	static final class While extends StmtNode {
+		private final NodeInterpreter engine;
+		private ExprNode condition;
+		private final StmtNode body;
+		private ExprNode increment;
+
+		/* State of the loop in the Jit, looked up on the first execution */
+		private Jit.Loop loop = null;
+
+		While(NodeInterpreter engine, Stmt stmt, ExprNode condition, StmtNode body, ExprNode increment) {
+			super(stmt);
+			this.engine = engine;
+			this.condition = adopt(condition);
+			this.body = adopt(body);
+			this.increment = adopt(increment);
+		}
+
+		/* A LoopException may also be thrown, by a function called in the body that executes
+		 * 'break' or 'continue' outside of any loop of its own */
+		Object execute(Environment env) {
+			Jit jit = engine.jit;
+			if (jit != null && loop == null) {
+				loop = jit.loop((Stmt.While) stmt);
+			}
+			for (;;) {
+				/* Before every iteration, as the loop may have got hot while running */
+				if (jit != null) {
+					Object completion = jit.enter(engine, loop, (Stmt.While) stmt, env);
+					if (completion != Jit.INTERPRET) {
+						return completion;
+					}
+				}
+				if (!Interpreter.truthVal(condition.execute(env))) {
+					break;
+				}
+				if (jit != null) {
+					jit.backEdge(loop);
+				}
+				Object completion;
+				try {
+					completion = engine.execute(body, env);
+				}
+				catch (LoopException exp) {
+					completion = exp;
+				}
+
+				if (completion instanceof ReturnValue) {
+					return completion;
+				}
+				if (completion != null && ((LoopException) completion).token.type == TokenType.BREAK) {
+					break;
+				}
+				if (increment != null) {
+					increment.execute(env);
+				}
+			}
+			return null;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (condition == child) {
+				condition = replacement;
+			}
+			else if (increment == child) {
+				increment = replacement;
+			}
+		}
+	}
+
+	static final class FuncDecl extends StmtNode {
+		FuncDecl(Stmt.FuncStmt stmt) {
+			super(stmt);
+		}
+
+		Object execute(Environment env) {
+			Stmt.FuncStmt declaration = (Stmt.FuncStmt) stmt;
+			env.define(declaration.name, new Function(declaration, env));
+			return null;
+		}
+	}
+
+	static final class Return extends StmtNode {
+		private ExprNode value;
+
+		Return(Stmt stmt, ExprNode value) {
+			super(stmt);
+			this.value = adopt(value);
+		}
+
+		Object execute(Environment env) {
+			return new ReturnValue((value == null) ? null : value.execute(env));
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (value == child) {
+				value = replacement;
+			}
+		}
+	}
+
+	static final class Jump extends StmtNode {
+		private final LoopException completion;
+
+		Jump(Stmt.Jump stmt) {
+			super(stmt);
+			this.completion = new LoopException(stmt.token);
+		}
+
+		Object execute(Environment env) {
+			return completion;
+		}
+	}
+
+	static final class Class extends StmtNode {
+		private final NodeInterpreter engine;
+		private ExprNode superclass;
+
+		Class(NodeInterpreter engine, Stmt.Class stmt, ExprNode superclass) {
+			super(stmt);
+			this.engine = engine;
+			this.superclass = adopt(superclass);
+		}
+
+		/* Same as Interpreter.visitClass() */
+		Object execute(Environment env) {
+			Stmt.Class declaration = (Stmt.Class) stmt;
+			Object inherited = null;
+			if (superclass != null) {
+				inherited = superclass.execute(env);
+				if (!(inherited instanceof LoxClass)) {
+					throw new RuntimeError(declaration.superclass.name,
+							"'" + declaration.superclass.name.lexeme + "' is not a class.");
+				}
+			}
+
+			env.define(declaration.name, null);
+
+			Environment closure = env;
+			if (inherited != null) {
+				engine.counters.environments++;
+				closure = new Environment(env);
+				closure.define("super", inherited);
+			}
+
+			Map<String, Function> methods = new HashMap<>();
+			for (Stmt.FuncStmt method : declaration.methods) {
+				boolean isInit = method.name.lexeme.equals("init");
+				methods.put(method.name.lexeme, new Function(method, closure, isInit));
+			}
+
+			env.assign(declaration.name, new LoxClass(declaration.name.lexeme, methods, (LoxClass) inherited));
+			return null;
+		}
+
+		void replaceChild(ExprNode child, ExprNode replacement) {
+			if (superclass == child) {
+				superclass = replacement;
+			}
+		}
+	}
+}
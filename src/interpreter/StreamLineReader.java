@@ -0,0 +1,25 @@
+package interpreter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/* StreamLineReader: LineReader over a stream that cannot be mapped, e.g. the standard input */
+class StreamLineReader extends LineReader {
+	private final BufferedReader reader;
+
+	StreamLineReader(String name, InputStream in) {
+		super(name);
+		this.reader = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()));
+	}
+
+	String readLine() throws IOException {
+		return reader.readLine();
+	}
+
+	void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,94 @@
+package interpreter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/* StreamNatives: native functions for line-oriented input
+ *
+ * openFile(path)      open a file for reading, the file is memory-mapped
+ * readLine(file)      next line of @file, or nil at the end of the input
+ * eachLine(file, fn)  call @fn with every remaining line of @file
+ * closeFile(file)     release the file
+ * stdin               the standard input, usable wherever a file is expected */
+class StreamNatives {
+	/* The standard input, which the REPL prompt reads too: with a reader each, whichever reads
+	 * first would buffer lines the other one needs */
+	static final LineReader STDIN = new StreamLineReader("stdin", System.in);
+
+	static void define(Environment global) {
+		global.define("stdin", STDIN);
+
+		global.define("openFile", new NativeFunction("openFile", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				if (!(args.get(0) instanceof String)) {
+					throw new NativeError("openFile() expects a path.");
+				}
+
+				String path = (String) args.get(0);
+				try {
+					return MappedLineReader.open(path);
+				}
+				catch (IOException exp) {
+					throw new NativeError("Cannot open file '" + path + "'.");
+				}
+			}
+		});
+
+		global.define("readLine", new NativeFunction("readLine", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LineReader reader = checkReader(name, args.get(0));
+				try {
+					return reader.readLine();
+				}
+				catch (IOException exp) {
+					throw new NativeError("Cannot read from " + reader + ".");
+				}
+			}
+		});
+
+		global.define("eachLine", new NativeFunction("eachLine", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LineReader reader = checkReader(name, args.get(0));
+				if (!(args.get(1) instanceof Callable) || ((Callable) args.get(1)).arity() != 1) {
+					throw new NativeError("eachLine() expects a function of one argument.");
+				}
+
+				Callable function = (Callable) args.get(1);
+
+				/* The argument list is reused for every line, callees do not keep it */
+				Object[] line = new Object[1];
+				List<Object> lineArgs = Arrays.asList(line);
+				try {
+					while ((line[0] = reader.readLine()) != null) {
+						function.call(interpreter, lineArgs);
+					}
+				}
+				catch (IOException exp) {
+					throw new NativeError("Cannot read from " + reader + ".");
+				}
+				return null;
+			}
+		});
+
+		global.define("closeFile", new NativeFunction("closeFile", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LineReader reader = checkReader(name, args.get(0));
+				try {
+					reader.close();
+				}
+				catch (IOException exp) {
+					throw new NativeError("Cannot close " + reader + ".");
+				}
+				return null;
+			}
+		});
+	}
+
+	private static LineReader checkReader(String function, Object value) {
+		if (!(value instanceof LineReader)) {
+			throw new NativeError(function + "() expects a file.");
+		}
+		return (LineReader) value;
+	}
+}
@@ -1,19 +1,24 @@
 package interpreter;
 
+/* Token: a lexeme of the source, as the AST keeps it to look up names and report errors
+ *
+ * The AST holds on to the tokens of names, operators and parentheses for the whole run, so a
+ * token only keeps what execution and error messages need: its type, its lexeme and its line.
+ * The Scanner shares the lexemes of names, keywords and operators, so every use of a name in a
+ * script shares one String. The value of a literal is computed by the Parser from the lexeme,
+ * into the Expr.Literal. */
 public class Token {
 	final TokenType type;
 	final String lexeme;
-	final Object literal;	    /* Literal value of the token (if it exists). E.g: 123, "abc",... */
 	final int line;
 
-	public Token(TokenType type, String lexeme, Object literal, int line) {
+	public Token(TokenType type, String lexeme, int line) {
 	    this.type = type;
 	    this.lexeme = lexeme;
-	    this.literal = literal;
 	    this.line = line;
 	}
 
 	public String toString() {
-	    return type + " " + lexeme + " " + literal;
+	    return type + " " + lexeme;
 	}
 }
@@ -6,6 +6,7 @@ public enum TokenType {
     DOT, SLASH, COMMA, SEMICOLON, 
     LEFT_PAREN, RIGHT_PAREN,		/* Parentheses, aka round braces */
     LEFT_BRACKET, RIGHT_BRACKET,
+    LEFT_SQUARE, RIGHT_SQUARE,		/* Square brackets of arrays */
     PLUS, MINUS, STAR, NOT, COLON, QUESTION,
     MOD,
 
@@ -0,0 +1,122 @@
+package interpreter;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/* VectorKernels: SIMD loops over the preferred vector shape of the machine
+ * Each loop handles whole vectors first and finishes the remaining tail element by element. */
+class VectorKernels implements NumericKernels {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public double sum(double[] a, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			acc = acc.add(DoubleVector.fromArray(SPECIES, a, i));
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public double dot(double[] a, double[] b, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+			DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+			/* Not fma(): the product is rounded before the addition, as in the scalar loops */
+			acc = va.mul(vb).add(acc);
+		}
+
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	public void axpy(double alpha, double[] x, double[] y, int length) {
+		int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+			vx.mul(alpha).add(vy).intoArray(y, i);
+		}
+
+		for (; i < length; i++) {
+			y[i] += alpha * x[i];
+		}
+	}
+
+	public void add(double[] a, double[] b, double[] out, int length) {
+		int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i)
+						.add(DoubleVector.fromArray(SPECIES, b, i))
+						.intoArray(out, i);
+		}
+
+		for (; i < length; i++) {
+			out[i] = a[i] + b[i];
+		}
+	}
+
+	public void multiply(double[] a, double[] b, double[] out, int length) {
+		int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i)
+						.mul(DoubleVector.fromArray(SPECIES, b, i))
+						.intoArray(out, i);
+		}
+
+		for (; i < length; i++) {
+			out[i] = a[i] * b[i];
+		}
+	}
+
+	public double min(double[] a, int length) {
+		int bound = SPECIES.loopBound(length);
+		double min = a[0];
+		int i = 0;
+		if (bound > 0) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, a, 0);
+			for (i = SPECIES.length(); i < bound; i += SPECIES.length()) {
+				acc = acc.min(DoubleVector.fromArray(SPECIES, a, i));
+			}
+			min = acc.reduceLanes(VectorOperators.MIN);
+		}
+
+		for (; i < length; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return min;
+	}
+
+	public double max(double[] a, int length) {
+		int bound = SPECIES.loopBound(length);
+		double max = a[0];
+		int i = 0;
+		if (bound > 0) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, a, 0);
+			for (i = SPECIES.length(); i < bound; i += SPECIES.length()) {
+				acc = acc.max(DoubleVector.fromArray(SPECIES, a, i));
+			}
+			max = acc.reduceLanes(VectorOperators.MAX);
+		}
+
+		for (; i < length; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return max;
+	}
+}
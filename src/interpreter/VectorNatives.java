@@ -0,0 +1,102 @@
+package interpreter;
+
+import java.util.List;
+
+/* VectorNatives: bulk native functions over numeric arrays, see NumericKernels
+ *
+ * vsum(a)             sum of the elements
+ * vdot(a, b)          dot product
+ * vaxpy(alpha, x, y)  y = alpha * x + y in place, return y
+ * vadd(a, b)          new array of the element-wise sums
+ * vmul(a, b)          new array of the element-wise products
+ * vmin(a), vmax(a)    smallest and largest element of a non-empty array */
+class VectorNatives {
+	static void define(Environment global) {
+		final NumericKernels kernels = NumericKernels.INSTANCE;
+
+		global.define("vsum", new NativeFunction("vsum", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNumeric(name, args.get(0));
+				return kernels.sum(a.numbers(), a.size());
+			}
+		});
+
+		global.define("vdot", new NativeFunction("vdot", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNumeric(name, args.get(0));
+				LoxArray b = checkSameSize(name, a, args.get(1));
+				return kernels.dot(a.numbers(), b.numbers(), a.size());
+			}
+		});
+
+		global.define("vaxpy", new NativeFunction("vaxpy", 3) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				if (!(args.get(0) instanceof Double)) {
+					throw new NativeError("vaxpy() expects a number as its first argument.");
+				}
+				LoxArray x = checkNumeric(name, args.get(1));
+				LoxArray y = checkSameSize(name, x, args.get(2));
+				kernels.axpy((double) args.get(0), x.numbers(), y.numbers(), x.size());
+				return y;
+			}
+		});
+
+		global.define("vadd", new NativeFunction("vadd", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNumeric(name, args.get(0));
+				LoxArray b = checkSameSize(name, a, args.get(1));
+				LoxArray result = LoxArray.filled(a.size(), 0.0);
+				kernels.add(a.numbers(), b.numbers(), result.numbers(), a.size());
+				return result;
+			}
+		});
+
+		global.define("vmul", new NativeFunction("vmul", 2) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNumeric(name, args.get(0));
+				LoxArray b = checkSameSize(name, a, args.get(1));
+				LoxArray result = LoxArray.filled(a.size(), 0.0);
+				kernels.multiply(a.numbers(), b.numbers(), result.numbers(), a.size());
+				return result;
+			}
+		});
+
+		global.define("vmin", new NativeFunction("vmin", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNonEmpty(name, args.get(0));
+				return kernels.min(a.numbers(), a.size());
+			}
+		});
+
+		global.define("vmax", new NativeFunction("vmax", 1) {
+			public Object call(Interpreter interpreter, List<Object> args) {
+				LoxArray a = checkNonEmpty(name, args.get(0));
+				return kernels.max(a.numbers(), a.size());
+			}
+		});
+	}
+
+	private static LoxArray checkNumeric(String function, Object value) {
+		LoxArray array = ArrayNatives.checkArray(function, value);
+		if (!array.isNumeric()) {
+			throw new NativeError(function + "() expects an array of numbers.");
+		}
+		return array;
+	}
+
+	private static LoxArray checkSameSize(String function, LoxArray first, Object value) {
+		LoxArray array = checkNumeric(function, value);
+		if (array.size() != first.size()) {
+			throw new NativeError(function + "() expects arrays of the same length.");
+		}
+		return array;
+	}
+
+	private static LoxArray checkNonEmpty(String function, Object value) {
+		LoxArray array = checkNumeric(function, value);
+		if (array.size() == 0) {
+			throw new NativeError(function + "() expects a non-empty array.");
+		}
+		return array;
+	}
+}
@@ -6,4 +6,10 @@
  *
  */
 module nad_interpreter {
+	requires static jdk.incubator.vector;
+	requires jdk.management;
+	requires jdk.jfr;
+
+	/* The interpreter metrics are a standard MBean, introspected by the JMX implementation */
+	exports interpreter to java.management;
 }
@@ -32,6 +32,9 @@ public class AstGenerator {
 				"This: Token keyword",
 				"Function: Stmt.Block body, List<Token> args",
 				"Super: Token keyword, Token method",
+				"ArrayLiteral: Token bracket, List<Expr> elements",
+				"Index: Expr object, Token bracket, Expr index",
+				"IndexSet: Expr object, Token bracket, Expr index, Expr value, Token op",
 		};
 		
 		defineAST(dest, "Expr", ASTDefs, externalClasses);